@@ -23,6 +23,10 @@ import org.vibur.dbcp.pool.*;
 import org.vibur.dbcp.pool.HookHolder.ConnHooks;
 import org.vibur.dbcp.pool.HookHolder.InvocationHooks;
 import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.dbcp.stcache.StatementCacheSweeper;
+import org.vibur.dbcp.stcache.StatementCloser;
+import org.vibur.dbcp.stcache.StatementWarmer;
+import org.vibur.dbcp.util.NanoClock;
 import org.vibur.objectpool.PoolService;
 import org.vibur.objectpool.util.ConcurrentCollection;
 import org.vibur.objectpool.util.ConcurrentLinkedDequeCollection;
@@ -153,11 +157,20 @@ public abstract class ViburConfig {
      * timing information about the connection last use, taken time, etc. See also {@link #logTakenConnectionsOnTimeout}
      * and {@link TakenConnection}. */
     private boolean poolEnableConnectionTracking = false;
+    /** If greater than {@code 0}, the connection taken, restored and last access times, the connection idle time
+     * checks, and the ResultSet retrieval times, are taken from a {@link NanoClock.Coarse coarse clock} which is
+     * updated by a background thread with this resolution, instead of from {@code System.nanoTime()}. This can save
+     * noticeable CPU time on hosts with a slow clock source, particularly with {@link #poolEnableConnectionTracking}
+     * enabled. The SQL query execution times and the connection create and wait times are always precise.
+     * A value of {@code 0} disables it. */
+    private long clockResolutionInMs = 0;
+    private NanoClock clock = NanoClock.SYSTEM;
 
     private PoolService<ConnHolder> pool = null;
     private ConcurrentCollection<ConnHolder> concurrentCollection = new ConcurrentLinkedDequeCollection<>();
     private ViburObjectFactory connectionFactory = null;
     private TakenConnectionsFormatter takenConnectionsFormatter = null;
+    private ConnectionSlots connectionSlots = null;
     private ThreadedPoolReducer poolReducer = null;
 
 
@@ -187,6 +200,19 @@ public abstract class ViburConfig {
      * the call to {@link java.sql.Wrapper#isWrapperFor} on any of these objects will always return {@code false}. */
     private boolean allowUnwrapping = true;
 
+    /** If set to {@code true}, the pool will determine at start time which of the JDBC objects derived from the
+     * pool connections really need to be wrapped in (reflection based) dynamic proxies, and will use lightweight
+     * delegates for the rest. Currently this applies to the JDBC ResultSets: if there are no registered
+     * {@code ResultSetRetrieval} or {@code MethodInvocation} hooks, including when {@link #logLargeResultSet}
+     * is disabled, the ResultSets will be wrapped in delegates which preserve only the parent Statement
+     * identity and the unwrapping semantics, and the iteration over them runs at the raw JDBC driver speed.
+     *
+     * <p>Note that a closed ResultSet delegate will report its closed state and errors as they are reported
+     * by the underlying JDBC driver. */
+    private boolean useThinProxies = false;
+    /** Computed at pool start time from the {@link #useThinProxies} value and the registered invocation hooks. */
+    private boolean thinResultSets = false;
+
 
     private static final AtomicInteger idGenerator = new AtomicInteger(1);
     private final String defaultName = "p" + idGenerator.getAndIncrement();
@@ -198,6 +224,29 @@ public abstract class ViburConfig {
 
     /** Enables or disables the DataSource JMX exposure. */
     private boolean enableJMX = true;
+    /** If {@code true}, the distributions of the connection creation, {@code getConnection()} wait and connection
+     * hold times, of the SQL statements execution time, and of the retrieved ResultSet sizes, will be recorded in
+     * lock-free histograms, and their percentiles will be exposed via JMX, see
+     * {@link org.vibur.dbcp.pool.PoolMetrics PoolMetrics}. The recording is done via the default pool hooks. The number
+     * of threads which are waiting for a connection will also be counted, see
+     * {@link org.vibur.dbcp.ViburDBCPDataSource#getPoolWaiters() getPoolWaiters()}. */
+    private boolean enableMetrics = false;
+    private PoolMetrics poolMetrics = null;
+    /** If greater than {@code 0}, the SQL queries execution statistics (calls, errors, execution time distribution,
+     * and rows) will be aggregated per query fingerprint, for up to this many fingerprints with the most calls, and
+     * will be exposed via JMX, see {@link org.vibur.dbcp.pool.QueryStats QueryStats}. {@code 0} disables it. */
+    private int queryStatsMaxSize = 0;
+    private QueryStats queryStats = null;
+    /** The number of the most recent pool and JDBC events (connection take, restore, create, destroy and validate,
+     * statement execution start and end, {@code getConnection()} timeout, and critical SQL state drain) kept in
+     * the flight recorder ring buffer, see {@link org.vibur.dbcp.pool.FlightRecorder FlightRecorder}. The events
+     * are dumped to the {@link #flightRecorderDumpFile}. A typical size is {@code 1024}. {@code 0} disables it. */
+    private int flightRecorderSize = 0;
+    /** If set, the flight recorder events will be dumped to this file when a {@code getConnection()} call times
+     * out, at most once per 10 seconds, and on request via JMX; requires a {@link #flightRecorderSize} greater than
+     * {@code 0}. This is the only file which the JMX dump operation can write. {@code null} disables the dumps. */
+    private String flightRecorderDumpFile = null;
+    private FlightRecorder flightRecorder = null;
 
 
     /** The time to wait before a call to {@code DataSource.getConnection()} times out and throws an
@@ -226,9 +275,73 @@ public abstract class ViburConfig {
 
     /** Defines the maximum statement cache size. {@code 0} disables it, max values is {@link #STATEMENT_CACHE_MAX_SIZE}.
      * If the statement's cache is not enabled, the client application may safely exclude the dependency
-     * on ConcurrentLinkedCacheMap from its pom.xml file. */
+     * on ConcurrentLinkedCacheMap from its pom.xml file. If the statement's cache is enabled but
+     * ConcurrentLinkedCacheMap is not available, the built-in
+     * {@link org.vibur.dbcp.stcache.TinyLfuStatementCache TinyLfuStatementCache} will be used. */
     private int statementCacheMaxSize = 0;
+    /** The statement cache implementation. If not set and if {@link #statementCacheMaxSize} is greater than
+     * {@code 0}, a {@link org.vibur.dbcp.stcache.ClhmStatementCache ClhmStatementCache} will be created
+     * when the pool is started. An application which prefers a per-connection statement cache, that is, a cache
+     * where the lookups do not contend on a data structure shared by all connections, can set here
+     * a {@link org.vibur.dbcp.stcache.ConnectionStatementCache ConnectionStatementCache} instead, and an
+     * application with a mix of frequent and one-off statements can set here a frequency-aware
+     * {@link org.vibur.dbcp.stcache.TinyLfuStatementCache TinyLfuStatementCache}. */
     private StatementCache statementCache = null;
+    /** If greater than {@code 0}, the built-in ConcurrentLinkedHashMap based statement cache will bound the estimated
+     * memory footprint of its statements to this many bytes, instead of bounding their number by
+     * {@link #statementCacheMaxSize}. A statement's footprint is estimated from the length of its SQL query plus
+     * a fixed per-statement driver overhead, see
+     * {@link org.vibur.dbcp.stcache.ClhmStatementCache#ESTIMATED_STATEMENT_FOOTPRINT ESTIMATED_STATEMENT_FOOTPRINT}.
+     * This budget is enforced only by the built-in ClhmStatementCache, thus, the pool will refuse to start if it is
+     * set together with a custom {@link #statementCache}, or if ConcurrentLinkedHashMap is not available. */
+    private long statementCacheMaxBytes = 0;
+    /** If greater than {@code 0}, the cached statements which have not been used for longer than this time
+     * will be closed and removed from the built-in statement cache implementations by a background sweeper.
+     * {@code 0} disables it. */
+    private int statementCacheIdleTtlInSeconds = 0;
+    private StatementCacheSweeper statementCacheSweeper = null;
+    /** If {@code true} and the statement cache is enabled, the {@code executeQuery(String)} and
+     * {@code executeUpdate(String)} calls on simple JDBC Statements will have the numeric literals
+     * of their simple DML SQL queries replaced with parameters, and will be executed via cached PreparedStatements
+     * instead, see {@link org.vibur.dbcp.util.SqlParameterizer SqlParameterizer}. The queries which cannot be
+     * safely parameterized, the queries executed while the auto-commit is off, and the Statements on which
+     * a {@code set...} method was called, are executed as usual, and so are the queries which execution via
+     * the PreparedStatement fails. */
+    private boolean autoParameterizeStatements = false;
+    /** If {@code true}, the {@code IN (?, ?, ..., ?)} lists of placeholders in the prepared statement SQL queries
+     * will be padded to the next power of two length, with the padding parameters bound to the same value as the last
+     * parameter of their list, so that the queries which differ only by their IN-list lengths will map to
+     * a logarithmic number of cached statements, see {@link org.vibur.dbcp.util.InListBucketer InListBucketer}.
+     * The parameter indexes passed to the {@code set...} methods are remapped accordingly. */
+    private boolean inListBucketing = false;
+    /** If greater than {@code 0}, when a pooled connection is destroyed (for example, by the pool reducer, or
+     * because of a critical SQL state, or a failed validation), up to this many of its most frequently used cached
+     * statements will be remembered, and then prepared in a background thread on a newly created replacement
+     * connection, once the connection is restored to the pool for the first time, and until it is taken again.
+     * Taking such a connection may wait for the one statement prepare in progress on it, if any. This option
+     * applies only to the built-in statement cache implementations. {@code 0} disables it. */
+    private int statementCacheWarmUpSize = 0;
+    /** If set, the hottest cached statements, up to {@link #statementCacheWarmUpSize} of them, will be periodically
+     * written to this file, as well as when the pool is terminated. On the next {@code start()}, the statements
+     * from the file will be prepared on the initial pool connections, within the
+     * {@link #statementCacheWarmUpTimeBudgetInMs} time budget, before the start completes. Only the statements
+     * prepared via methods with {@code int} arguments after the SQL (for example, the result set type and concurrency,
+     * or the auto-generated keys flag) are written to the file. {@code null} disables it. Requires
+     * {@link #statementCacheWarmUpSize} to be greater than {@code 0}. */
+    private String statementCacheWarmUpFile = null;
+    /** How often the hottest cached statements are written to the {@link #statementCacheWarmUpFile}.
+     * {@code 0} means that they will be written only when the pool is terminated. */
+    private int statementCacheWarmUpFileIntervalInSeconds = 300;
+    /** The maximum time that {@code start()} will spend preparing the statements from the
+     * {@link #statementCacheWarmUpFile} on the initial pool connections. */
+    private long statementCacheWarmUpTimeBudgetInMs = 5000;
+    private StatementWarmer statementWarmer = null;
+    /** If {@code true}, the statements evicted from the built-in statement cache implementations will be closed
+     * in a background thread, and only while their connections are idle in the pool, instead of being closed
+     * by the application thread which prepares the statement that triggers the eviction. Taking such a connection
+     * may wait for the one statement close in progress on it, if any. */
+    private boolean statementCacheAsyncClose = false;
+    private StatementCloser statementCloser = null;
 
 
     /** The list of critical SQL states as a comma separated values, see http://stackoverflow.com/a/14412929/1682918 .
@@ -286,6 +399,14 @@ public abstract class ViburConfig {
      * collection can be useful if there are specific compliance requirements for the user application. */
     private boolean includeQueryParameters = true;
 
+    /** If greater than {@code 0}, the events logged by {@link #logConnectionLongerThanMs},
+     * {@link #logQueryExecutionLongerThanMs}, and {@link #logLargeResultSet}, are captured as compact records into
+     * a bounded queue of this size, and are formatted and logged as JSON lines by a background thread, see
+     * {@link AsyncEventLogger}. The events which do not fit in the queue are dropped and counted. A value of {@code 0}
+     * disables it, and the events are formatted and logged by the application threads. */
+    private int asyncLogQueueSize = 0;
+    private AsyncEventLogger asyncEventLogger = null;
+
     /** If set to {@code true}, and if the {@link #connectionTimeoutInMs} is reached and the call to
      * {@code getConnection()} fails with throwing an {@code SQLTimeoutException}, will log at WARN level information
      * about all currently taken connections, including the stack traces of the threads that have taken them, plus
@@ -303,6 +424,21 @@ public abstract class ViburConfig {
      * generating a full JVM thread dump, and thus it has to be used for troubleshooting purposes only, as it may
      * generate a VERY large log output. */
     private boolean logAllStackTracesOnTimeout = false;
+    /** The {@code GetConnectionTimeout} hooks, including the one enabled by {@link #logTakenConnectionsOnTimeout},
+     * receive a snapshot of the taken connections which is taken at most once per this time interval, and which is
+     * shared by all {@code getConnection()} calls which time out during the interval; each hook receives its own copy
+     * of the snapshot. When the pool is exhausted and many threads time out at the same time, only the first of them
+     * logs the full list of the taken connections, and the rest log a short summary of the pool state. A value of
+     * {@code 0} disables it, and a new snapshot is taken and logged on every time out. */
+    private long takenConnectionsSnapshotIntervalInMs = 1000;
+    /** The maximum number of taken connections, the longest held first, which are shown by the
+     * {@link TakenConnectionsFormatter.Default default} taken connections formatter. A value of {@code 0} means
+     * no limit. */
+    private int takenConnectionsFormatterMaxConnections = 0;
+    /** The maximum number of stack trace lines which are shown for every stack trace by the
+     * {@link TakenConnectionsFormatter.Default default} taken connections formatter. A value of {@code 0} means
+     * no limit. */
+    private int takenConnectionsFormatterMaxStackDepth = 0;
 
     /** If different than {@code null}, this regex will be matched against the string representation of each
      * stack trace line that needs to be logged according {@link #logStackTraceForLongConnection},
@@ -500,6 +636,22 @@ public abstract class ViburConfig {
         this.poolEnableConnectionTracking = poolEnableConnectionTracking;
     }
 
+    public long getClockResolutionInMs() {
+        return clockResolutionInMs;
+    }
+
+    public void setClockResolutionInMs(long clockResolutionInMs) {
+        this.clockResolutionInMs = clockResolutionInMs;
+    }
+
+    public NanoClock getClock() {
+        return clock;
+    }
+
+    protected void setClock(NanoClock clock) {
+        this.clock = clock;
+    }
+
     public PoolService<ConnHolder> getPool() {
         return pool;
     }
@@ -532,6 +684,14 @@ public abstract class ViburConfig {
         this.takenConnectionsFormatter = takenConnectionsFormatter;
     }
 
+    public ConnectionSlots getConnectionSlots() {
+        return connectionSlots;
+    }
+
+    protected void setConnectionSlots(ConnectionSlots connectionSlots) {
+        this.connectionSlots = connectionSlots;
+    }
+
     protected ThreadedPoolReducer getPoolReducer() {
         return poolReducer;
     }
@@ -580,6 +740,22 @@ public abstract class ViburConfig {
         this.allowUnwrapping = allowUnwrapping;
     }
 
+    public boolean isUseThinProxies() {
+        return useThinProxies;
+    }
+
+    public void setUseThinProxies(boolean useThinProxies) {
+        this.useThinProxies = useThinProxies;
+    }
+
+    public boolean isThinResultSets() {
+        return thinResultSets;
+    }
+
+    protected void setThinResultSets(boolean thinResultSets) {
+        this.thinResultSets = thinResultSets;
+    }
+
     public String getName() {
         return name;
     }
@@ -613,6 +789,62 @@ public abstract class ViburConfig {
         this.enableJMX = enableJMX;
     }
 
+    public boolean isEnableMetrics() {
+        return enableMetrics;
+    }
+
+    public void setEnableMetrics(boolean enableMetrics) {
+        this.enableMetrics = enableMetrics;
+    }
+
+    public PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    protected void setPoolMetrics(PoolMetrics poolMetrics) {
+        this.poolMetrics = poolMetrics;
+    }
+
+    public int getQueryStatsMaxSize() {
+        return queryStatsMaxSize;
+    }
+
+    public void setQueryStatsMaxSize(int queryStatsMaxSize) {
+        this.queryStatsMaxSize = queryStatsMaxSize;
+    }
+
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    protected void setQueryStats(QueryStats queryStats) {
+        this.queryStats = queryStats;
+    }
+
+    public int getFlightRecorderSize() {
+        return flightRecorderSize;
+    }
+
+    public void setFlightRecorderSize(int flightRecorderSize) {
+        this.flightRecorderSize = flightRecorderSize;
+    }
+
+    public String getFlightRecorderDumpFile() {
+        return flightRecorderDumpFile;
+    }
+
+    public void setFlightRecorderDumpFile(String flightRecorderDumpFile) {
+        this.flightRecorderDumpFile = flightRecorderDumpFile;
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    protected void setFlightRecorder(FlightRecorder flightRecorder) {
+        this.flightRecorder = flightRecorder;
+    }
+
     public long getConnectionTimeoutInMs() {
         return connectionTimeoutInMs;
     }
@@ -657,10 +889,106 @@ public abstract class ViburConfig {
         return statementCache;
     }
 
-    protected void setStatementCache(StatementCache statementCache) {
+    public void setStatementCache(StatementCache statementCache) {
         this.statementCache = statementCache;
     }
 
+    public long getStatementCacheMaxBytes() {
+        return statementCacheMaxBytes;
+    }
+
+    public void setStatementCacheMaxBytes(long statementCacheMaxBytes) {
+        this.statementCacheMaxBytes = statementCacheMaxBytes;
+    }
+
+    public int getStatementCacheIdleTtlInSeconds() {
+        return statementCacheIdleTtlInSeconds;
+    }
+
+    public void setStatementCacheIdleTtlInSeconds(int statementCacheIdleTtlInSeconds) {
+        this.statementCacheIdleTtlInSeconds = statementCacheIdleTtlInSeconds;
+    }
+
+    public StatementCacheSweeper getStatementCacheSweeper() {
+        return statementCacheSweeper;
+    }
+
+    protected void setStatementCacheSweeper(StatementCacheSweeper statementCacheSweeper) {
+        this.statementCacheSweeper = statementCacheSweeper;
+    }
+
+    public boolean isAutoParameterizeStatements() {
+        return autoParameterizeStatements;
+    }
+
+    public void setAutoParameterizeStatements(boolean autoParameterizeStatements) {
+        this.autoParameterizeStatements = autoParameterizeStatements;
+    }
+
+    public boolean isInListBucketing() {
+        return inListBucketing;
+    }
+
+    public void setInListBucketing(boolean inListBucketing) {
+        this.inListBucketing = inListBucketing;
+    }
+
+    public int getStatementCacheWarmUpSize() {
+        return statementCacheWarmUpSize;
+    }
+
+    public void setStatementCacheWarmUpSize(int statementCacheWarmUpSize) {
+        this.statementCacheWarmUpSize = statementCacheWarmUpSize;
+    }
+
+    public String getStatementCacheWarmUpFile() {
+        return statementCacheWarmUpFile;
+    }
+
+    public void setStatementCacheWarmUpFile(String statementCacheWarmUpFile) {
+        this.statementCacheWarmUpFile = statementCacheWarmUpFile;
+    }
+
+    public int getStatementCacheWarmUpFileIntervalInSeconds() {
+        return statementCacheWarmUpFileIntervalInSeconds;
+    }
+
+    public void setStatementCacheWarmUpFileIntervalInSeconds(int statementCacheWarmUpFileIntervalInSeconds) {
+        this.statementCacheWarmUpFileIntervalInSeconds = statementCacheWarmUpFileIntervalInSeconds;
+    }
+
+    public long getStatementCacheWarmUpTimeBudgetInMs() {
+        return statementCacheWarmUpTimeBudgetInMs;
+    }
+
+    public void setStatementCacheWarmUpTimeBudgetInMs(long statementCacheWarmUpTimeBudgetInMs) {
+        this.statementCacheWarmUpTimeBudgetInMs = statementCacheWarmUpTimeBudgetInMs;
+    }
+
+    public boolean isStatementCacheAsyncClose() {
+        return statementCacheAsyncClose;
+    }
+
+    public void setStatementCacheAsyncClose(boolean statementCacheAsyncClose) {
+        this.statementCacheAsyncClose = statementCacheAsyncClose;
+    }
+
+    public StatementCloser getStatementCloser() {
+        return statementCloser;
+    }
+
+    protected void setStatementCloser(StatementCloser statementCloser) {
+        this.statementCloser = statementCloser;
+    }
+
+    public StatementWarmer getStatementWarmer() {
+        return statementWarmer;
+    }
+
+    protected void setStatementWarmer(StatementWarmer statementWarmer) {
+        this.statementWarmer = statementWarmer;
+    }
+
     public String getCriticalSQLStates() {
         return criticalSQLStates;
     }
@@ -725,6 +1053,22 @@ public abstract class ViburConfig {
         this.includeQueryParameters = includeQueryParameters;
     }
 
+    public int getAsyncLogQueueSize() {
+        return asyncLogQueueSize;
+    }
+
+    public void setAsyncLogQueueSize(int asyncLogQueueSize) {
+        this.asyncLogQueueSize = asyncLogQueueSize;
+    }
+
+    public AsyncEventLogger getAsyncEventLogger() {
+        return asyncEventLogger;
+    }
+
+    protected void setAsyncEventLogger(AsyncEventLogger asyncEventLogger) {
+        this.asyncEventLogger = asyncEventLogger;
+    }
+
     public boolean isLogTakenConnectionsOnTimeout() {
         return logTakenConnectionsOnTimeout;
     }
@@ -733,6 +1077,30 @@ public abstract class ViburConfig {
         this.logTakenConnectionsOnTimeout = logTakenConnectionsOnTimeout;
     }
 
+    public long getTakenConnectionsSnapshotIntervalInMs() {
+        return takenConnectionsSnapshotIntervalInMs;
+    }
+
+    public void setTakenConnectionsSnapshotIntervalInMs(long takenConnectionsSnapshotIntervalInMs) {
+        this.takenConnectionsSnapshotIntervalInMs = takenConnectionsSnapshotIntervalInMs;
+    }
+
+    public int getTakenConnectionsFormatterMaxConnections() {
+        return takenConnectionsFormatterMaxConnections;
+    }
+
+    public void setTakenConnectionsFormatterMaxConnections(int takenConnectionsFormatterMaxConnections) {
+        this.takenConnectionsFormatterMaxConnections = takenConnectionsFormatterMaxConnections;
+    }
+
+    public int getTakenConnectionsFormatterMaxStackDepth() {
+        return takenConnectionsFormatterMaxStackDepth;
+    }
+
+    public void setTakenConnectionsFormatterMaxStackDepth(int takenConnectionsFormatterMaxStackDepth) {
+        this.takenConnectionsFormatterMaxStackDepth = takenConnectionsFormatterMaxStackDepth;
+    }
+
     public boolean isLogAllStackTracesOnTimeout() {
         return logAllStackTracesOnTimeout;
     }
@@ -830,6 +1198,10 @@ public abstract class ViburConfig {
                 ", acquireRetryDelayInMs = " + acquireRetryDelayInMs +
                 ", acquireRetryAttempts = " + acquireRetryAttempts +
                 ", statementCacheMaxSize = " + statementCacheMaxSize +
+                ", statementCacheMaxBytes = " + statementCacheMaxBytes +
+                ", statementCacheIdleTtlInSeconds = " + statementCacheIdleTtlInSeconds +
+                ", statementCacheWarmUpSize = " + statementCacheWarmUpSize +
+                ", statementCacheWarmUpFile = " + statementCacheWarmUpFile +
                 ']';
     }
 }
@@ -19,7 +19,14 @@ package org.vibur.dbcp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.pool.*;
+import org.vibur.dbcp.pool.HookHolder.InvocationHooksAccessor;
+import org.vibur.dbcp.stcache.AbstractStatementCache;
 import org.vibur.dbcp.stcache.ClhmStatementCache;
+import org.vibur.dbcp.stcache.StatementCacheSweeper;
+import org.vibur.dbcp.stcache.StatementCloser;
+import org.vibur.dbcp.stcache.StatementWarmer;
+import org.vibur.dbcp.stcache.TinyLfuStatementCache;
+import org.vibur.dbcp.util.NanoClock;
 import org.vibur.objectpool.ConcurrentPool;
 import org.vibur.objectpool.PoolService;
 import org.vibur.objectpool.util.ThreadedPoolReducer;
@@ -233,7 +240,17 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
             setConnector(buildConnector(this, getUsername(), getPassword()));
 
         initDefaultHooks();
+        initThinProxies();
 
+        initStatementCache(); // before the pool, so that the initial connections can be warmed up
+        StatementWarmer statementWarmer = getStatementWarmer();
+        if (statementWarmer != null)
+            statementWarmer.beginStartup();
+
+        if (getConnectionSlots() == null)
+            setConnectionSlots(new ConnectionSlots(getPoolMaxSize()));
+        if (getClockResolutionInMs() > 0 && getClock() == NanoClock.SYSTEM)
+            setClock(new NanoClock.Coarse(getClockResolutionInMs(), getName()));
         ViburObjectFactory connectionFactory = getConnectionFactory();
         if (connectionFactory == null)
             setConnectionFactory(connectionFactory = new ConnectionFactory(this));
@@ -249,8 +266,9 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         }
         poolOperations = new PoolOperations(this, connectionFactory, pool);
 
+        if (statementWarmer != null)
+            statementWarmer.endStartup();
         initPoolReducer();
-        initStatementCache();
 
         if (isEnableJMX())
             registerMBean(this);
@@ -268,8 +286,17 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
 
         if (getPoolReducer() != null)
             getPoolReducer().terminate();
+        if (getStatementWarmer() != null)
+            getStatementWarmer().terminate();
+        if (getStatementCloser() != null)
+            getStatementCloser().terminate();
+        if (getStatementCacheSweeper() != null)
+            getStatementCacheSweeper().terminate();
         if (getStatementCache() != null)
             getStatementCache().close();
+        if (getAsyncEventLogger() != null)
+            getAsyncEventLogger().terminate();
+        getClock().terminate();
 
         if (isEnableJMX())
             unregisterMBean(this);
@@ -297,6 +324,22 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         forbidIllegalArgument(getConnectionTimeoutInMs() < 0);
         forbidIllegalArgument(getLoginTimeoutInSeconds() < 0);
         forbidIllegalArgument(getStatementCacheMaxSize() < 0 && getStatementCache() == null);
+        forbidIllegalArgument(getStatementCacheMaxBytes() < 0);
+        // only the built-in ClhmStatementCache can enforce the statementCacheMaxBytes
+        forbidIllegalArgument(getStatementCacheMaxBytes() > 0 && (getStatementCache() != null || !isClhmAvailable()));
+        forbidIllegalArgument(getStatementCacheIdleTtlInSeconds() < 0);
+        forbidIllegalArgument(getStatementCacheWarmUpSize() < 0);
+        forbidIllegalArgument(getStatementCacheWarmUpFile() != null && getStatementCacheWarmUpSize() == 0);
+        forbidIllegalArgument(getStatementCacheWarmUpFileIntervalInSeconds() < 0);
+        forbidIllegalArgument(getStatementCacheWarmUpTimeBudgetInMs() < 0);
+        forbidIllegalArgument(getQueryStatsMaxSize() < 0);
+        forbidIllegalArgument(getAsyncLogQueueSize() < 0);
+        forbidIllegalArgument(getClockResolutionInMs() < 0);
+        forbidIllegalArgument(getTakenConnectionsSnapshotIntervalInMs() < 0);
+        forbidIllegalArgument(getTakenConnectionsFormatterMaxConnections() < 0);
+        forbidIllegalArgument(getTakenConnectionsFormatterMaxStackDepth() < 0);
+        forbidIllegalArgument(getFlightRecorderSize() < 0);
+        forbidIllegalArgument(getFlightRecorderDumpFile() != null && getFlightRecorderSize() == 0);
         forbidIllegalArgument(getReducerTimeIntervalInSeconds() > 0 && getPoolReducerClass() == null && getPoolReducer() == null);
         forbidIllegalArgument(getReducerSamples() <= 0);
         forbidIllegalArgument(getConnectionIdleLimitInSeconds() >= 0 && getTestConnectionQuery() == null);
@@ -364,6 +407,9 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
     }
 
     private void initDefaultHooks() {
+        if (getAsyncLogQueueSize() > 0 && getAsyncEventLogger() == null)
+            setAsyncEventLogger(new AsyncEventLogger(this, getAsyncLogQueueSize()));
+
         getConnHooks().addOnInit(new DefaultHook.InitConnection(this));
         getConnHooks().addOnGet(new DefaultHook.GetConnectionTiming(this));
         getConnHooks().addOnClose(new DefaultHook.CloseConnection(this));
@@ -371,6 +417,33 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
 
         getInvocationHooks().addOnStatementExecution(new DefaultHook.QueryTiming(this));
         getInvocationHooks().addOnResultSetRetrieval(new DefaultHook.ResultSetSize(this));
+
+        if (isEnableMetrics()) {
+            if (getPoolMetrics() == null)
+                setPoolMetrics(new PoolMetrics());
+            getConnHooks().addOnInit(new DefaultHook.ConnectionCreateMetrics(this));
+            getConnHooks().addOnGet(new DefaultHook.ConnectionWaitMetrics(this));
+            getConnHooks().addOnClose(new DefaultHook.ConnectionHoldMetrics(this));
+            getInvocationHooks().addOnStatementExecution(new DefaultHook.StatementExecutionMetrics(this));
+            getInvocationHooks().addOnResultSetRetrieval(new DefaultHook.ResultSetSizeMetrics(this));
+        }
+        if (getQueryStatsMaxSize() > 0) {
+            if (getQueryStats() == null)
+                setQueryStats(new QueryStats(getQueryStatsMaxSize()));
+            getInvocationHooks().addOnStatementExecution(new DefaultHook.QueryStatsExecution(this));
+            getInvocationHooks().addOnResultSetRetrieval(new DefaultHook.QueryStatsRows(this));
+        }
+        if (getFlightRecorderSize() > 0) {
+            if (getFlightRecorder() == null)
+                setFlightRecorder(new FlightRecorder(getFlightRecorderSize()));
+            getConnHooks().addOnTimeout(new DefaultHook.FlightRecorderDump(this));
+        }
+    }
+
+    private void initThinProxies() {
+        InvocationHooksAccessor invocationHooks = (InvocationHooksAccessor) getInvocationHooks();
+        setThinResultSets(isUseThinProxies() && invocationHooks.onMethodInvocation().length == 0
+                && invocationHooks.onResultSetRetrieval().length == 0);
     }
 
     private void initPoolReducer() throws ViburDBCPException {
@@ -389,8 +462,53 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
 
     private void initStatementCache() {
         int statementCacheMaxSize = getStatementCacheMaxSize();
-        if (statementCacheMaxSize > 0 && getStatementCache() == null)
-            setStatementCache(new ClhmStatementCache(statementCacheMaxSize));
+        if (statementCacheMaxSize > 0 && getStatementCache() == null) {
+            if (isClhmAvailable())
+                setStatementCache(new ClhmStatementCache(statementCacheMaxSize,
+                        ClhmStatementCache.DEFAULT_MAX_INSTANCES_PER_KEY, getStatementCacheMaxBytes()));
+            else {
+                logger.debug("ConcurrentLinkedHashMap is not available, using TinyLfuStatementCache");
+                setStatementCache(new TinyLfuStatementCache(statementCacheMaxSize));
+            }
+        }
+        if (getStatementCacheIdleTtlInSeconds() > 0 && getStatementCache() instanceof AbstractStatementCache)
+            setStatementCacheSweeper(new StatementCacheSweeper((AbstractStatementCache) getStatementCache(),
+                    getStatementCacheIdleTtlInSeconds(), getName()));
+        if (getStatementCache() != null && getStatementCacheWarmUpSize() > 0)
+            setStatementWarmer(new StatementWarmer(this));
+        if (isStatementCacheAsyncClose() && getStatementCache() instanceof AbstractStatementCache) {
+            AbstractStatementCache statementCache = (AbstractStatementCache) getStatementCache();
+            StatementCloser statementCloser = new StatementCloser(statementCache, getName());
+            statementCache.setStatementCloser(statementCloser);
+            setStatementCloser(statementCloser);
+        }
+    }
+
+    private static boolean isClhmAvailable() {
+        try {
+            Class.forName("com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap",
+                    false, ViburDBCPDataSource.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of threads which are currently taking a connection from the pool, including the threads
+     * which are waiting for a connection to become available, or {@code -1} if {@code enableMetrics} is not set.
+     */
+    public int getPoolWaiters() {
+        PoolOperations operations = poolOperations;
+        return operations != null ? operations.waiters() : -1;
+    }
+
+    /**
+     * Returns the number of {@code getConnection()} calls which timed out since the pool was started.
+     */
+    public long getPoolTimeouts() {
+        PoolOperations operations = poolOperations;
+        return operations != null ? operations.timeouts() : 0;
     }
 
     @Override
@@ -482,6 +600,27 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         return getTakenConnectionsFormatter().formatTakenConnections(getTakenConnections());
     }
 
+    /**
+     * Writes the same text as {@link #getTakenConnectionsStackTraces()} directly to the given {@code Appendable},
+     * for example to a {@code Writer} of a log file. The text is streamed without being built in memory first if the
+     * configured {@code TakenConnectionsFormatter} is a {@link TakenConnectionsFormatter.Streaming}.
+     *
+     * @param out the output
+     * @throws IOException if the output throws such
+     */
+    public void writeTakenConnectionsStackTraces(Appendable out) throws IOException {
+        if (!isPoolEnableConnectionTracking() || getState() != WORKING) {
+            out.append("poolEnableConnectionTracking is disabled or the pool is not in working state");
+            return;
+        }
+
+        TakenConnectionsFormatter formatter = getTakenConnectionsFormatter();
+        if (formatter instanceof TakenConnectionsFormatter.Streaming)
+            ((TakenConnectionsFormatter.Streaming) formatter).formatTakenConnections(getTakenConnections(), out);
+        else
+            out.append(formatter.formatTakenConnections(getTakenConnections()));
+    }
+
     @Override
     public TakenConnection[] getTakenConnections() {
         if (!isPoolEnableConnectionTracking() || getState() != WORKING)
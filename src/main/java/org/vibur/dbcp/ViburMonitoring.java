@@ -18,11 +18,23 @@ package org.vibur.dbcp;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.FlightRecorder;
+import org.vibur.dbcp.pool.PoolMetrics;
+import org.vibur.dbcp.pool.QueryStats;
+import org.vibur.dbcp.stcache.AbstractStatementCache;
+import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.dbcp.stcache.StatementCacheStats;
+import org.vibur.dbcp.util.StripedHistogram;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static java.lang.String.format;
 
 /**
  * @author Simeon Malchev
@@ -31,6 +43,13 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
 
     private static final Logger logger = LoggerFactory.getLogger(ViburMonitoring.class);
 
+    private static final int TOP_SQL_QUERIES = 20;
+    private static final String NO_STATEMENT_CACHE_STATS = "No statement cache statistics available.";
+    private static final String NO_POOL_METRICS = "Pool metrics are not enabled.";
+    private static final String NO_QUERY_STATS = "Query statistics are not enabled.";
+    private static final String NO_FLIGHT_RECORDER = "Flight recorder is not enabled.";
+    private static final String NO_FLIGHT_RECORDER_DUMP_FILE = "Flight recorder dump file is not configured.";
+
     private final ViburDBCPDataSource dataSource;
 
     private ViburMonitoring(ViburDBCPDataSource dataSource) {
@@ -138,6 +157,16 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.getPool().remainingCreated();
     }
 
+    @Override
+    public int getPoolWaiters() {
+        return dataSource.getPoolWaiters();
+    }
+
+    @Override
+    public long getPoolTimeouts() {
+        return dataSource.getPoolTimeouts();
+    }
+
     @Override
     public boolean isPoolFair() {
         return dataSource.isPoolFair();
@@ -168,6 +197,11 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.isAllowUnwrapping();
     }
 
+    @Override
+    public boolean isUseThinProxies() {
+        return dataSource.isUseThinProxies();
+    }
+
     @Override
     public long getConnectionTimeoutInMs() {
         return dataSource.getConnectionTimeoutInMs();
@@ -213,6 +247,142 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.getStatementCacheMaxSize();
     }
 
+    @Override
+    public long getStatementCacheHits() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? stats.getHits() : 0;
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? stats.getMisses() : 0;
+    }
+
+    @Override
+    public long getStatementCacheEvictions() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? stats.getEvictions() : 0;
+    }
+
+    @Override
+    public long getStatementCacheContentions() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? stats.getContentions() : 0;
+    }
+
+    @Override
+    public long getStatementCacheCloses() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? stats.getCloses() : 0;
+    }
+
+    @Override
+    public String showStatementCacheTopPrepared() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? toLines(stats.getTopPrepared(TOP_SQL_QUERIES)) : NO_STATEMENT_CACHE_STATS;
+    }
+
+    @Override
+    public String showStatementCacheTopMissed() {
+        StatementCacheStats stats = getStatementCacheStats();
+        return stats != null ? toLines(stats.getTopMissed(TOP_SQL_QUERIES)) : NO_STATEMENT_CACHE_STATS;
+    }
+
+    @Override
+    public void resetStatementCacheStats() {
+        StatementCacheStats stats = getStatementCacheStats();
+        if (stats != null)
+            stats.reset();
+    }
+
+    private StatementCacheStats getStatementCacheStats() {
+        StatementCache statementCache = dataSource.getStatementCache();
+        if (statementCache instanceof AbstractStatementCache)
+            return ((AbstractStatementCache) statementCache).getStats();
+        return null;
+    }
+
+    @Override
+    public boolean isEnableMetrics() {
+        return dataSource.isEnableMetrics();
+    }
+
+    @Override
+    public String showMetrics() {
+        PoolMetrics metrics = dataSource.getPoolMetrics();
+        if (metrics == null)
+            return NO_POOL_METRICS;
+
+        return "connectionCreate (ms): " + toMillis(metrics.getConnectionCreate().snapshot()) + '\n'
+                + "connectionWait (ms): " + toMillis(metrics.getConnectionWait().snapshot()) + '\n'
+                + "connectionHold (ms): " + toMillis(metrics.getConnectionHold().snapshot()) + '\n'
+                + "statementExecution (ms): " + toMillis(metrics.getStatementExecution().snapshot()) + '\n'
+                + "resultSetSize (rows): " + metrics.getResultSetSize().snapshot() + '\n';
+    }
+
+    @Override
+    public void resetMetrics() {
+        PoolMetrics metrics = dataSource.getPoolMetrics();
+        if (metrics != null)
+            metrics.reset();
+    }
+
+    @Override
+    public int getQueryStatsMaxSize() {
+        return dataSource.getQueryStatsMaxSize();
+    }
+
+    @Override
+    public String showQueryStats() {
+        QueryStats queryStats = dataSource.getQueryStats();
+        return queryStats != null ? toLines(queryStats.top(TOP_SQL_QUERIES)) : NO_QUERY_STATS;
+    }
+
+    @Override
+    public void resetQueryStats() {
+        QueryStats queryStats = dataSource.getQueryStats();
+        if (queryStats != null)
+            queryStats.reset();
+    }
+
+    @Override
+    public int getFlightRecorderSize() {
+        return dataSource.getFlightRecorderSize();
+    }
+
+    @Override
+    public String dumpFlightRecorder() {
+        FlightRecorder flightRecorder = dataSource.getFlightRecorder();
+        if (flightRecorder == null)
+            return NO_FLIGHT_RECORDER;
+        String file = dataSource.getFlightRecorderDumpFile();
+        if (file == null)
+            return NO_FLIGHT_RECORDER_DUMP_FILE;
+
+        try {
+            return "Dumped " + flightRecorder.dump(Paths.get(file)) + " events to " + file;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to dump the flight recorder events to {}", file, e);
+            return "Unable to dump the flight recorder events to " + file + ": " + e;
+        }
+    }
+
+    private static String toMillis(StripedHistogram.Snapshot nanos) {
+        return format("count=%d, mean=%.3f, p50=%.3f, p90=%.3f, p99=%.3f, p99.9=%.3f, max=%.3f",
+                nanos.getCount(), nanos.getMean() * 0.000_001,
+                nanos.getValueAtPercentile(50) * 0.000_001, nanos.getValueAtPercentile(90) * 0.000_001,
+                nanos.getValueAtPercentile(99) * 0.000_001, nanos.getValueAtPercentile(99.9) * 0.000_001,
+                nanos.getMax() * 0.000_001);
+    }
+
+    private static String toLines(List<?> list) {
+        StringBuilder builder = new StringBuilder();
+        for (Object o : list)
+            builder.append(o).append('\n');
+        return builder.toString();
+    }
+
     @Override
     public long getLogConnectionLongerThanMs() {
         return dataSource.getLogConnectionLongerThanMs();
@@ -293,6 +463,11 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.isLogAllStackTracesOnTimeout();
     }
 
+    @Override
+    public long getTakenConnectionsSnapshotIntervalInMs() {
+        return dataSource.getTakenConnectionsSnapshotIntervalInMs();
+    }
+
     @Override
     public boolean isResetDefaultsAfterUse() {
         return dataSource.isResetDefaultsAfterUse();
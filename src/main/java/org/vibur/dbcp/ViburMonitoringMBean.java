@@ -61,6 +61,10 @@ public interface ViburMonitoringMBean {
 
     int getPoolRemainingCreated();
 
+    int getPoolWaiters();
+
+    long getPoolTimeouts();
+
     boolean isPoolFair();
 
     boolean isPoolEnableConnectionTracking();
@@ -73,6 +77,8 @@ public interface ViburMonitoringMBean {
 
     boolean isAllowUnwrapping();
 
+    boolean isUseThinProxies();
+
 
     //////////// JDBC Connection acquiring timeout and retries, and Driver/DataSource login timeout ////////////
 
@@ -97,6 +103,41 @@ public interface ViburMonitoringMBean {
 
     int getStatementCacheMaxSize();
 
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+    long getStatementCacheEvictions();
+
+    long getStatementCacheContentions();
+
+    long getStatementCacheCloses();
+
+    String showStatementCacheTopPrepared();
+
+    String showStatementCacheTopMissed();
+
+    void resetStatementCacheStats();
+
+
+    //////////// Pool metrics ////////////
+
+    boolean isEnableMetrics();
+
+    String showMetrics();
+
+    void resetMetrics();
+
+    int getQueryStatsMaxSize();
+
+    String showQueryStats();
+
+    void resetQueryStats();
+
+    int getFlightRecorderSize();
+
+    String dumpFlightRecorder();
+
 
     //////////// JDBC Connection acquiring logging and SQL query execution logging ////////////
 
@@ -132,6 +173,8 @@ public interface ViburMonitoringMBean {
 
     boolean isLogAllStackTracesOnTimeout();
 
+    long getTakenConnectionsSnapshotIntervalInMs();
+
     //////////// JDBC Connection default states ////////////
 
     boolean isResetDefaultsAfterUse();
@@ -0,0 +1,328 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.util.StripedCounter;
+import org.vibur.objectpool.BasePool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.vibur.dbcp.util.ViburUtils.formatSqlParams;
+import static org.vibur.dbcp.util.ViburUtils.getStackTraceAsString;
+import static org.vibur.dbcp.util.ViburUtils.newDaemonThreadFactory;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * Logs the slow {@code getConnection()} calls, the slow and the failed SQL query executions, and the large
+ * ResultSets, as JSON lines formatted on a background thread. The application thread only captures the event data
+ * into a compact record, which is offered to a bounded lock-free queue; the SQL parameters, the stack trace
+ * elements, and the pool name are formatted by the background thread. When the queue is full the event is dropped
+ * and counted, and the count of the dropped events is logged with the next logged event.
+ *
+ * <p>An example of a logged line:
+ * <pre>
+ * {"timestamp":1530000000000,"event":"slow_query","pool":"p1","taken":3,"remainingCreated":2,"maxSize":10,
+ *  "thread":"main","durationMs":3012.345,"sql":"select * from actor","params":"[]"}
+ * </pre>
+ *
+ * @author Simeon Malchev
+ */
+public final class AsyncEventLogger {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncEventLogger.class);
+
+    private static final long IDLE_PARK_NANOS = MILLISECONDS.toNanos(100);
+
+    enum Type {
+        SLOW_CONNECTION("slow_connection"),
+        SLOW_QUERY("slow_query"),
+        QUERY_EXCEPTION("query_exception"),
+        LARGE_RESULT_SET("large_result_set");
+
+        private final String jsonName;
+
+        Type(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    /** Receives the formatted JSON lines on the logging thread. */
+    interface Sink {
+        void log(Type type, String json);
+    }
+
+    private static final Sink SLF4J_SINK = new Sink() {
+        @Override
+        public void log(Type type, String json) {
+            if (type == Type.QUERY_EXCEPTION)
+                logger.debug(json);
+            else
+                logger.warn(json);
+        }
+    };
+
+    private final ViburConfig config;
+    private final String poolName;
+    private final int capacity;
+    private final Sink sink;
+
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final StripedCounter dropped = new StripedCounter();
+    private long reportedDropped = 0; // accessed only by the logging thread
+
+    private final Thread thread;
+    private volatile boolean terminated = false;
+
+    private final StringBuilder json = new StringBuilder(4096); // accessed only by the logging thread
+
+    /**
+     * Creates and starts the logger.
+     *
+     * @param config the pool configuration
+     * @param capacity the maximum number of the not yet logged events
+     */
+    public AsyncEventLogger(ViburConfig config, int capacity) {
+        this(config, capacity, SLF4J_SINK);
+    }
+
+    AsyncEventLogger(ViburConfig config, int capacity, Sink sink) {
+        forbidIllegalArgument(capacity <= 0);
+        this.config = config;
+        this.poolName = config.getName();
+        this.capacity = capacity;
+        this.sink = sink;
+
+        thread = newDaemonThreadFactory("vibur-event-logger-" + poolName).newThread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        });
+        thread.start();
+    }
+
+    public boolean isWarnEnabled() {
+        return logger.isWarnEnabled();
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    /** Returns the number of the events which were dropped because the queue was full. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void terminate() {
+        terminated = true;
+        LockSupport.unpark(thread);
+    }
+
+    ////////////// the application threads side //////////////
+
+    void logSlowConnection(Connection rawConnection, long takenNanos, boolean withStackTrace) {
+        Event event = newEvent(Type.SLOW_CONNECTION, takenNanos, withStackTrace);
+        event.rawConnection = rawConnection;
+        offer(event);
+    }
+
+    void logSlowQuery(String sqlQuery, List<Object[]> sqlQueryParams, long takenNanos, boolean withStackTrace) {
+        Event event = newEvent(Type.SLOW_QUERY, takenNanos, withStackTrace);
+        setSql(event, sqlQuery, sqlQueryParams);
+        offer(event);
+    }
+
+    void logQueryException(String sqlQuery, List<Object[]> sqlQueryParams, long takenNanos, SQLException sqlException) {
+        Event event = newEvent(Type.QUERY_EXCEPTION, takenNanos, false);
+        setSql(event, sqlQuery, sqlQueryParams);
+        event.exception = sqlException;
+        offer(event);
+    }
+
+    void logLargeResultSet(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime,
+                           boolean withStackTrace) {
+        Event event = newEvent(Type.LARGE_RESULT_SET, resultSetNanoTime, withStackTrace);
+        setSql(event, sqlQuery, sqlQueryParams);
+        event.rows = resultSetSize;
+        offer(event);
+    }
+
+    private Event newEvent(Type type, long takenNanos, boolean withStackTrace) {
+        Event event = new Event(type, System.currentTimeMillis(), takenNanos);
+        event.thread = Thread.currentThread().getName();
+        event.interrupted = Thread.currentThread().isInterrupted();
+        BasePool pool = config.getPool();
+        event.taken = pool.taken();
+        event.remainingCreated = pool.remainingCreated();
+        event.maxSize = pool.maxSize();
+        event.terminated = pool.isTerminated();
+        if (withStackTrace)
+            event.stackTrace = new Throwable(); // the stack trace elements are materialized by the logging thread
+        return event;
+    }
+
+    private static void setSql(Event event, String sqlQuery, List<Object[]> sqlQueryParams) {
+        event.sql = sqlQuery;
+        if (sqlQueryParams != null && !sqlQueryParams.isEmpty())
+            event.params = sqlQueryParams.toArray(); // the list is cleared when the statement parameters are cleared
+    }
+
+    private void offer(Event event) {
+        int currentSize = size.getAndIncrement();
+        if (currentSize >= capacity) {
+            size.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.offer(event);
+        if (currentSize == 0)
+            LockSupport.unpark(thread);
+    }
+
+    ////////////// the logging thread side //////////////
+
+    private void processEvents() {
+        while (true) {
+            Event event = queue.poll();
+            if (event == null) {
+                if (terminated)
+                    return;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            size.decrementAndGet();
+            try {
+                log(event);
+            } catch (RuntimeException e) {
+                logger.warn("Couldn't log the {} event", event.type.jsonName, e);
+            }
+        }
+    }
+
+    private void log(Event event) {
+        json.setLength(0);
+        json.append("{\"timestamp\":").append(event.timestamp);
+        json.append(",\"event\":\"").append(event.type.jsonName).append('"');
+        appendString("pool", poolName);
+        json.append(",\"taken\":").append(event.taken)
+                .append(",\"remainingCreated\":").append(event.remainingCreated)
+                .append(",\"maxSize\":").append(event.maxSize);
+        if (event.terminated)
+            json.append(",\"terminated\":true");
+        appendString("thread", event.thread);
+        if (event.interrupted)
+            json.append(",\"interrupted\":true");
+        json.append(",\"durationMs\":");
+        appendMillis(event.takenNanos);
+
+        if (event.rawConnection != null)
+            appendString("rawConnection", event.rawConnection.toString());
+        if (event.sql != null)
+            appendString("sql", event.sql);
+        if (event.params != null)
+            appendString("params", formatSqlParams(event.params));
+        if (event.type == Type.LARGE_RESULT_SET)
+            json.append(",\"rows\":").append(event.rows);
+        if (event.exception != null) {
+            appendString("exception", event.exception.toString());
+            if (event.exception.getSQLState() != null)
+                appendString("sqlState", event.exception.getSQLState());
+        }
+        if (event.stackTrace != null)
+            appendString("stackTrace", getStackTraceAsString(config.getLogLineRegex(), event.stackTrace.getStackTrace()));
+
+        long droppedNow = dropped.sum();
+        if (droppedNow != reportedDropped) {
+            json.append(",\"dropped\":").append(droppedNow - reportedDropped);
+            reportedDropped = droppedNow;
+        }
+        json.append('}');
+
+        sink.log(event.type, json.toString());
+    }
+
+    /** Appends the given nanoseconds as milliseconds with 3 fraction digits. */
+    private void appendMillis(long nanos) {
+        long micros = nanos / 1000;
+        json.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100)
+            json.append('0');
+        if (fraction < 10)
+            json.append('0');
+        json.append(fraction);
+    }
+
+    private void appendString(String name, String value) {
+        json.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    else
+                        json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static final class Event {
+        private final Type type;
+        private final long timestamp;
+        private final long takenNanos;
+
+        private String thread;
+        private boolean interrupted;
+        private int taken;
+        private int remainingCreated;
+        private int maxSize;
+        private boolean terminated;
+
+        private Connection rawConnection;
+        private String sql;
+        private Object[] params;
+        private long rows;
+        private SQLException exception;
+        private Throwable stackTrace;
+
+        private Event(Type type, long timestamp, long takenNanos) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.takenNanos = takenNanos;
+        }
+    }
+}
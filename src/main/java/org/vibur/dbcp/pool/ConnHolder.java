@@ -16,33 +16,69 @@
 
 package org.vibur.dbcp.pool;
 
+import org.vibur.dbcp.stcache.LocalStatementCache;
+import org.vibur.dbcp.stcache.StatementHolder;
+import org.vibur.dbcp.stcache.StatementWarmer;
+import org.vibur.dbcp.util.NanoClock;
+
 import java.sql.Connection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The stateful versioned object which is held in the object pool. It is just a thin wrapper around the raw
  * JDBC {@code Connection} object which allows us to augment it with useful "state" information such as the
  * {@link ConnectionFactory} version as well as the "state" needed by the {@link TakenConnection} super-class,
- * i.e., the Connection {@code takenNanoTime} and {@code lastAccessNanoTime}, etc.
+ * i.e., the Connection {@code takenNanoTime} and {@code lastAccessNanoTime}, etc. The timing information of the pooled
+ * connections is kept in their {@link ConnectionSlots}.
  *
  * @author Simeon Malchev
  */
 public class ConnHolder extends TakenConnection {
 
+    private static final AtomicInteger idGenerator = new AtomicInteger(1);
+
+    private static final int TAKEN = 0;
+    private static final int IDLE = 1;
+    private static final int BACKGROUND = 2;
+
     private final Connection rawConnection; // the underlying raw JDBC Connection
+    private final int id; // identifies the connection in the FlightRecorder events
+    private ConnectionSlots slots = null; // null for the copies and for the not pooled connections
+    private int slot = -1; // the dense index of this connection in the slots, -1 if there was no free slot
     private final int version; // the version of the ConnectionFactory at the moment of this ConnHolder object creation
 
     private long restoredNanoTime; // != 0 only when connection validation is enabled via getConnectionIdleLimitInSeconds() >= 0
 
+    // the statements cached for this connection, used only with the per-connection ConnectionStatementCache
+    private LocalStatementCache localStatementCache = null;
+    // the background warm-up of the cached statements of this connection, if any
+    private volatile StatementWarmer.WarmUpTask warmUpTask = null;
+    // whether this connection was restored to the pool at least once; accessed only by the thread which restores it
+    private boolean restored = false;
+    // the evicted cached statements of this connection which wait to be closed while the connection is idle
+    private final Queue<StatementHolder> pendingCloses = new ConcurrentLinkedQueue<>();
+    // whether the connection is taken, idle in the pool, or used by a background thread while idle in the pool,
+    // see StatementWarmer and StatementCloser; tracked only if any of these background features is enabled
+    private final AtomicInteger useState = new AtomicInteger(TAKEN);
+    // the thread which waits in markTaken() for the in-flight background operation to complete, if any
+    private volatile Thread takingThread = null;
+
     ConnHolder(Connection rawConnection, int version, long currentNanoTime) {
         assert rawConnection != null;
         this.rawConnection = rawConnection;
+        this.id = idGenerator.getAndIncrement();
         this.version = version;
         this.restoredNanoTime = currentNanoTime;
     }
 
+    /** Creates a detached copy of the given connection holder, which does not use the connection slots. */
     ConnHolder(ConnHolder connHolder) {
         super(connHolder);
         this.rawConnection = connHolder.rawConnection;
+        this.id = connHolder.id;
         this.version = connHolder.version;
         this.restoredNanoTime = connHolder.restoredNanoTime;
     }
@@ -51,6 +87,18 @@ public class ConnHolder extends TakenConnection {
         return rawConnection;
     }
 
+    public int id() {
+        return id;
+    }
+
+    /**
+     * Returns the dense index of this connection in the {@link ConnectionSlots}, or {@code -1} if this connection
+     * has no slot.
+     */
+    public int slot() {
+        return slot;
+    }
+
     int version() {
         return version;
     }
@@ -63,8 +111,161 @@ public class ConnHolder extends TakenConnection {
         this.restoredNanoTime = restoredNanoTime;
     }
 
+    public LocalStatementCache getLocalStatementCache() {
+        return localStatementCache;
+    }
+
+    public void setLocalStatementCache(LocalStatementCache localStatementCache) {
+        this.localStatementCache = localStatementCache;
+    }
+
+    public void setWarmUpTask(StatementWarmer.WarmUpTask warmUpTask) {
+        this.warmUpTask = warmUpTask;
+    }
+
+    /**
+     * Records that this connection is being restored to the pool.
+     *
+     * @return true if this is the first restore of this connection
+     */
+    boolean markRestored() {
+        if (restored)
+            return false;
+        restored = true;
+        return true;
+    }
+
+    /**
+     * Cancels the background warm-up of the cached statements of this connection, if any. Does not wait for
+     * its in-flight statement prepare, see {@link #markTaken()}.
+     */
+    public void cancelWarmUp() {
+        StatementWarmer.WarmUpTask task = warmUpTask;
+        if (task != null) {
+            warmUpTask = null;
+            task.cancel();
+        }
+    }
+
+    public Queue<StatementHolder> pendingCloses() {
+        return pendingCloses;
+    }
+
+    /**
+     * Returns true while the connection is in the pool, including while it is used by a background thread.
+     */
+    public boolean isIdle() {
+        return useState.get() != TAKEN;
+    }
+
+    /**
+     * Tries to acquire the raw connection for a short background operation, such as a single statement prepare
+     * or close. Succeeds only if the connection is idle in the pool and is not used by another background thread.
+     * Each successful call must be followed by a call to {@link #endBackgroundUse()}.
+     *
+     * @return true if the raw connection was acquired
+     */
+    public boolean beginBackgroundUse() {
+        return useState.compareAndSet(IDLE, BACKGROUND);
+    }
+
+    public void endBackgroundUse() {
+        useState.set(IDLE);
+        Thread thread = takingThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    void markIdle() {
+        useState.set(IDLE);
+    }
+
+    /**
+     * Marks this connection as no longer idle in the pool, after cancelling its background warm-up and waiting
+     * for the in-flight background operation on the raw connection, if any, to complete. Lock-free if there is
+     * no such operation, otherwise the calling thread is parked until {@link #endBackgroundUse()}. A background
+     * operation is a single statement prepare or close, hence the worst-case added latency of taking
+     * the connection is the duration of one {@code prepareStatement} or {@code Statement.close()} call
+     * on the raw connection, i.e., about one network round trip to the database.
+     */
+    void markTaken() {
+        cancelWarmUp();
+        if (useState.compareAndSet(IDLE, TAKEN) || useState.get() == TAKEN)
+            return;
+
+        takingThread = Thread.currentThread();
+        try {
+            int state;
+            while ((state = useState.get()) != TAKEN) {
+                if (state == IDLE && useState.compareAndSet(IDLE, TAKEN))
+                    return;
+                if (state == BACKGROUND)
+                    LockSupport.park(this);
+            }
+        } finally {
+            takingThread = null;
+        }
+    }
+
+    /**
+     * Allocates a slot for this connection in the given slots; called once, right after the construction and before
+     * this connection is published to the pool.
+     */
+    void allocateSlot(ConnectionSlots slots) {
+        assert this.slots == null;
+        this.slot = slots.allocate(this);
+        this.slots = slots;
+    }
+
+    void releaseSlot() {
+        if (slot >= 0)
+            slots.release(slot);
+        else if (slots != null)
+            slots.setOverflowTaken(this, false);
+    }
+
+    void setTaken(boolean taken) {
+        if (slot >= 0)
+            slots.setTaken(slot, taken);
+        else if (slots != null)
+            slots.setOverflowTaken(this, taken);
+    }
+
+    void recordTake() {
+        if (slot >= 0)
+            slots.recordTake(slot);
+    }
+
+    void recordRestore(int errors, NanoClock clock) {
+        if (slot < 0)
+            return;
+        long takenNanoTime = getTakenNanoTime();
+        slots.recordRestore(slot, errors, takenNanoTime != 0 ? clock.nanoTime() - takenNanoTime : 0);
+    }
+
+    @Override
+    public long getTakenNanoTime() {
+        return slot >= 0 ? slots.takenNanoTime(slot) : super.getTakenNanoTime();
+    }
+
+    @Override
+    void setTakenNanoTime(long takenNanoTime) {
+        if (slot >= 0)
+            slots.setTakenNanoTime(slot, takenNanoTime);
+        else
+            super.setTakenNanoTime(takenNanoTime);
+    }
+
+    @Override
+    public long getLastAccessNanoTime() {
+        return slot >= 0 ? slots.lastAccessNanoTime(slot) : super.getLastAccessNanoTime();
+    }
+
     @Override
     public void setLastAccessNanoTime(long lastAccessNanoTime) {
-        super.setLastAccessNanoTime(lastAccessNanoTime);
+        if (slot >= 0)
+            slots.setLastAccessNanoTime(slot, lastAccessNanoTime);
+        else
+            super.setLastAccessNanoTime(lastAccessNanoTime);
     }
 }
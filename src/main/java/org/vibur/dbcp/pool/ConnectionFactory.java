@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburConfig;
 import org.vibur.dbcp.ViburDBCPException;
 import org.vibur.dbcp.pool.HookHolder.ConnHooksAccessor;
+import org.vibur.dbcp.stcache.LocalStatementCache;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -67,11 +68,19 @@ public class ConnectionFactory implements ViburObjectFactory {
 
     @Override
     public ConnHolder create() throws ViburDBCPException {
-        return create(config.getConnector());
+        return create(config.getConnector(), true);
     }
 
     @Override
     public ConnHolder create(Connector connector) throws ViburDBCPException {
+        return create(connector, false);
+    }
+
+    /**
+     * Creates a new connection holder; only the pooled connections get a slot in the {@link ConnectionSlots},
+     * as the non-pooled connections are never destroyed by the pool.
+     */
+    private ConnHolder create(Connector connector, boolean pooled) throws ViburDBCPException {
         Connection rawConnection = null;
         SQLException sqlException = null;
         long startNanoTime = System.nanoTime();
@@ -84,10 +93,11 @@ public class ConnectionFactory implements ViburObjectFactory {
             logger.debug("Couldn't create rawConnection", e);
         }
 
-        return postCreate(rawConnection, sqlException, startNanoTime);
+        return postCreate(rawConnection, sqlException, startNanoTime, pooled);
     }
 
-    private ConnHolder postCreate(Connection rawConnection, SQLException sqlException, long startNanoTime) throws ViburDBCPException {
+    private ConnHolder postCreate(Connection rawConnection, SQLException sqlException, long startNanoTime, boolean pooled)
+            throws ViburDBCPException {
         Hook.InitConnection[] onInit = connHooksAccessor.onInit();
         long currentNanoTime = onInit.length > 0 || config.getConnectionIdleLimitInSeconds() >= 0 ? System.nanoTime() : 0;
 
@@ -107,22 +117,38 @@ public class ConnectionFactory implements ViburObjectFactory {
             throw new ViburDBCPException(sqlException);
 
         logger.debug("Created rawConnection {}", rawConnection);
-        return prepareTracking(new ConnHolder(rawConnection, version(),
-                config.getConnectionIdleLimitInSeconds() >= 0 ? currentNanoTime : 0));
+        ConnHolder connHolder = new ConnHolder(rawConnection, version(),
+                config.getConnectionIdleLimitInSeconds() >= 0 ? currentNanoTime : 0);
+        if (pooled && config.getConnectionSlots() != null)
+            connHolder.allocateSlot(config.getConnectionSlots());
+        if (config.getFlightRecorder() != null)
+            config.getFlightRecorder().record(FlightRecorder.Event.CREATE, connHolder.id(), System.nanoTime() - startNanoTime);
+        if (pooled && hasBackgroundUse()) { // the non-pooled connections are handed out immediately
+            connHolder.markIdle();
+            if (config.getStatementWarmer() != null)
+                config.getStatementWarmer().warmUpOnStartup(connHolder);
+        }
+        return prepareTracking(connHolder);
     }
 
     @Override
     public boolean readyToTake(ConnHolder connHolder) {
+        if (hasBackgroundUse())
+            connHolder.markTaken();
         if (connHolder.version() != version())
             return false;
 
         int idleLimit = config.getConnectionIdleLimitInSeconds();
         if (idleLimit >= 0) {
-            long idleNanos = System.nanoTime() - connHolder.getRestoredNanoTime();
-            if (NANOSECONDS.toSeconds(idleNanos) >= idleLimit
-                    && !validateOrInitialize(connHolder.rawConnection(), config.getTestConnectionQuery(), config)) {
-                logger.debug("Couldn't validate rawConnection {}", connHolder.rawConnection());
-                return false;
+            long idleNanos = config.getClock().nanoTime() - connHolder.getRestoredNanoTime();
+            if (NANOSECONDS.toSeconds(idleNanos) >= idleLimit) {
+                boolean valid = validateOrInitialize(connHolder.rawConnection(), config.getTestConnectionQuery(), config);
+                if (config.getFlightRecorder() != null)
+                    config.getFlightRecorder().record(FlightRecorder.Event.VALIDATE, connHolder.id(), valid ? 1 : 0);
+                if (!valid) {
+                    logger.debug("Couldn't validate rawConnection {}", connHolder.rawConnection());
+                    return false;
+                }
             }
         }
 
@@ -133,7 +159,7 @@ public class ConnectionFactory implements ViburObjectFactory {
     @Override
     public boolean readyToRestore(ConnHolder connHolder) {
         Hook.CloseConnection[] onClose = connHooksAccessor.onClose();
-        long currentNanoTime = onClose.length > 0 || config.getConnectionIdleLimitInSeconds() >= 0 ? System.nanoTime() : 0;
+        long currentNanoTime = onClose.length > 0 || config.getConnectionIdleLimitInSeconds() >= 0 ? config.getClock().nanoTime() : 0;
 
         long startNanoTime = connHolder.getTakenNanoTime();
         clearTracking(connHolder); // we don't want to keep the tracking objects references
@@ -153,17 +179,35 @@ public class ConnectionFactory implements ViburObjectFactory {
 
         if (config.getConnectionIdleLimitInSeconds() >= 0)
             connHolder.setRestoredNanoTime(currentNanoTime);
+        if (hasBackgroundUse()) {
+            connHolder.markIdle();
+            // a replacement connection is usually handed straight to a waiting thread, hence the learned statements
+            // are prepared in the background only once the connection is idle in the pool for the first time
+            if (config.getStatementWarmer() != null && connHolder.markRestored())
+                config.getStatementWarmer().warmUp(connHolder);
+            if (config.getStatementCloser() != null)
+                config.getStatementCloser().closeLater(connHolder);
+        }
         return true;
     }
 
+    /**
+     * Returns true if the idle connections can be used by background threads, i.e., if the statement cache
+     * warm-up or the asynchronous closing of the evicted statements is enabled. Only then the pool needs to track
+     * whether the connections are idle, see {@link ConnHolder#markTaken()}.
+     */
+    boolean hasBackgroundUse() {
+        return config.getStatementWarmer() != null || config.getStatementCloser() != null;
+    }
+
     private ConnHolder prepareTracking(ConnHolder connHolder) {
         if (config.isPoolEnableConnectionTracking()) {
-            connHolder.setTakenNanoTime(System.nanoTime());
+            connHolder.setTakenNanoTime(config.getClock().nanoTime());
             connHolder.setThread(Thread.currentThread());
             connHolder.setLocation(new Throwable());
         }
         else if (connHooksAccessor.onGet().length > 0 || connHooksAccessor.onClose().length > 0)
-            connHolder.setTakenNanoTime(System.nanoTime());
+            connHolder.setTakenNanoTime(config.getClock().nanoTime());
 
         return connHolder;
     }
@@ -182,7 +226,11 @@ public class ConnectionFactory implements ViburObjectFactory {
     public void destroy(ConnHolder connHolder) {
         Connection rawConnection = connHolder.rawConnection();
         logger.debug("Destroying rawConnection {}", rawConnection);
-        closeStatements(rawConnection);
+        if (config.getFlightRecorder() != null)
+            config.getFlightRecorder().record(FlightRecorder.Event.DESTROY, connHolder.id(), 0);
+        if (hasBackgroundUse())
+            connHolder.markTaken(); // waits for the background threads which use the rawConnection, if any
+        closeStatements(connHolder);
 
         Hook.DestroyConnection[] onDestroy = connHooksAccessor.onDestroy();
         long startTime = onDestroy.length == 0 ? 0 : System.nanoTime();
@@ -191,11 +239,24 @@ public class ConnectionFactory implements ViburObjectFactory {
         long takenNanos = onDestroy.length == 0 ? 0 : System.nanoTime() - startTime;
         for (Hook.DestroyConnection hook : onDestroy)
             hook.on(rawConnection, takenNanos);
+        connHolder.releaseSlot();
     }
 
-    private void closeStatements(Connection rawConnection) {
-        if (config.getStatementCache() != null)
-            config.getStatementCache().removeAll(rawConnection);
+    private void closeStatements(ConnHolder connHolder) {
+        if (config.getStatementCache() == null)
+            return;
+
+        if (config.getStatementWarmer() != null)
+            config.getStatementWarmer().learn(connHolder);
+
+        LocalStatementCache localStatementCache = connHolder.getLocalStatementCache();
+        if (localStatementCache != null)
+            localStatementCache.removeAll();
+        else
+            config.getStatementCache().removeAll(connHolder.rawConnection());
+
+        if (config.getStatementCloser() != null)
+            config.getStatementCloser().closeNow(connHolder);
     }
 
     @Override
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * Gives every pooled connection a dense slot index, from {@code 0} to {@link #capacity()} {@code - 1}, at the moment
+ * of its creation, and keeps the taken state, the taken and last access times, and the per-connection usage counters
+ * of the connections in primitive arrays indexed by their slots. The slot of a destroyed connection is reused by
+ * the next created connection.
+ *
+ * <p>The number of the pooled connections can temporarily exceed the pool max size, for example after a critical
+ * SQL state drains the pool, when the taken connections of the previous generation are still held by the application
+ * while their replacements are created. A connection which is created while all slots are in use gets no slot, keeps
+ * its times in its own {@link TakenConnection} fields, and is tracked as taken in an overflow set instead.
+ *
+ * <p>The taken connections can be iterated without copying or allocation, for example:
+ * <pre>{@code
+ *      for (int slot = 0; slot < slots.capacity(); slot++) {
+ *          if (slots.isTaken(slot))
+ *              ... slots.takenNanoTime(slot) ...
+ *      }
+ * }</pre>
+ *
+ * The taken state is tracked only if {@code poolEnableConnectionTracking} is enabled. The {@code busyNanos} counter
+ * is accumulated only if the connection taken time is recorded, i.e., if {@code poolEnableConnectionTracking} is
+ * enabled or if there are {@code GetConnection} or {@code CloseConnection} hooks registered. The values written by
+ * the thread which holds a connection are read by the other threads without synchronization, and may be slightly
+ * stale.
+ *
+ * @author Simeon Malchev
+ */
+public final class ConnectionSlots {
+
+    private static final int NO_SLOT = -1;
+
+    // the per slot values take 8 longs, i.e. 64 bytes, per slot; as the array is not cache line aligned, a slot may
+    // straddle two cache lines, but the values of two slots never share a line with a third slot
+    private static final int STRIDE = 8;
+    private static final int TAKEN_NANO_TIME = 0;
+    private static final int LAST_ACCESS_NANO_TIME = 1;
+    private static final int USES = 2;
+    private static final int ERRORS = 3;
+    private static final int BUSY_NANOS = 4;
+
+    private final long[] values;
+    private final AtomicReferenceArray<ConnHolder> holders;
+    private final AtomicIntegerArray taken;
+
+    private final int[] freeSlots; // a stack of the free slots, guarded by this
+    private int freeCount;
+
+    // the taken connections which have no slot, see above
+    private final Set<ConnHolder> takenOverflow = Collections.newSetFromMap(new ConcurrentHashMap<ConnHolder, Boolean>());
+
+    public ConnectionSlots(int capacity) {
+        forbidIllegalArgument(capacity <= 0);
+        this.values = new long[capacity * STRIDE];
+        this.holders = new AtomicReferenceArray<>(capacity);
+        this.taken = new AtomicIntegerArray(capacity);
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeSlots[i] = capacity - 1 - i; // the lowest slots are allocated first
+        this.freeCount = capacity;
+    }
+
+    public int capacity() {
+        return holders.length();
+    }
+
+    /**
+     * Allocates a slot for the given, fully constructed, connection and clears the slot values.
+     *
+     * @return the slot, or {@code -1} if all slots are in use, in which case the connection is tracked via
+     *         {@link #setOverflowTaken}
+     */
+    synchronized int allocate(ConnHolder connHolder) {
+        if (freeCount == 0)
+            return NO_SLOT;
+        int slot = freeSlots[--freeCount];
+        Arrays.fill(values, slot * STRIDE, (slot + 1) * STRIDE, 0);
+        taken.set(slot, 0);
+        holders.set(slot, connHolder);
+        return slot;
+    }
+
+    synchronized void release(int slot) {
+        holders.set(slot, null);
+        taken.set(slot, 0);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /** Tracks the taken state of a connection which has no slot. */
+    void setOverflowTaken(ConnHolder connHolder, boolean isTaken) {
+        if (isTaken)
+            takenOverflow.add(connHolder);
+        else
+            takenOverflow.remove(connHolder);
+    }
+
+    /** Returns the number of the taken connections which have no slot. */
+    public int overflowTaken() {
+        return takenOverflow.size();
+    }
+
+    /**
+     * Returns the connection which holds the given slot, or {@code null} if the slot is free.
+     */
+    public ConnHolder holder(int slot) {
+        return holders.get(slot);
+    }
+
+    public boolean isTaken(int slot) {
+        return taken.get(slot) != 0;
+    }
+
+    void setTaken(int slot, boolean isTaken) {
+        taken.set(slot, isTaken ? 1 : 0);
+    }
+
+    public long takenNanoTime(int slot) {
+        return values[slot * STRIDE + TAKEN_NANO_TIME];
+    }
+
+    void setTakenNanoTime(int slot, long takenNanoTime) {
+        values[slot * STRIDE + TAKEN_NANO_TIME] = takenNanoTime;
+    }
+
+    public long lastAccessNanoTime(int slot) {
+        return values[slot * STRIDE + LAST_ACCESS_NANO_TIME];
+    }
+
+    void setLastAccessNanoTime(int slot, long lastAccessNanoTime) {
+        values[slot * STRIDE + LAST_ACCESS_NANO_TIME] = lastAccessNanoTime;
+    }
+
+    /** Returns the number of times the connection in the given slot was taken from the pool. */
+    public long uses(int slot) {
+        return values[slot * STRIDE + USES];
+    }
+
+    /** Returns the number of SQL exceptions thrown by the connection in the given slot and its derived objects. */
+    public long errors(int slot) {
+        return values[slot * STRIDE + ERRORS];
+    }
+
+    /** Returns the total time for which the connection in the given slot was held by the application. */
+    public long busyNanos(int slot) {
+        return values[slot * STRIDE + BUSY_NANOS];
+    }
+
+    /** Called only by the thread which has taken the connection in the given slot. */
+    void recordTake(int slot) {
+        values[slot * STRIDE + USES]++;
+    }
+
+    /** Called only by the thread which restores the connection in the given slot. */
+    void recordRestore(int slot, int errors, long busyNanos) {
+        int base = slot * STRIDE;
+        values[base + ERRORS] += errors;
+        values[base + BUSY_NANOS] += busyNanos;
+    }
+
+    /**
+     * Returns a copy of the currently taken connections, see {@link org.vibur.dbcp.ViburDataSource#getTakenConnections}.
+     * Allocates only the returned array and the returned copies, if there are no taken connections without a slot.
+     */
+    TakenConnection[] getTakenConnections() {
+        int count = 0;
+        for (int slot = 0; slot < capacity(); slot++) {
+            if (isTaken(slot))
+                count++;
+        }
+        ConnHolder[] overflow = takenOverflow.isEmpty() ? null : takenOverflow.toArray(new ConnHolder[0]);
+        if (overflow != null)
+            count += overflow.length;
+        if (count == 0)
+            return ViburListener.NO_TAKEN_CONNECTIONS;
+
+        TakenConnection[] result = new TakenConnection[count];
+        int size = 0;
+        for (int slot = 0; slot < capacity() && size < count; slot++) {
+            ConnHolder connHolder = holders.get(slot);
+            if (connHolder != null && isTaken(slot))
+                size = addCopy(result, size, connHolder);
+        }
+        if (overflow != null) {
+            for (int i = 0; i < overflow.length && size < count; i++)
+                size = addCopy(result, size, overflow[i]);
+        }
+        return size == count ? result : Arrays.copyOf(result, size);
+    }
+
+    private static int addCopy(TakenConnection[] result, int size, ConnHolder connHolder) {
+        ConnHolder copy = new ConnHolder(connHolder);
+        if (copy.getThread() != null) // i.e. it has not been restored in the meantime
+            result[size++] = copy;
+        return size;
+    }
+}
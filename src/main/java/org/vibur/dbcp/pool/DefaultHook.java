@@ -19,16 +19,22 @@ package org.vibur.dbcp.pool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.objectpool.BasePool;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.vibur.dbcp.ViburConfig.SQLSTATE_CONN_INIT_ERROR;
 import static org.vibur.dbcp.util.JdbcUtils.*;
 import static org.vibur.dbcp.util.ViburUtils.*;
@@ -93,7 +99,12 @@ public abstract class DefaultHook {
             if (takenMillis < config.getLogConnectionLongerThanMs())
                 return;
 
-            if (logger.isWarnEnabled()) {
+            AsyncEventLogger asyncEventLogger = config.getAsyncEventLogger();
+            if (asyncEventLogger != null) {
+                if (asyncEventLogger.isWarnEnabled())
+                    asyncEventLogger.logSlowConnection(rawConnection, takenNanos, config.isLogStackTraceForLongConnection());
+            }
+            else if (logger.isWarnEnabled()) {
                 StringBuilder log = new StringBuilder(4096)
                         .append(format("Call to getConnection() from pool %s took %f ms, rawConnection = %s",
                                 getPoolName(config), takenMillis, rawConnection));
@@ -129,16 +140,58 @@ public abstract class DefaultHook {
     }
 
     public static final class GetConnectionTimeout extends DefaultHook implements Hook.GetConnectionTimeout {
+        // the nanoTime when the full list of taken connections was last logged
+        private final AtomicLong lastLoggedNanoTime = new AtomicLong(System.nanoTime() - Long.MAX_VALUE / 2);
+
         public GetConnectionTimeout(ViburConfig config) {
             super(config);
         }
 
         @Override
         public void on(TakenConnection[] takenConnections, long takenNanos) {
-            if (logger.isWarnEnabled())
+            if (!logger.isWarnEnabled())
+                return;
+
+            if (takenConnections.length > 0 && tryLogFullList())
                 logger.warn(format("Pool %s, couldn't obtain SQL connection within %.3f ms, full list of taken connections begins:\n%s",
                         getPoolName(config), takenNanos * 0.000_001,
                         config.getTakenConnectionsFormatter().formatTakenConnections(takenConnections)));
+            else // the list has been already logged within the snapshot interval, or there is no list
+                logger.warn(format("Pool %s, couldn't obtain SQL connection within %.3f ms, %s%s",
+                        getPoolName(config), takenNanos * 0.000_001, summarize(takenConnections),
+                        takenConnections.length > 0 ? "; the full list of taken connections was recently logged." : "."));
+        }
+
+        /**
+         * Returns a short summary of the pool state: the numbers of the taken and idle connections, the number
+         * of the waiting threads if {@code enableMetrics} is set, and the longest hold time in the given
+         * taken connections, if any.
+         */
+        private String summarize(TakenConnection[] takenConnections) {
+            BasePool pool = config.getPool();
+            StringBuilder summary = new StringBuilder().append(pool.taken()).append(" taken, ")
+                    .append(pool.remainingCreated()).append(" idle");
+            int waiters = config instanceof ViburDBCPDataSource ? ((ViburDBCPDataSource) config).getPoolWaiters() : -1;
+            if (waiters >= 0)
+                summary.append(", ").append(waiters).append(" waiting");
+            if (takenConnections.length > 0) {
+                long oldestTakenNanoTime = Long.MAX_VALUE;
+                for (TakenConnection takenConnection : takenConnections)
+                    oldestTakenNanoTime = Math.min(oldestTakenNanoTime, takenConnection.getTakenNanoTime());
+                summary.append(format(", the oldest connection is taken for %.3f ms",
+                        (System.nanoTime() - oldestTakenNanoTime) * 0.000_001));
+            }
+            return summary.toString();
+        }
+
+        /** Returns true at most once per {@code takenConnectionsSnapshotIntervalInMs}, or always if it is {@code 0}. */
+        private boolean tryLogFullList() {
+            long intervalNanos = MILLISECONDS.toNanos(config.getTakenConnectionsSnapshotIntervalInMs());
+            if (intervalNanos == 0)
+                return true;
+            long last = lastLoggedNanoTime.get();
+            long now = System.nanoTime();
+            return now - last >= intervalNanos && lastLoggedNanoTime.compareAndSet(last, now);
         }
 
         @Override
@@ -147,6 +200,32 @@ public abstract class DefaultHook {
         }
     }
 
+    public static final class FlightRecorderDump extends DefaultHook implements Hook.GetConnectionTimeout {
+        public FlightRecorderDump(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(TakenConnection[] takenConnections, long takenNanos) {
+            FlightRecorder flightRecorder = config.getFlightRecorder();
+            if (!flightRecorder.tryAutoDump())
+                return;
+
+            String dumpFile = config.getFlightRecorderDumpFile();
+            try {
+                int events = flightRecorder.dump(Paths.get(dumpFile));
+                logger.warn("Pool {}, dumped {} flight recorder events to {}", getPoolName(config), events, dumpFile);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Pool {}, couldn't dump the flight recorder events to {}", getPoolName(config), dumpFile, e);
+            }
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getFlightRecorder() != null && config.getFlightRecorderDumpFile() != null;
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // Invocation hooks:
 
@@ -173,6 +252,12 @@ public abstract class DefaultHook {
         }
 
         private void logQueryExecution(String sqlQuery, List<Object[]> sqlQueryParams, long takenNanos, SQLException sqlException) {
+            AsyncEventLogger asyncEventLogger = config.getAsyncEventLogger();
+            if (asyncEventLogger != null) {
+                logQueryExecution(asyncEventLogger, sqlQuery, sqlQueryParams, takenNanos, sqlException);
+                return;
+            }
+
             double takenMillis = takenNanos * 0.000_001;
             boolean logTime = takenMillis >= config.getLogQueryExecutionLongerThanMs() && logger.isWarnEnabled();
             boolean logException = sqlException != null && logger.isDebugEnabled();
@@ -194,6 +279,14 @@ public abstract class DefaultHook {
             }
         }
 
+        private void logQueryExecution(AsyncEventLogger asyncEventLogger, String sqlQuery, List<Object[]> sqlQueryParams,
+                                       long takenNanos, SQLException sqlException) {
+            if (sqlException != null && asyncEventLogger.isDebugEnabled())
+                asyncEventLogger.logQueryException(sqlQuery, sqlQueryParams, takenNanos, sqlException);
+            if (takenNanos * 0.000_001 >= config.getLogQueryExecutionLongerThanMs() && asyncEventLogger.isWarnEnabled())
+                asyncEventLogger.logSlowQuery(sqlQuery, sqlQueryParams, takenNanos, config.isLogStackTraceForLongQueryExecution());
+        }
+
         @Override
         boolean isEnabled() {
             return config.getLogQueryExecutionLongerThanMs() >= 0;
@@ -210,7 +303,13 @@ public abstract class DefaultHook {
             if (config.getLogLargeResultSet() > resultSetSize)
                 return;
 
-            if (logger.isWarnEnabled()) {
+            AsyncEventLogger asyncEventLogger = config.getAsyncEventLogger();
+            if (asyncEventLogger != null) {
+                if (asyncEventLogger.isWarnEnabled())
+                    asyncEventLogger.logLargeResultSet(sqlQuery, sqlQueryParams, resultSetSize, resultSetNanoTime,
+                            config.isLogStackTraceForLargeResultSet());
+            }
+            else if (logger.isWarnEnabled()) {
                 StringBuilder message = new StringBuilder(4096).append(
                         format("SQL query execution from pool %s retrieved a ResultSet with size %d, total retrieval and processing time %f ms:\n%s",
                                 getPoolName(config), resultSetSize, resultSetNanoTime * 0.000_001, formatSql(sqlQuery, sqlQueryParams)));
@@ -226,6 +325,161 @@ public abstract class DefaultHook {
         }
     }
 
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Metrics hooks:
+
+    public static final class ConnectionCreateMetrics extends DefaultHook implements Hook.InitConnection {
+        public ConnectionCreateMetrics(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            if (rawConnection != null)
+                config.getPoolMetrics().getConnectionCreate().record(takenNanos);
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getPoolMetrics() != null;
+        }
+    }
+
+    public static final class ConnectionWaitMetrics extends DefaultHook implements Hook.GetConnection {
+        public ConnectionWaitMetrics(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            config.getPoolMetrics().getConnectionWait().record(takenNanos);
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getPoolMetrics() != null;
+        }
+    }
+
+    public static final class ConnectionHoldMetrics extends DefaultHook implements Hook.CloseConnection {
+        public ConnectionHoldMetrics(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            config.getPoolMetrics().getConnectionHold().record(takenNanos);
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getPoolMetrics() != null;
+        }
+    }
+
+    public static final class StatementExecutionMetrics extends DefaultHook implements Hook.StatementExecution {
+        public StatementExecutionMetrics(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                         StatementProceedingPoint proceed) throws SQLException {
+
+            long startNanoTime = System.nanoTime();
+            try {
+                return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+            } finally {
+                config.getPoolMetrics().getStatementExecution().record(System.nanoTime() - startNanoTime);
+            }
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getPoolMetrics() != null;
+        }
+    }
+
+    public static final class ResultSetSizeMetrics extends DefaultHook implements Hook.ResultSetRetrieval {
+        public ResultSetSizeMetrics(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) {
+            config.getPoolMetrics().getResultSetSize().record(resultSetSize);
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getPoolMetrics() != null;
+        }
+    }
+
+    public static final class QueryStatsExecution extends DefaultHook implements Hook.StatementExecution {
+        public QueryStatsExecution(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                         StatementProceedingPoint proceed) throws SQLException {
+
+            if (sqlQuery == null) // such as a batch of simple Statement queries
+                return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+
+            long startNanoTime = System.nanoTime();
+            Object result = null;
+            boolean failed = true;
+            try {
+                result = proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                failed = false;
+                return result;
+            } finally {
+                long takenNanos = System.nanoTime() - startNanoTime;
+                config.getQueryStats().recordExecution(sqlQuery, takenNanos, updateCount(result), failed);
+            }
+        }
+
+        private static long updateCount(Object result) {
+            if (result instanceof Integer || result instanceof Long)
+                return ((Number) result).longValue();
+
+            long count = 0;
+            if (result instanceof int[]) {
+                for (int c : (int[]) result)
+                    count += Math.max(c, 0);
+            }
+            else if (result instanceof long[]) {
+                for (long c : (long[]) result)
+                    count += Math.max(c, 0);
+            }
+            return count;
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getQueryStats() != null;
+        }
+    }
+
+    public static final class QueryStatsRows extends DefaultHook implements Hook.ResultSetRetrieval {
+        public QueryStatsRows(ViburConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) {
+            if (sqlQuery != null)
+                config.getQueryStats().recordRows(sqlQuery, resultSetSize);
+        }
+
+        @Override
+        boolean isEnabled() {
+            return config.getQueryStats() != null;
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // Hooks utils:
 
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.pool.FlightRecorder.Event;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static java.lang.String.format;
+import static org.vibur.dbcp.pool.FlightRecorder.EVENT_LONGS;
+import static org.vibur.dbcp.pool.FlightRecorder.HEADER_LONGS;
+import static org.vibur.dbcp.pool.FlightRecorder.MAGIC;
+import static org.vibur.dbcp.pool.FlightRecorder.VERSION;
+
+/**
+ * Decodes a {@link FlightRecorder} dump file into a human readable timeline, one event per line. Can be run as:
+ * <blockquote>{@code java -cp vibur-dbcp.jar org.vibur.dbcp.pool.FlightRecordDecoder <dumpFile>}</blockquote>
+ *
+ * @author Simeon Malchev
+ */
+public final class FlightRecordDecoder {
+
+    private FlightRecordDecoder() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + FlightRecordDecoder.class.getName() + " <dumpFile>");
+            System.exit(1);
+        }
+        decode(Paths.get(args[0]), System.out);
+    }
+
+    /**
+     * Prints the events from the given dump file to the given stream, with their wall clock time (as estimated
+     * from the time of the dump), the time elapsed since the first event, the thread id, the connection id,
+     * the event type, and the event value.
+     *
+     * @param file the dump file
+     * @param out the output stream
+     * @return the number of decoded events
+     * @throws IOException if the file cannot be read or is not a valid dump file
+     */
+    public static int decode(Path file, PrintStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < HEADER_LONGS * 8 || buffer.getLong() != MAGIC || buffer.getLong() != VERSION)
+            throw new IOException("Not a flight recorder dump file: " + file);
+        long count = buffer.getLong();
+        long dumpMillis = buffer.getLong();
+        long dumpNanoTime = buffer.getLong();
+        if (buffer.remaining() < count * EVENT_LONGS * 8)
+            throw new IOException("Truncated flight recorder dump file: " + file);
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        long firstNanoTime = 0;
+        for (long i = 0; i < count; i++) {
+            long seq = buffer.getLong();
+            long nanoTime = buffer.getLong();
+            long header = buffer.getLong();
+            long value = buffer.getLong();
+            if (i == 0)
+                firstNanoTime = nanoTime;
+
+            Event event = Event.valueOf((int) (header >>> 56));
+            int connectionId = (int) (header >>> 32) & 0xFFFFFF;
+            long threadId = header & 0xFFFFFFFFL;
+            long millis = dumpMillis - (dumpNanoTime - nanoTime) / 1_000_000;
+
+            out.println(format("%s %+12.3f ms  #%-8d thread %-6d conn %-6d %-14s %s",
+                    dateFormat.format(new Date(millis)), (nanoTime - firstNanoTime) * 0.000_001, seq,
+                    threadId, connectionId, event, formatValue(event, value)));
+        }
+        return (int) count;
+    }
+
+    private static String formatValue(Event event, long value) {
+        if (event == null)
+            return Long.toString(value);
+
+        switch (event) {
+            case TAKE:
+            case TIMEOUT:
+                return format("waited %.3f ms", value * 0.000_001);
+            case CREATE:
+                return format("took %.3f ms", value * 0.000_001);
+            case EXECUTE_END:
+                return format("took %.3f ms%s", Math.abs(value) * 0.000_001, value < 0 ? ", failed" : "");
+            case EXECUTE_START:
+                return format("sql hash %08x", (int) value);
+            case RESTORE:
+                return value != 0 ? "reusable" : "not reusable";
+            case VALIDATE:
+                return value != 0 ? "valid" : "invalid";
+            case CRITICAL_DRAIN:
+                return "destroyed " + value;
+            default:
+                return "";
+        }
+    }
+}
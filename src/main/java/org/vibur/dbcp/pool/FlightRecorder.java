@@ -0,0 +1,228 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.util.StripedCounter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A fixed-size ring buffer of the most recent pool and JDBC events, which can be dumped to a binary file when
+ * a problem such as a {@code getConnection()} timeout occurs, and then be decoded into a timeline by
+ * {@link FlightRecordDecoder}. Each event takes 4 {@code long} slots: its sequence number, {@code System.nanoTime()},
+ * a header with the event type, the connection id and the thread id, and an event specific value. The recording
+ * does not allocate and does not lock, and when the buffer is full the oldest events are overwritten.
+ *
+ * <p>As in {@link org.vibur.dbcp.util.StripedCounter StripedCounter}, the recording threads are spread over
+ * several stripes of the buffer, each with its own sequence counter, so that they do not contend on a single
+ * counter. Each event slot is guarded by its sequence number as in a seqlock: a writer claims the slot by CAS-ing
+ * the slot's sequence number to a negative "being written" mark, and drops its event if another writer is
+ * writing the same slot, or has already written a newer event in it, i.e., when the writer was overtaken by
+ * a full wrap of its stripe. Thus, a dumped event is never a mix of two events.
+ *
+ * <p>The dump file is formatted as a header of {@link #MAGIC}, {@link #VERSION}, the number of events, the wall clock time and
+ * {@code System.nanoTime()} at the time of the dump, followed by the events in the order of their
+ * {@code System.nanoTime()}, all as big-endian {@code long} values. The sequence number of a dumped event is its
+ * position in the dump.
+ *
+ * @author Simeon Malchev
+ */
+public final class FlightRecorder {
+
+    public enum Event {
+        /** A connection was taken from the pool; the value is the waited time in nanoseconds, if known. */
+        TAKE,
+        /** A connection was restored to the pool; the value is {@code 1} if it is reusable, {@code 0} otherwise. */
+        RESTORE,
+        /** A raw connection was created; the value is the time taken in nanoseconds. */
+        CREATE,
+        /** A raw connection was closed and removed from the pool. */
+        DESTROY,
+        /** An idle connection was validated before being taken; the value is {@code 1} if valid, {@code 0} otherwise. */
+        VALIDATE,
+        /** An SQL statement execution started; the value is the hash code of the SQL query. */
+        EXECUTE_START,
+        /** An SQL statement execution ended; the value is the time taken in nanoseconds, negated if it failed. */
+        EXECUTE_END,
+        /** A {@code getConnection()} call timed out; the value is the waited time in nanoseconds. */
+        TIMEOUT,
+        /** A critical SQL state occurred; the value is the number of destroyed connections. */
+        CRITICAL_DRAIN;
+
+        private static final Event[] VALUES = values();
+
+        static Event valueOf(int ordinal) {
+            return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+        }
+    }
+
+    public static final long MAGIC = 0x5669627572464C52L; // "ViburFLR"
+    public static final long VERSION = 1;
+    static final int HEADER_LONGS = 5;
+    static final int EVENT_LONGS = 4;
+
+    private static final long MIN_DUMP_INTERVAL_NANOS = SECONDS.toNanos(10);
+    private static final int MAX_STRIPES = 8;
+    private static final int PADDING = 8; // the number of longs in a 64 bytes cache line
+
+    private final int stripes;
+    private final int stripeMask; // the capacity of a stripe - 1
+    private final AtomicLongArray slots;
+    private final AtomicLongArray sequences; // the next sequence number of each stripe, one per cache line
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong lastAutoDumpNanoTime = new AtomicLong(System.nanoTime() - MIN_DUMP_INTERVAL_NANOS);
+
+    /**
+     * @param capacity the maximum number of recorded events, rounded up to a power of two
+     */
+    public FlightRecorder(int capacity) {
+        this(capacity, Math.min(StripedCounter.stripes(Runtime.getRuntime().availableProcessors()), MAX_STRIPES));
+    }
+
+    FlightRecorder(int capacity, int stripes) {
+        forbidIllegalArgument(capacity <= 0 || capacity > 1 << 24);
+        forbidIllegalArgument(stripes <= 0 || Integer.bitCount(stripes) != 1);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.stripes = Math.min(stripes, size);
+        this.stripeMask = size / this.stripes - 1;
+        this.slots = new AtomicLongArray(size * EVENT_LONGS);
+        this.sequences = new AtomicLongArray(this.stripes * PADDING);
+    }
+
+    public int capacity() {
+        return stripes * (stripeMask + 1);
+    }
+
+    /** Returns the number of events which were dropped because their writer was overtaken, see above. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Records an event for the given connection from the current thread.
+     *
+     * @param event the event type
+     * @param connectionId the connection id, or {@code 0} if not applicable
+     * @param value the event specific value, see {@link Event}
+     */
+    public void record(Event event, int connectionId, long value) {
+        int stripe = StripedCounter.threadHash() & (stripes - 1);
+        long seq = sequences.getAndIncrement(stripe * PADDING);
+        long header = (long) event.ordinal() << 56 | (connectionId & 0xFFFFFFL) << 32
+                | (Thread.currentThread().getId() & 0xFFFFFFFFL);
+        if (!write(stripe, seq, System.nanoTime(), header, value))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * Writes the given event in its slot, unless the slot is being written by another writer, or already
+     * contains a newer event.
+     *
+     * @return true if the event was written
+     */
+    boolean write(int stripe, long seq, long nanoTime, long header, long value) {
+        int i = slotIndex(stripe, seq);
+        long current = slots.get(i); // the seq + 1 of the event in the slot, 0 if empty, negated while being written
+        if (current < 0 || current > seq || !slots.compareAndSet(i, current, -seq - 1))
+            return false; // being written, overtaken by a newer event, or lost the race
+        slots.lazySet(i + 1, nanoTime);
+        slots.lazySet(i + 2, header);
+        slots.lazySet(i + 3, value);
+        slots.set(i, seq + 1);
+        return true;
+    }
+
+    private int slotIndex(int stripe, long seq) {
+        return (stripe * (stripeMask + 1) + (int) (seq & stripeMask)) * EVENT_LONGS;
+    }
+
+    /**
+     * Writes the recorded events to the given file, replacing its content if it exists. The events which are
+     * concurrently written or overwritten while being copied are skipped.
+     *
+     * @param file the dump file
+     * @return the number of written events
+     * @throws IOException if the file cannot be written
+     */
+    public int dump(Path file) throws IOException {
+        List<long[]> events = new ArrayList<>(capacity());
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            long last = sequences.get(stripe * PADDING);
+            for (long seq = Math.max(last - (stripeMask + 1), 0); seq < last; seq++) {
+                int i = slotIndex(stripe, seq);
+                if (slots.get(i) != seq + 1)
+                    continue; // not written yet, being written, or already overwritten
+                long nanoTime = slots.get(i + 1), header = slots.get(i + 2), value = slots.get(i + 3);
+                if (slots.get(i) != seq + 1)
+                    continue; // overwritten while being copied
+                events.add(new long[] {seq, nanoTime, header, value});
+            }
+        }
+        Collections.sort(events, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] e1, long[] e2) {
+                long d = e1[1] - e2[1]; // the nanoTimes, and then the sequence numbers within a stripe
+                return d != 0 ? (d < 0 ? -1 : 1) : Long.compare(e1[0], e2[0]);
+            }
+        });
+
+        int count = events.size();
+        int size = (HEADER_LONGS + count * EVENT_LONGS) * 8;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(MAGIC).putLong(VERSION).putLong(count)
+                .putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+        for (int j = 0; j < count; j++) {
+            long[] event = events.get(j);
+            buffer.putLong(j).putLong(event[1]).putLong(event[2]).putLong(event[3]);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+        return count;
+    }
+
+    /**
+     * Returns true at most once per 10 seconds, in order to throttle the automatic dumps when
+     * a burst of problems, such as {@code getConnection()} timeouts, occurs.
+     */
+    boolean tryAutoDump() {
+        long last = lastAutoDumpNanoTime.get();
+        long now = System.nanoTime();
+        return now - last >= MIN_DUMP_INTERVAL_NANOS && lastAutoDumpNanoTime.compareAndSet(last, now);
+    }
+}
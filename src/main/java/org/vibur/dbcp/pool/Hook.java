@@ -140,6 +140,18 @@ public interface Hook {
         void on(TakenConnection[] takenConnections, long takenNanos);
     }
 
+    interface CriticalDrain extends Hook {
+        /**
+         * A programming hook that will be invoked <i>after</i> all connections in the pool were destroyed because
+         * an SQL exception with one of the {@link ViburConfig#getCriticalSQLStates critical SQL states} occurred
+         * on a restored connection. The hook execution should take as short time as possible.
+         *
+         * @param criticalException the SQL exception which has the critical SQL state
+         * @param destroyedConnections the number of connections destroyed from the pool
+         */
+        void on(SQLException criticalException, int destroyedConnections);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // Invocation hooks:
@@ -45,6 +45,7 @@ public final class HookHolder {
         void addOnClose(Hook.CloseConnection hook);
         void addOnDestroy(Hook.DestroyConnection hook);
         void addOnTimeout(Hook.GetConnectionTimeout hook);
+        void addOnCriticalDrain(Hook.CriticalDrain hook);
     }
 
     interface ConnHooksAccessor { // for internal use only
@@ -53,6 +54,7 @@ public final class HookHolder {
         Hook.CloseConnection[] onClose();
         Hook.DestroyConnection[] onDestroy();
         Hook.GetConnectionTimeout[] onTimeout();
+        Hook.CriticalDrain[] onCriticalDrain();
     }
 
     public interface InvocationHooks {
@@ -96,6 +98,11 @@ public final class HookHolder {
          * as possible. */
         private Hook.GetConnectionTimeout[] onTimeout = {};
 
+        /** A list of programming {@linkplain Hook.CriticalDrain#on hooks} that will be invoked only after all
+         * connections in the pool were destroyed because of a critical SQL state. Their execution should take as
+         * short time as possible. */
+        private Hook.CriticalDrain[] onCriticalDrain = {};
+
         @Override
         public void addOnInit(Hook.InitConnection hook) {
             onInit = addHook(onInit, hook);
@@ -121,6 +128,11 @@ public final class HookHolder {
             onTimeout = addHook(onTimeout, hook);
         }
 
+        @Override
+        public void addOnCriticalDrain(Hook.CriticalDrain hook) {
+            onCriticalDrain = addHook(onCriticalDrain, hook);
+        }
+
         @Override
         public Hook.InitConnection[] onInit() {
             return onInit;
@@ -145,6 +157,11 @@ public final class HookHolder {
         public Hook.GetConnectionTimeout[] onTimeout() {
             return onTimeout;
         }
+
+        @Override
+        public Hook.CriticalDrain[] onCriticalDrain() {
+            return onCriticalDrain;
+        }
     }
 
     private static class InvocationHooksHolder implements InvocationHooks, InvocationHooksAccessor {
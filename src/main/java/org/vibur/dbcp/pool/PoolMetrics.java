@@ -0,0 +1,69 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.util.StripedHistogram;
+
+/**
+ * The distributions of the pool timings, in nanoseconds, and of the retrieved ResultSet sizes. The values are
+ * recorded by the {@link DefaultHook} metrics hooks, which are registered when
+ * {@link org.vibur.dbcp.ViburConfig#isEnableMetrics enableMetrics} is set.
+ *
+ * @author Simeon Malchev
+ */
+public final class PoolMetrics {
+
+    private final StripedHistogram connectionCreate = new StripedHistogram();
+    private final StripedHistogram connectionWait = new StripedHistogram();
+    private final StripedHistogram connectionHold = new StripedHistogram();
+    private final StripedHistogram statementExecution = new StripedHistogram();
+    private final StripedHistogram resultSetSize = new StripedHistogram();
+
+    /** The time taken to create and initialize a raw connection. */
+    public StripedHistogram getConnectionCreate() {
+        return connectionCreate;
+    }
+
+    /** The time spent in {@code getConnection()} waiting for a pooled connection, including the timed out calls. */
+    public StripedHistogram getConnectionWait() {
+        return connectionWait;
+    }
+
+    /** The time for which a pooled connection was held by the application. */
+    public StripedHistogram getConnectionHold() {
+        return connectionHold;
+    }
+
+    /** The execution time of the SQL statements. */
+    public StripedHistogram getStatementExecution() {
+        return statementExecution;
+    }
+
+    /** The number of rows retrieved from each ResultSet. */
+    public StripedHistogram getResultSetSize() {
+        return resultSetSize;
+    }
+
+    public void reset() {
+        connectionCreate.reset();
+        connectionWait.reset();
+        connectionHold.reset();
+        statementExecution.reset();
+        resultSetSize.reset();
+    }
+}
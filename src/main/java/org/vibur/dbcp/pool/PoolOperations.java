@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburDBCPDataSource;
 import org.vibur.dbcp.ViburDBCPException;
 import org.vibur.dbcp.pool.HookHolder.ConnHooksAccessor;
+import org.vibur.dbcp.util.StripedCounter;
 import org.vibur.objectpool.PoolService;
 
 import java.sql.Connection;
@@ -29,6 +30,7 @@ import java.sql.SQLTimeoutException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
@@ -57,6 +59,14 @@ public class PoolOperations {
     private final long connectionTimeoutInNanos;
     private final ViburObjectFactory connectionFactory;
     private final PoolService<ConnHolder> poolService;
+    private final FlightRecorder flightRecorder;
+    private final boolean backgroundUse; // whether the idle connections can be used by background threads
+    private final StripedCounter waiters; // the threads currently taking a connection from the pool, if enableMetrics
+    private final StripedCounter timeouts = new StripedCounter(); // the getConnection() calls which timed out
+
+    private final long takenConnectionsSnapshotIntervalNanos;
+    private volatile TakenConnectionsSnapshot takenConnectionsSnapshot = null;
+    private final ReentrantLock takingConnectionsSnapshot = new ReentrantLock();
 
     private final Set<String> criticalSQLStates;
 
@@ -72,6 +82,10 @@ public class PoolOperations {
         this.connectionTimeoutInNanos = MILLISECONDS.toNanos(dataSource.getConnectionTimeoutInMs());
         this.connectionFactory = connectionFactory;
         this.poolService = poolService;
+        this.flightRecorder = dataSource.getFlightRecorder();
+        this.backgroundUse = dataSource.getStatementWarmer() != null || dataSource.getStatementCloser() != null;
+        this.waiters = dataSource.isEnableMetrics() ? new StripedCounter() : null;
+        this.takenConnectionsSnapshotIntervalNanos = MILLISECONDS.toNanos(dataSource.getTakenConnectionsSnapshotIntervalInMs());
         this.criticalSQLStates = new HashSet<>(Arrays.asList(
                 whitespaces.matcher(dataSource.getCriticalSQLStates()).replaceAll("").split(",")));
     }
@@ -135,15 +149,29 @@ public class PoolOperations {
         ViburDBCPException viburException = null;
 
         try {
-            if (onGet.length > 0) {
-                waitedNanos = new long[1];
-                connHolder = timeoutMs > 0 ? poolService.tryTake(timeoutMs, MILLISECONDS, waitedNanos) : poolService.take(waitedNanos);
+            if (waiters != null)
+                waiters.increment();
+            try {
+                if (onGet.length > 0) {
+                    waitedNanos = new long[1];
+                    connHolder = timeoutMs > 0 ? poolService.tryTake(timeoutMs, MILLISECONDS, waitedNanos) : poolService.take(waitedNanos);
+                }
+                else
+                    connHolder = timeoutMs > 0 ? poolService.tryTake(timeoutMs, MILLISECONDS) : poolService.take();
+            } finally {
+                if (waiters != null)
+                    waiters.add(-1);
             }
-            else
-                connHolder = timeoutMs > 0 ? poolService.tryTake(timeoutMs, MILLISECONDS) : poolService.take();
 
             if (connHolder == null) // we were *not* able to obtain a connection from the pool
                 sqlException = createSQLException(onGet.length > 0 ? waitedNanos[0] : MILLISECONDS.toNanos(timeoutMs));
+            else {
+                if (backgroundUse)
+                    connHolder.markTaken(); // a newly created connection is not passed through readyToTake()
+                connHolder.recordTake();
+                if (flightRecorder != null)
+                    flightRecorder.record(FlightRecorder.Event.TAKE, connHolder.id(), waitedNanos.length > 0 ? waitedNanos[0] : 0);
+            }
 
         } catch (ViburDBCPException e) { // thrown (indirectly) by the ConnectionFactory.create() methods
             viburException = e;
@@ -176,10 +204,14 @@ public class PoolOperations {
 
         Hook.GetConnectionTimeout[] onTimeout = ((ConnHooksAccessor) dataSource.getConnHooks()).onTimeout();
         boolean isInterrupted = Thread.currentThread().isInterrupted(); // someone else has interrupted us, so we do not clear the flag
+        if (!isInterrupted)
+            timeouts.increment();
+        if (!isInterrupted && flightRecorder != null)
+            flightRecorder.record(FlightRecorder.Event.TIMEOUT, 0, takenNanos);
         if (!isInterrupted && onTimeout.length > 0) {
-            TakenConnection[] takenConnections = dataSource.getTakenConnections();
+            TakenConnection[] takenConnections = getTakenConnectionsSnapshot();
             for (Hook.GetConnectionTimeout hook : onTimeout)
-                hook.on(takenConnections, takenNanos);
+                hook.on(takenConnections.clone(), takenNanos); // each hook gets its own copy, which it may sort
         }
 
         double takenMs = takenNanos * 0.000_001;
@@ -191,12 +223,79 @@ public class PoolOperations {
                         poolName, takenMs), SQLSTATE_INTERRUPTED_ERROR, intTakenMs);
     }
 
+    /**
+     * Returns the taken connections snapshot a copy of which is passed to each {@code GetConnectionTimeout} hook. At most
+     * one snapshot is taken per {@code takenConnectionsSnapshotIntervalInMs}, and it is shared by all threads which time
+     * out during this interval. The threads which time out while a new snapshot is being taken receive the previous
+     * snapshot, or wait for the new one if there is no previous snapshot. Thus, the hooks may receive the same taken
+     * connections more than once.
+     */
+    private TakenConnection[] getTakenConnectionsSnapshot() {
+        if (takenConnectionsSnapshotIntervalNanos == 0)
+            return dataSource.getTakenConnections();
+
+        TakenConnectionsSnapshot snapshot = takenConnectionsSnapshot;
+        if (isRecent(snapshot))
+            return snapshot.takenConnections;
+        if (snapshot != null) {
+            if (!takingConnectionsSnapshot.tryLock()) // another thread is taking the snapshot
+                return snapshot.takenConnections;
+        }
+        else
+            takingConnectionsSnapshot.lock(); // waits for the first snapshot, if another thread is taking it
+
+        try {
+            snapshot = takenConnectionsSnapshot;
+            if (isRecent(snapshot)) // taken by the thread for which we waited
+                return snapshot.takenConnections;
+            TakenConnection[] takenConnections = dataSource.getTakenConnections();
+            takenConnectionsSnapshot = new TakenConnectionsSnapshot(takenConnections, System.nanoTime());
+            return takenConnections;
+        } finally {
+            takingConnectionsSnapshot.unlock();
+        }
+    }
+
+    private boolean isRecent(TakenConnectionsSnapshot snapshot) {
+        return snapshot != null && System.nanoTime() - snapshot.nanoTime < takenConnectionsSnapshotIntervalNanos;
+    }
+
+    private static final class TakenConnectionsSnapshot {
+        private final TakenConnection[] takenConnections;
+        private final long nanoTime;
+
+        private TakenConnectionsSnapshot(TakenConnection[] takenConnections, long nanoTime) {
+            this.takenConnections = takenConnections;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    /**
+     * Returns the number of threads which are currently taking a connection from the pool, including the threads
+     * which are waiting for a connection to become available or to be created, or {@code -1} if they are not counted,
+     * i.e., if {@code enableMetrics} is not set.
+     */
+    public int waiters() {
+        return waiters != null ? (int) waiters.sum() : -1;
+    }
+
+    /**
+     * Returns the number of {@code getConnection()} calls which timed out. Unlike the {@code GetConnectionTimeout}
+     * hooks, counting the timeouts does not need a snapshot of the taken connections.
+     */
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
     ////////////// restore(...) //////////////
 
     public void restore(ConnHolder connHolder, boolean valid, SQLException[] exceptions) {
         if (logger.isTraceEnabled())
             logger.trace("Restoring rawConnection {}", connHolder.rawConnection());
         boolean reusable = valid && exceptions.length == 0 && connHolder.version() == connectionFactory.version();
+        if (flightRecorder != null)
+            flightRecorder.record(FlightRecorder.Event.RESTORE, connHolder.id(), reusable ? 1 : 0);
+        connHolder.recordRestore(exceptions.length, dataSource.getClock());
         poolService.restore(connHolder, reusable);
         processSQLExceptions(connHolder, exceptions);
     }
@@ -212,8 +311,13 @@ public class PoolOperations {
         SQLException criticalException = getCriticalSQLException(exceptions);
         if (criticalException != null && connectionFactory.compareAndSetVersion(connVersion, connVersion + 1)) {
             int destroyed = poolService.drainCreated(); // destroys all connections in the pool
+            if (flightRecorder != null)
+                flightRecorder.record(FlightRecorder.Event.CRITICAL_DRAIN, connHolder.id(), destroyed);
             logger.error("Critical SQLState {} occurred, destroyed {} connections from pool {}, current connection version is {}.",
                     criticalException.getSQLState(), destroyed, getPoolName(dataSource), connectionFactory.version(), criticalException);
+
+            for (Hook.CriticalDrain hook : ((ConnHooksAccessor) dataSource.getConnHooks()).onCriticalDrain())
+                hook.on(criticalException, destroyed);
         }
     }
 
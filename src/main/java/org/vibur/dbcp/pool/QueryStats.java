@@ -0,0 +1,311 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.util.StripedHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.String.format;
+import static org.vibur.dbcp.util.SqlFingerprint.fingerprint;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * The SQL queries execution statistics, aggregated per query {@link org.vibur.dbcp.util.SqlFingerprint fingerprint}:
+ * the number of calls and errors, the distribution of the execution times, and the number of retrieved or updated
+ * rows. The values are recorded by the {@link DefaultHook} query stats hooks, which are registered when
+ * {@link org.vibur.dbcp.ViburConfig#getQueryStatsMaxSize queryStatsMaxSize} is greater than {@code 0}.
+ *
+ * <p>At most {@code maxSize} fingerprints are tracked. As in the Space-Saving algorithm, when a new fingerprint is
+ * recorded while the stats are full, it replaces a fingerprint with few calls, and inherits its calls count as
+ * a possible overestimation, see {@link Entry#getCallsError}. The replaced fingerprint is the one with the least
+ * number of calls among a sample of {@value #EVICTION_SAMPLE_SIZE} tracked fingerprints, which are taken in
+ * a round-robin order, so that the replacement does not scan all fingerprints.
+ *
+ * <p>The fingerprints of the most recently executed SQL query strings are cached, so that the queries executed
+ * via the same PreparedStatement, or with the same SQL text, are fingerprinted only once. The execution times
+ * histogram of a fingerprint, which takes about 8 KB, is allocated only on its second call, so that the one-off
+ * queries take only a few hundred bytes.
+ *
+ * @author Simeon Malchev
+ */
+public final class QueryStats {
+
+    static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final int FINGERPRINTS_PER_STATS = 4; // the size of the fingerprints cache relative to maxSize
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Stats> stats;
+    private final ConcurrentMap<String, String> fingerprints; // from SQL query to its fingerprint
+    private final int maxFingerprints;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Stats> evictionCursor = null; // guarded by the evictionLock
+
+    public QueryStats(int maxSize) {
+        forbidIllegalArgument(maxSize <= 0);
+        this.maxSize = maxSize;
+        this.stats = new ConcurrentHashMap<>(maxSize * 2);
+        this.maxFingerprints = maxSize * FINGERPRINTS_PER_STATS;
+        this.fingerprints = new ConcurrentHashMap<>(maxFingerprints * 2);
+    }
+
+    void recordExecution(String sqlQuery, long takenNanos, long rows, boolean failed) {
+        String fingerprint = cachedFingerprint(sqlQuery);
+        Stats s = stats.get(fingerprint);
+        if (s == null)
+            s = add(fingerprint);
+        s.record(takenNanos);
+        if (failed)
+            s.errors.incrementAndGet();
+        if (rows > 0)
+            s.rows.addAndGet(rows);
+    }
+
+    void recordRows(String sqlQuery, long rows) {
+        if (rows <= 0)
+            return;
+        Stats s = stats.get(cachedFingerprint(sqlQuery));
+        if (s != null)
+            s.rows.addAndGet(rows);
+    }
+
+    private String cachedFingerprint(String sqlQuery) {
+        String fingerprint = fingerprints.get(sqlQuery);
+        if (fingerprint == null) {
+            fingerprint = fingerprint(sqlQuery);
+            if (fingerprints.size() >= maxFingerprints)
+                fingerprints.clear(); // the cheapest way to keep only the recently executed queries
+            fingerprints.put(sqlQuery, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private Stats add(String fingerprint) {
+        evictionLock.lock();
+        try {
+            Stats s = stats.get(fingerprint);
+            if (s != null)
+                return s;
+
+            long callsError = 0;
+            if (stats.size() >= maxSize) {
+                Stats victim = sampleVictim();
+                stats.remove(victim.fingerprint);
+                callsError = victim.calls.get();
+            }
+            s = new Stats(fingerprint, callsError);
+            stats.put(fingerprint, s);
+            return s;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Returns the tracked fingerprint with the least number of calls among the next few in round-robin order. */
+    private Stats sampleVictim() {
+        Stats victim = null;
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+            if (evictionCursor == null || !evictionCursor.hasNext()) {
+                evictionCursor = stats.values().iterator();
+                if (!evictionCursor.hasNext())
+                    break;
+            }
+            Stats s = evictionCursor.next();
+            if (victim == null || s.calls.get() < victim.calls.get())
+                victim = s;
+        }
+        return victim;
+    }
+
+    /**
+     * Returns a snapshot of the stats of up to {@code n} fingerprints with the highest total execution time,
+     * in descending order of their total execution time.
+     */
+    public List<Entry> top(int n) {
+        List<Entry> result = new ArrayList<>(stats.size());
+        for (Stats s : stats.values())
+            result.add(new Entry(s));
+
+        Collections.sort(result, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                long t1 = e1.getTotalNanos(), t2 = e2.getTotalNanos();
+                return t1 < t2 ? 1 : t1 > t2 ? -1 : 0;
+            }
+        });
+        return result.size() > n ? result.subList(0, n) : result;
+    }
+
+    /** Returns a snapshot of the stats of all tracked fingerprints, see {@link #top}. */
+    public List<Entry> snapshot() {
+        return top(maxSize);
+    }
+
+    public void reset() {
+        evictionLock.lock();
+        try {
+            stats.clear();
+            evictionCursor = null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Stats {
+        private final String fingerprint;
+        private final AtomicLong calls;
+        private final long callsError;
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxNanos = new AtomicLong();
+        private volatile long firstNanos; // the execution time of the first call, until the histogram is allocated
+        private final AtomicReference<StripedHistogram> executionNanos = new AtomicReference<>();
+
+        private Stats(String fingerprint, long callsError) {
+            this.fingerprint = fingerprint;
+            this.calls = new AtomicLong(callsError);
+            this.callsError = callsError;
+        }
+
+        private void record(long takenNanos) {
+            long call = calls.incrementAndGet() - callsError;
+            totalNanos.addAndGet(takenNanos);
+            long min = minNanos.get();
+            while (takenNanos < min && !minNanos.compareAndSet(min, takenNanos))
+                min = minNanos.get();
+            long max = maxNanos.get();
+            while (takenNanos > max && !maxNanos.compareAndSet(max, takenNanos))
+                max = maxNanos.get();
+
+            StripedHistogram histogram = executionNanos.get();
+            if (histogram == null) {
+                if (call == 1) {
+                    firstNanos = takenNanos;
+                    return;
+                }
+                histogram = new StripedHistogram(1);
+                if (executionNanos.compareAndSet(null, histogram)) {
+                    long first = firstNanos; // the first call may be missed if it is concurrent with the second
+                    if (first > 0)
+                        histogram.record(first);
+                }
+                else
+                    histogram = executionNanos.get();
+            }
+            histogram.record(takenNanos);
+        }
+
+        private StripedHistogram.Snapshot snapshot() {
+            StripedHistogram histogram = executionNanos.get();
+            if (histogram == null) { // at most one call so far
+                histogram = new StripedHistogram(1);
+                if (firstNanos > 0)
+                    histogram.record(firstNanos);
+            }
+            return histogram.snapshot();
+        }
+    }
+
+    /**
+     * An immutable copy of the stats of a fingerprint, taken at the time of the {@link #top} call.
+     */
+    public static final class Entry {
+        private final String fingerprint;
+        private final long calls;
+        private final long callsError;
+        private final long errors;
+        private final long rows;
+        private final long totalNanos;
+        private final long minNanos;
+        private final long maxNanos;
+        private final StripedHistogram.Snapshot executionNanos;
+
+        private Entry(Stats s) {
+            this.executionNanos = s.snapshot();
+            this.fingerprint = s.fingerprint;
+            this.calls = s.calls.get();
+            this.callsError = s.callsError;
+            this.errors = s.errors.get();
+            this.rows = s.rows.get();
+            this.totalNanos = s.totalNanos.get();
+            long min = s.minNanos.get();
+            this.minNanos = min == Long.MAX_VALUE ? 0 : min;
+            this.maxNanos = s.maxNanos.get();
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /** The maximal possible overestimation of the calls count of this fingerprint. */
+        public long getCallsError() {
+            return callsError;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /** The number of rows retrieved via ResultSets or reported as updated. */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMinNanos() {
+            return minNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /** The distribution of the execution times of this fingerprint, in nanoseconds. */
+        public StripedHistogram.Snapshot getExecutionNanos() {
+            return executionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return format("calls=%d%s, errors=%d, rows=%d, total=%.3f ms, mean=%.3f ms, min=%.3f ms, p50=%.3f ms, "
+                            + "p99=%.3f ms, max=%.3f ms: %s",
+                    calls, callsError > 0 ? " (+/-" + callsError + ")" : "", errors, rows,
+                    totalNanos * 0.000_001, executionNanos.getMean() * 0.000_001, minNanos * 0.000_001,
+                    executionNanos.getValueAtPercentile(50) * 0.000_001,
+                    executionNanos.getValueAtPercentile(99) * 0.000_001, maxNanos * 0.000_001, fingerprint);
+        }
+    }
+}
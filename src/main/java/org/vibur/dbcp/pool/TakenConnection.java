@@ -44,8 +44,8 @@ public abstract class TakenConnection {
 
     TakenConnection(TakenConnection takenConnection) {
         this.proxyConnection = takenConnection.proxyConnection;
-        this.takenNanoTime = takenConnection.takenNanoTime;
-        this.lastAccessNanoTime = takenConnection.lastAccessNanoTime;
+        this.takenNanoTime = takenConnection.getTakenNanoTime();
+        this.lastAccessNanoTime = takenConnection.getLastAccessNanoTime();
         this.thread = takenConnection.thread;
         this.location = takenConnection.location;
     }
@@ -114,6 +114,8 @@ public abstract class TakenConnection {
     @Override
     public String toString() {
         long currentNanoTime = System.nanoTime();
+        long takenNanoTime = getTakenNanoTime();
+        long lastAccessNanoTime = getLastAccessNanoTime();
         return TakenConnection.class.getSimpleName() + '@' + toHexString(hashCode()) +
                 '[' + proxyConnection + ", takenNanoTime=" + nanosToMillis(takenNanoTime, currentNanoTime) +
                 " ms, " + (lastAccessNanoTime == 0 ? "has not been accessed" :
@@ -18,13 +18,14 @@ package org.vibur.dbcp.pool;
 
 import org.vibur.dbcp.ViburConfig;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
-import static org.vibur.dbcp.util.ViburUtils.getStackTraceAsString;
+import static org.vibur.dbcp.util.ViburUtils.appendStackTrace;
 
 /**
  * @author Simeon Malchev
@@ -42,8 +43,24 @@ public interface TakenConnectionsFormatter {
      */
     String formatTakenConnections(TakenConnection[] takenConns);
 
+    /**
+     * A {@code TakenConnectionsFormatter} which can also write the formatted taken connections directly to
+     * an {@code Appendable}, such as a {@code Writer}, without building the whole text in memory first.
+     */
+    interface Streaming extends TakenConnectionsFormatter {
+
+        /**
+         * Writes to the given {@code Appendable} the same text as {@link #formatTakenConnections(TakenConnection[])}.
+         *
+         * @param takenConns the taken connections
+         * @param out the output
+         * @throws IOException if the output throws such
+         */
+        void formatTakenConnections(TakenConnection[] takenConns, Appendable out) throws IOException;
+    }
 
-    class Default implements TakenConnectionsFormatter {
+
+    class Default implements Streaming {
 
         private final ViburConfig config;
 
@@ -53,8 +70,21 @@ public interface TakenConnectionsFormatter {
 
         @Override
         public String formatTakenConnections(TakenConnection[] takenConns) {
-            if (takenConns == null || takenConns.length == 0)
-                return "NO TAKEN CONNECTIONS\n";
+            StringBuilder builder = new StringBuilder(8192);
+            try {
+                formatTakenConnections(takenConns, builder);
+            } catch (IOException e) {
+                throw new AssertionError(e); // StringBuilder does not throw IOException
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public void formatTakenConnections(TakenConnection[] takenConns, Appendable out) throws IOException {
+            if (takenConns == null || takenConns.length == 0) {
+                out.append("NO TAKEN CONNECTIONS\n");
+                return;
+            }
 
             // sort the thread holding connection for the longest time on top
             Arrays.sort(takenConns, new Comparator<TakenConnection>() {
@@ -64,61 +94,69 @@ public interface TakenConnectionsFormatter {
                 }
             });
 
+            int maxConnections = config.getTakenConnectionsFormatterMaxConnections();
+            int shown = maxConnections > 0 ? Math.min(maxConnections, takenConns.length) : takenConns.length;
+            int maxDepth = config.getTakenConnectionsFormatterMaxStackDepth();
+
             long currentNanoTime = System.nanoTime();
-            StringBuilder builder = new StringBuilder(takenConns.length * 8192);
-            Map<Thread, StackTraceElement[]> currentStackTraces = getCurrentStackTraces(takenConns);
-            for (int i = 0; i < takenConns.length; i++) {
+            Map<Thread, StackTraceElement[]> currentStackTraces = getCurrentStackTraces(takenConns, shown);
+            for (int i = 0; i < shown; i++) {
                 Thread holdingThread = takenConns[i].getThread();
-                builder.append("\n============\n(").append(i + 1).append('/').append(takenConns.length).append("), ")
-                        .append(takenConns[i].getProxyConnection())
-                        .append(", held for ").append(NANOSECONDS.toMillis(currentNanoTime - takenConns[i].getTakenNanoTime()));
+                out.append("\n============\n(").append(Integer.toString(i + 1)).append('/')
+                        .append(Integer.toString(takenConns.length)).append("), ")
+                        .append(String.valueOf(takenConns[i].getProxyConnection()))
+                        .append(", held for ").append(Long.toString(
+                                NANOSECONDS.toMillis(currentNanoTime - takenConns[i].getTakenNanoTime())));
 
                 if (takenConns[i].getLastAccessNanoTime() == 0)
-                    builder.append(" ms, has not been accessed");
+                    out.append(" ms, has not been accessed");
                 else
-                    builder.append(" ms, last accessed before ").append(
-                            NANOSECONDS.toMillis(currentNanoTime - takenConns[i].getLastAccessNanoTime())).append(" ms");
+                    out.append(" ms, last accessed before ").append(Long.toString(
+                            NANOSECONDS.toMillis(currentNanoTime - takenConns[i].getLastAccessNanoTime()))).append(" ms");
 
-                builder.append(", taken by thread ").append(holdingThread.getName())
-                        .append(", current thread state ").append(holdingThread.getState())
-                        .append("\n\nThread stack trace at the moment when getting the Connection:\n")
-                        .append(getStackTraceAsString(config.getLogLineRegex(), takenConns[i].getLocation().getStackTrace()));
+                out.append(", taken by thread ").append(holdingThread.getName())
+                        .append(", current thread state ").append(holdingThread.getState().name())
+                        .append("\n\nThread stack trace at the moment when getting the Connection:\n");
+                appendStackTrace(out, config.getLogLineRegex(), takenConns[i].getLocation().getStackTrace(), maxDepth);
 
                 StackTraceElement[] currentStackTrace = currentStackTraces.remove(holdingThread);
                 if (currentStackTrace != null && currentStackTrace.length > 0) {
-                    builder.append("\nThread stack trace at the current moment:\n")
-                            .append(getStackTraceAsString(config.getLogLineRegex(), currentStackTrace));
+                    out.append("\nThread stack trace at the current moment:\n");
+                    appendStackTrace(out, config.getLogLineRegex(), currentStackTrace, maxDepth);
                 }
             }
+            if (shown < takenConns.length)
+                out.append("\n============\n... and ").append(Integer.toString(takenConns.length - shown))
+                        .append(" more taken connections\n");
 
-            return addAllOtherStackTraces(builder, currentStackTraces).toString();
+            addAllOtherStackTraces(out, currentStackTraces, maxDepth);
         }
 
-        private StringBuilder addAllOtherStackTraces(StringBuilder builder, Map<Thread, StackTraceElement[]> stackTraces) {
+        private void addAllOtherStackTraces(Appendable out, Map<Thread, StackTraceElement[]> stackTraces, int maxDepth)
+                throws IOException {
             if (stackTraces.isEmpty())
-                return builder;
+                return;
 
-            builder.append("\n\n============ All other stack traces: ============\n\n");
+            out.append("\n\n============ All other stack traces: ============\n\n");
             for (Map.Entry<Thread, StackTraceElement[]> entry : stackTraces.entrySet()) {
                 Thread thread = entry.getKey();
-                builder.append("\n============\n").append("Thread ").append(thread.getName())
-                        .append(", state ").append(thread.getState());
+                out.append("\n============\n").append("Thread ").append(thread.getName())
+                        .append(", state ").append(thread.getState().name());
                 StackTraceElement[] currentStackTrace = entry.getValue();
                 if (currentStackTrace.length > 0) {
-                    builder.append("\n\nThread stack trace at the current moment:\n")
-                            .append(getStackTraceAsString(config.getLogLineRegex(), currentStackTrace));
+                    out.append("\n\nThread stack trace at the current moment:\n");
+                    appendStackTrace(out, config.getLogLineRegex(), currentStackTrace, maxDepth);
                 }
             }
-            return builder;
         }
 
-        private Map<Thread, StackTraceElement[]> getCurrentStackTraces(TakenConnection[] takenConns) {
+        private Map<Thread, StackTraceElement[]> getCurrentStackTraces(TakenConnection[] takenConns, int shown) {
             if (config.isLogAllStackTracesOnTimeout())
                 return Thread.getAllStackTraces();
 
-            Map<Thread, StackTraceElement[]> map = new HashMap<>(takenConns.length);
-            for (TakenConnection takenConn : takenConns) {
-                Thread holdingThread = takenConn.getThread();
+            Map<Thread, StackTraceElement[]> map = new HashMap<>(shown);
+            for (int i = 0; i < shown; i++) {
+                Thread holdingThread = takenConns[i].getThread();
                 if (holdingThread.isAlive())
                     map.put(holdingThread, holdingThread.getStackTrace());
             }
@@ -22,12 +22,15 @@ import org.vibur.objectpool.util.TakenListener;
 import java.util.Arrays;
 
 /**
+ * Tracks the taken connections in their {@link ConnectionSlots}, used when
+ * {@link org.vibur.dbcp.ViburConfig#poolEnableConnectionTracking poolEnableConnectionTracking} is allowed.
+ * The {@link TakenListener} set of the taken objects is not used.
+ *
  * @author Simeon Malchev
  */
 public class ViburListener extends TakenListener<ConnHolder> {
 
     public static final TakenConnection[] NO_TAKEN_CONNECTIONS = {};
-    private static final ConnHolder[] NO_TAKEN_CONN_HOLDERS = {};
 
     private final ViburConfig config;
 
@@ -36,29 +39,29 @@ public class ViburListener extends TakenListener<ConnHolder> {
         this.config = config;
     }
 
+    @Override
+    public void onTake(ConnHolder connHolder) {
+        connHolder.setTaken(true);
+    }
+
+    @Override
+    public void onRestore(ConnHolder connHolder) {
+        connHolder.setTaken(false);
+    }
+
     /**
      * See {@link org.vibur.dbcp.ViburDataSource#getTakenConnections}.
      */
     public TakenConnection[] getTakenConnections() {
-        ConnHolder[] takenConns = getTaken(new ConnHolder[config.getPoolMaxSize()]);
-        if (takenConns.length == 0)
-            return NO_TAKEN_CONNECTIONS;
-
-        return Arrays.copyOf(takenConns, takenConns.length, TakenConnection[].class);
+        return config.getConnectionSlots().getTakenConnections();
     }
 
+    /**
+     * Returns copies of the currently taken connections; the given array is not used.
+     */
     @Override
     protected ConnHolder[] getTaken(ConnHolder[] a) {
-        ConnHolder[] takenConns = super.getTaken(a);
-        int size = 0;
-        while (size < takenConns.length && takenConns[size] != null)
-            size++;
-        if (size == 0)
-            return NO_TAKEN_CONN_HOLDERS;
-
-        ConnHolder[] result = new ConnHolder[size];
-        for (int i = 0; i < size; i++)
-            result[i] = new ConnHolder(takenConns[i]);
-        return result;
+        TakenConnection[] takenConns = getTakenConnections();
+        return Arrays.copyOf(takenConns, takenConns.length, ConnHolder[].class);
     }
 }
@@ -25,9 +25,12 @@ import org.vibur.dbcp.stcache.StatementCache;
 import org.vibur.dbcp.stcache.StatementHolder;
 import org.vibur.dbcp.stcache.StatementMethod;
 import org.vibur.dbcp.stcache.StatementMethod.StatementCreator;
+import org.vibur.dbcp.util.InListBucketer;
+import org.vibur.dbcp.util.NanoClock;
 
 import java.lang.reflect.Method;
 import java.sql.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.vibur.dbcp.proxy.Proxy.*;
 
@@ -41,8 +44,11 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
     private final PoolOperations poolOperations;
     private final ViburConfig config;
     private final boolean poolEnableConnectionTracking;
+    private final NanoClock clock;
 
     private final StatementCache statementCache;
+    // a reusable lookup key for the statementCache, it is taken (set to null) while in use
+    private final AtomicReference<StatementMethod> statementMethodProbe = new AtomicReference<>();
 
     ConnectionInvocationHandler(ConnHolder connHolder, PoolOperations poolOperations, ViburConfig config) {
         super(connHolder.rawConnection(), config, null /* becomes a new ExceptionCollector */);
@@ -50,6 +56,7 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
         this.poolOperations = poolOperations;
         this.config = config;
         this.poolEnableConnectionTracking = config.isPoolEnableConnectionTracking();
+        this.clock = config.getClock();
         this.statementCache = config.getStatementCache();
     }
 
@@ -72,7 +79,7 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
     @Override
     Object restrictedInvoke(Connection proxy, Method method, Object[] args) throws SQLException {
         if (poolEnableConnectionTracking)
-            connHolder.setLastAccessNanoTime(System.nanoTime());
+            connHolder.setLastAccessNanoTime(clock.nanoTime());
 
         String methodName = method.getName();
 
@@ -83,8 +90,13 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
             return newProxyStatement(statement, proxy, config, this);
         }
         if (methodName == "prepareStatement") { // *6
+            InListBucketer.Bucketed bucketed = config.isInListBucketing() ? InListBucketer.bucket((String) args[0]) : null;
+            if (bucketed != null) {
+                args = args.clone();
+                args[0] = bucketed.getSql();
+            }
             StatementHolder pStatement = getCachedStatement(method, args);
-            return newProxyPreparedStatement(pStatement, proxy, config, this);
+            return newProxyPreparedStatement(pStatement, proxy, config, this, bucketed);
         }
         if (methodName == "prepareCall") { // *3
             StatementHolder cStatement = getCachedStatement(method, args);
@@ -107,13 +119,27 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
      * @return a retrieved from the cache or newly created StatementHolder object wrapping the raw JDBC Statement object
      * @throws SQLException if the invoked underlying "prepare..." method throws an exception
      */
-    private StatementHolder getCachedStatement(Method method, Object[] args) throws SQLException {
-        if (statementCache != null)
-            return statementCache.take(new StatementMethod(getTarget(), this, method, args));
+    StatementHolder getCachedStatement(Method method, Object[] args) throws SQLException {
+        if (statementCache != null) {
+            StatementMethod probe = statementMethodProbe.getAndSet(null);
+            if (probe == null)
+                probe = new StatementMethod(connHolder, this, method, args);
+            else
+                probe.reset(method, args);
+
+            StatementHolder statement = statementCache.take(probe);
+            if (statement.statementMethod() != probe) // i.e. if the probe was not stored as a new cache key
+                statementMethodProbe.lazySet(probe);
+            return statement;
+        }
 
         return getUncachedStatement(method, args, (String) args[0]);
     }
 
+    int connectionId() {
+        return connHolder.id();
+    }
+
     private StatementHolder getUncachedStatement(Method method, Object[] args, String sqlQuery) throws SQLException {
         Statement rawStatement = (Statement) targetInvoke(method, args);
         return new StatementHolder(rawStatement, null, sqlQuery);
@@ -20,6 +20,7 @@ import org.vibur.dbcp.ViburConfig;
 import org.vibur.dbcp.pool.ConnHolder;
 import org.vibur.dbcp.pool.PoolOperations;
 import org.vibur.dbcp.stcache.StatementHolder;
+import org.vibur.dbcp.util.InListBucketer;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
@@ -41,32 +42,35 @@ public final class Proxy {
     }
 
     static Statement newProxyStatement(StatementHolder rawStatement, Connection connProxy,
-                                       ViburConfig config, ExceptionCollector exceptionCollector) {
+                                       ViburConfig config, ConnectionInvocationHandler connHandler) {
         if (rawStatement == null)
             return null;
 
-        InvocationHandler handler = new StatementInvocationHandler(
-                rawStatement, null /* turns off the statement cache */, connProxy, config, exceptionCollector);
+        ConnectionInvocationHandler autoParameterizer =
+                config.isAutoParameterizeStatements() && config.getStatementCache() != null ? connHandler : null;
+        InvocationHandler handler = new StatementInvocationHandler(rawStatement, null /* turns off the statement cache */,
+                connProxy, config, connHandler, autoParameterizer, null);
         return newProxy(statementCtor, handler);
     }
 
     static PreparedStatement newProxyPreparedStatement(StatementHolder rawPStatement, Connection connProxy,
-                                                       ViburConfig config, ExceptionCollector exceptionCollector) {
+                                                       ViburConfig config, ConnectionInvocationHandler connHandler,
+                                                       InListBucketer.Bucketed bucketed) {
         if (rawPStatement == null)
             return null;
 
         InvocationHandler handler = new StatementInvocationHandler(
-                rawPStatement, config.getStatementCache(), connProxy, config, exceptionCollector);
+                rawPStatement, config.getStatementCache(), connProxy, config, connHandler, null, bucketed);
         return newProxy(pStatementCtor, handler);
     }
 
     static CallableStatement newProxyCallableStatement(StatementHolder rawCStatement, Connection connProxy,
-                                                       ViburConfig config, ExceptionCollector exceptionCollector) {
+                                                       ViburConfig config, ConnectionInvocationHandler connHandler) {
         if (rawCStatement == null)
             return null;
 
         InvocationHandler handler = new StatementInvocationHandler(
-                rawCStatement, config.getStatementCache(), connProxy, config, exceptionCollector);
+                rawCStatement, config.getStatementCache(), connProxy, config, connHandler, null, null);
         return newProxy(cStatementCtor, handler);
     }
 
@@ -85,6 +89,8 @@ public final class Proxy {
                                        ViburConfig config, ExceptionCollector exceptionCollector) {
         if (rawResultSet == null)
             return null;
+        if (config.isThinResultSets())
+            return new ResultSetDelegate(rawResultSet, statementProxy, config, exceptionCollector);
 
         InvocationHandler handler = new ResultSetInvocationHandler(
                 rawResultSet, statementProxy, sqlQuery, sqlQueryParams, config, exceptionCollector);
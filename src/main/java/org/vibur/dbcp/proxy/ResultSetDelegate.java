@@ -0,0 +1,1787 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.proxy;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+import java.util.Map;
+
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_WRAPPER_ERROR;
+
+/**
+ * A lightweight (non-reflective) delegate for the raw JDBC ResultSet. It is used instead of the ResultSet
+ * dynamic proxy when {@link ViburConfig#useThinProxies useThinProxies} is enabled and none of the features
+ * that require the ResultSet proxy, such as the {@code ResultSetRetrieval} and {@code MethodInvocation}
+ * hooks, is active.
+ *
+ * <p>The delegate preserves the parent identity semantics of {@link ResultSet#getStatement()}, i.e. it
+ * returns the Statement proxy, and the unwrapping semantics of the ResultSet proxy. All other calls,
+ * including {@code next()} and the {@code getXyz()} calls, go directly to the raw ResultSet. As with the
+ * ResultSet proxy, all SQL exceptions thrown by the raw ResultSet are passed to the Connection exceptions
+ * collector, and the delegate is implicitly closed when its parent Statement proxy is closed.
+ *
+ * @author Simeon Malchev
+ */
+final class ResultSetDelegate implements ResultSet {
+
+    private final ResultSet rawResultSet;
+    private final Statement statementProxy;
+    private final ViburConfig config;
+    private final ExceptionCollector exceptionCollector;
+
+    ResultSetDelegate(ResultSet rawResultSet, Statement statementProxy, ViburConfig config,
+                      ExceptionCollector exceptionCollector) {
+        assert rawResultSet != null;
+        assert statementProxy != null;
+        assert exceptionCollector != null;
+        this.rawResultSet = rawResultSet;
+        this.statementProxy = statementProxy;
+        this.config = config;
+        this.exceptionCollector = exceptionCollector;
+    }
+
+    /** Passes the given exception to the Connection exceptions collector, as the ResultSet proxy does. */
+    private SQLException collect(SQLException e) {
+        exceptionCollector.addException(e);
+        return e;
+    }
+
+    @Override
+    public Statement getStatement() {
+        return statementProxy;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            rawResultSet.close();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        try {
+            return rawResultSet.isClosed();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (isWrapperFor(iface))
+            return (T) rawResultSet;
+        throw new SQLException("Not a wrapper or unwrapping is disabled for " + iface, SQLSTATE_WRAPPER_ERROR);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return config.isAllowUnwrapping() && iface.isInstance(rawResultSet);
+    }
+
+    @Override
+    public String toString() {
+        return "Vibur delegate for: " + rawResultSet;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+        try {
+            return rawResultSet.next();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean wasNull() throws SQLException {
+        try {
+            return rawResultSet.wasNull();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getString(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getBoolean(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public byte getByte(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getByte(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public short getShort(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getShort(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getInt(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getInt(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public long getLong(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getLong(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public float getFloat(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getFloat(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public double getDouble(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getDouble(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
+        try {
+            return rawResultSet.getBigDecimal(columnIndex, scale);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getBytes(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Date getDate(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getDate(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Time getTime(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getTime(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getTimestamp(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public InputStream getAsciiStream(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getAsciiStream(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getUnicodeStream(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getBinaryStream(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public String getString(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getString(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getBoolean(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public byte getByte(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getByte(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public short getShort(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getShort(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getInt(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getInt(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public long getLong(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getLong(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public float getFloat(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getFloat(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public double getDouble(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getDouble(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
+        try {
+            return rawResultSet.getBigDecimal(columnLabel, scale);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getBytes(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Date getDate(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getDate(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Time getTime(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getTime(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getTimestamp(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public InputStream getAsciiStream(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getAsciiStream(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getUnicodeStream(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getBinaryStream(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        try {
+            return rawResultSet.getWarnings();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        try {
+            rawResultSet.clearWarnings();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public String getCursorName() throws SQLException {
+        try {
+            return rawResultSet.getCursorName();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        try {
+            return rawResultSet.getMetaData();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Object getObject(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Object getObject(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int findColumn(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.findColumn(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Reader getCharacterStream(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getCharacterStream(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Reader getCharacterStream(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getCharacterStream(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getBigDecimal(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getBigDecimal(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean isBeforeFirst() throws SQLException {
+        try {
+            return rawResultSet.isBeforeFirst();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean isAfterLast() throws SQLException {
+        try {
+            return rawResultSet.isAfterLast();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean isFirst() throws SQLException {
+        try {
+            return rawResultSet.isFirst();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean isLast() throws SQLException {
+        try {
+            return rawResultSet.isLast();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        try {
+            rawResultSet.beforeFirst();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        try {
+            rawResultSet.afterLast();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean first() throws SQLException {
+        try {
+            return rawResultSet.first();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        try {
+            return rawResultSet.last();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getRow() throws SQLException {
+        try {
+            return rawResultSet.getRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean absolute(int row) throws SQLException {
+        try {
+            return rawResultSet.absolute(row);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean relative(int rows) throws SQLException {
+        try {
+            return rawResultSet.relative(rows);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean previous() throws SQLException {
+        try {
+            return rawResultSet.previous();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        try {
+            rawResultSet.setFetchDirection(direction);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        try {
+            return rawResultSet.getFetchDirection();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        try {
+            rawResultSet.setFetchSize(rows);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        try {
+            return rawResultSet.getFetchSize();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getType() throws SQLException {
+        try {
+            return rawResultSet.getType();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getConcurrency() throws SQLException {
+        try {
+            return rawResultSet.getConcurrency();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean rowUpdated() throws SQLException {
+        try {
+            return rawResultSet.rowUpdated();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean rowInserted() throws SQLException {
+        try {
+            return rawResultSet.rowInserted();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public boolean rowDeleted() throws SQLException {
+        try {
+            return rawResultSet.rowDeleted();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNull(int columnIndex) throws SQLException {
+        try {
+            rawResultSet.updateNull(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+        try {
+            rawResultSet.updateBoolean(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateByte(int columnIndex, byte x) throws SQLException {
+        try {
+            rawResultSet.updateByte(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateShort(int columnIndex, short x) throws SQLException {
+        try {
+            rawResultSet.updateShort(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateInt(int columnIndex, int x) throws SQLException {
+        try {
+            rawResultSet.updateInt(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateLong(int columnIndex, long x) throws SQLException {
+        try {
+            rawResultSet.updateLong(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateFloat(int columnIndex, float x) throws SQLException {
+        try {
+            rawResultSet.updateFloat(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateDouble(int columnIndex, double x) throws SQLException {
+        try {
+            rawResultSet.updateDouble(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
+        try {
+            rawResultSet.updateBigDecimal(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateString(int columnIndex, String x) throws SQLException {
+        try {
+            rawResultSet.updateString(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+        try {
+            rawResultSet.updateBytes(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateDate(int columnIndex, Date x) throws SQLException {
+        try {
+            rawResultSet.updateDate(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateTime(int columnIndex, Time x) throws SQLException {
+        try {
+            rawResultSet.updateTime(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException {
+        try {
+            rawResultSet.updateTimestamp(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException {
+        try {
+            rawResultSet.updateObject(columnIndex, x, scaleOrLength);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateObject(int columnIndex, Object x) throws SQLException {
+        try {
+            rawResultSet.updateObject(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNull(String columnLabel) throws SQLException {
+        try {
+            rawResultSet.updateNull(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+        try {
+            rawResultSet.updateBoolean(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateByte(String columnLabel, byte x) throws SQLException {
+        try {
+            rawResultSet.updateByte(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateShort(String columnLabel, short x) throws SQLException {
+        try {
+            rawResultSet.updateShort(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateInt(String columnLabel, int x) throws SQLException {
+        try {
+            rawResultSet.updateInt(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateLong(String columnLabel, long x) throws SQLException {
+        try {
+            rawResultSet.updateLong(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateFloat(String columnLabel, float x) throws SQLException {
+        try {
+            rawResultSet.updateFloat(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateDouble(String columnLabel, double x) throws SQLException {
+        try {
+            rawResultSet.updateDouble(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException {
+        try {
+            rawResultSet.updateBigDecimal(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateString(String columnLabel, String x) throws SQLException {
+        try {
+            rawResultSet.updateString(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+        try {
+            rawResultSet.updateBytes(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateDate(String columnLabel, Date x) throws SQLException {
+        try {
+            rawResultSet.updateDate(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateTime(String columnLabel, Time x) throws SQLException {
+        try {
+            rawResultSet.updateTime(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException {
+        try {
+            rawResultSet.updateTimestamp(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnLabel, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnLabel, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader, int length) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnLabel, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException {
+        try {
+            rawResultSet.updateObject(columnLabel, x, scaleOrLength);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateObject(String columnLabel, Object x) throws SQLException {
+        try {
+            rawResultSet.updateObject(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void insertRow() throws SQLException {
+        try {
+            rawResultSet.insertRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateRow() throws SQLException {
+        try {
+            rawResultSet.updateRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void deleteRow() throws SQLException {
+        try {
+            rawResultSet.deleteRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void refreshRow() throws SQLException {
+        try {
+            rawResultSet.refreshRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void cancelRowUpdates() throws SQLException {
+        try {
+            rawResultSet.cancelRowUpdates();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void moveToInsertRow() throws SQLException {
+        try {
+            rawResultSet.moveToInsertRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void moveToCurrentRow() throws SQLException {
+        try {
+            rawResultSet.moveToCurrentRow();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Object getObject(int columnIndex, Map<String,Class<?>> map) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnIndex, map);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Ref getRef(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getRef(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Blob getBlob(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getBlob(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Clob getClob(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getClob(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Array getArray(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getArray(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Object getObject(String columnLabel, Map<String,Class<?>> map) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnLabel, map);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Ref getRef(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getRef(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Blob getBlob(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getBlob(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Clob getClob(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getClob(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Array getArray(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getArray(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getDate(columnIndex, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getDate(columnLabel, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getTime(columnIndex, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getTime(columnLabel, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getTimestamp(columnIndex, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException {
+        try {
+            return rawResultSet.getTimestamp(columnLabel, cal);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public URL getURL(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getURL(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public URL getURL(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getURL(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateRef(int columnIndex, Ref x) throws SQLException {
+        try {
+            rawResultSet.updateRef(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateRef(String columnLabel, Ref x) throws SQLException {
+        try {
+            rawResultSet.updateRef(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, Blob x) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, Blob x) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Clob x) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Clob x) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateArray(int columnIndex, Array x) throws SQLException {
+        try {
+            rawResultSet.updateArray(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateArray(String columnLabel, Array x) throws SQLException {
+        try {
+            rawResultSet.updateArray(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public RowId getRowId(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getRowId(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public RowId getRowId(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getRowId(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateRowId(int columnIndex, RowId x) throws SQLException {
+        try {
+            rawResultSet.updateRowId(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateRowId(String columnLabel, RowId x) throws SQLException {
+        try {
+            rawResultSet.updateRowId(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        try {
+            return rawResultSet.getHoldability();
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNString(int columnIndex, String nString) throws SQLException {
+        try {
+            rawResultSet.updateNString(columnIndex, nString);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNString(String columnLabel, String nString) throws SQLException {
+        try {
+            rawResultSet.updateNString(columnLabel, nString);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, NClob nClob) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnIndex, nClob);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, NClob nClob) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnLabel, nClob);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public NClob getNClob(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getNClob(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public NClob getNClob(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getNClob(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public SQLXML getSQLXML(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getSQLXML(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public SQLXML getSQLXML(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getSQLXML(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException {
+        try {
+            rawResultSet.updateSQLXML(columnIndex, xmlObject);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException {
+        try {
+            rawResultSet.updateSQLXML(columnLabel, xmlObject);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public String getNString(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getNString(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public String getNString(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getNString(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Reader getNCharacterStream(int columnIndex) throws SQLException {
+        try {
+            return rawResultSet.getNCharacterStream(columnIndex);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public Reader getNCharacterStream(String columnLabel) throws SQLException {
+        try {
+            return rawResultSet.getNCharacterStream(columnLabel);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        try {
+            rawResultSet.updateNCharacterStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateNCharacterStream(columnLabel, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnIndex, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnLabel, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnLabel, x, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnLabel, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, InputStream inputStream, long length) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnIndex, inputStream, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, InputStream inputStream, long length) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnLabel, inputStream, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnIndex, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnLabel, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnIndex, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnLabel, reader, length);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException {
+        try {
+            rawResultSet.updateNCharacterStream(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateNCharacterStream(columnLabel, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(int columnIndex, Reader x) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnIndex, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException {
+        try {
+            rawResultSet.updateAsciiStream(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException {
+        try {
+            rawResultSet.updateBinaryStream(columnLabel, x);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateCharacterStream(columnLabel, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(int columnIndex, InputStream inputStream) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnIndex, inputStream);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException {
+        try {
+            rawResultSet.updateBlob(columnLabel, inputStream);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(int columnIndex, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnIndex, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateClob(String columnLabel, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateClob(columnLabel, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnIndex, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public void updateNClob(String columnLabel, Reader reader) throws SQLException {
+        try {
+            rawResultSet.updateNClob(columnLabel, reader);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnIndex, type);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+
+    @Override
+    public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
+        try {
+            return rawResultSet.getObject(columnLabel, type);
+        } catch (SQLException e) {
+            throw collect(e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.vibur.dbcp.proxy;
 import org.vibur.dbcp.ViburConfig;
 import org.vibur.dbcp.pool.Hook;
 import org.vibur.dbcp.pool.HookHolder.InvocationHooksAccessor;
+import org.vibur.dbcp.util.NanoClock;
 
 import java.lang.reflect.Method;
 import java.sql.ResultSet;
@@ -36,6 +37,7 @@ class ResultSetInvocationHandler extends ChildObjectInvocationHandler<Statement,
     private final String sqlQuery;
     private final List<Object[]> sqlQueryParams;
     private final Hook.ResultSetRetrieval[] executionHooks;
+    private final NanoClock clock;
 
     private long resultSetSize = 0;
     private boolean firstResultSetRetrieved = false;
@@ -49,6 +51,7 @@ class ResultSetInvocationHandler extends ChildObjectInvocationHandler<Statement,
         this.sqlQuery = sqlQuery;
         this.sqlQueryParams = sqlQueryParams;
         this.executionHooks = ((InvocationHooksAccessor) config.getInvocationHooks()).onResultSetRetrieval();
+        this.clock = config.getClock();
     }
 
     @Override
@@ -77,9 +80,9 @@ class ResultSetInvocationHandler extends ChildObjectInvocationHandler<Statement,
         if (executionHooks.length > 0) {
             if (!firstResultSetRetrieved) {
                 firstResultSetRetrieved = true;
-                firstResultSetNanoTime = lastResultSetNanoTime = System.nanoTime();
+                firstResultSetNanoTime = lastResultSetNanoTime = clock.nanoTime();
             } else
-                lastResultSetNanoTime = System.nanoTime();
+                lastResultSetNanoTime = clock.nanoTime();
             resultSetSize++;
         }
 
@@ -16,14 +16,25 @@
 
 package org.vibur.dbcp.proxy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.pool.FlightRecorder;
 import org.vibur.dbcp.pool.Hook;
 import org.vibur.dbcp.pool.HookHolder.InvocationHooksAccessor;
 import org.vibur.dbcp.stcache.StatementCache;
 import org.vibur.dbcp.stcache.StatementHolder;
+import org.vibur.dbcp.util.InListBucketer;
+import org.vibur.dbcp.util.SqlParameterizer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -32,6 +43,10 @@ import java.util.ArrayList;
 import java.util.Deque;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.vibur.dbcp.pool.FlightRecorder.Event.EXECUTE_END;
+import static org.vibur.dbcp.pool.FlightRecorder.Event.EXECUTE_START;
 import static org.vibur.dbcp.proxy.Proxy.newProxyResultSet;
 import static org.vibur.dbcp.util.JdbcUtils.quietClose;
 
@@ -41,6 +56,13 @@ import static org.vibur.dbcp.util.JdbcUtils.quietClose;
 class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection, Statement>
         implements Hook.StatementProceedingPoint {
 
+    private static final Logger logger = LoggerFactory.getLogger(StatementInvocationHandler.class);
+
+    private static final Method PREPARE_STATEMENT = getPrepareStatementMethod();
+    private static final Method SET_BYTES = getSetMethod("setBytes", byte[].class);
+    private static final Method SET_STRING = getSetMethod("setString", String.class);
+    private static final Method SET_NSTRING = getSetMethod("setNString", String.class);
+
     private final StatementHolder statement;
     private final StatementCache statementCache; // always "null" (i.e. turned off) for simple JDBC Statements
     private final ViburConfig config;
@@ -53,9 +75,20 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
     private final boolean logSqlQueryParams;
     private final List<Object[]> sqlQueryParams;
 
+    // non-null only for simple JDBC Statements when the autoParameterizeStatements is enabled
+    private final ConnectionInvocationHandler autoParameterizer;
+    private boolean configured = false; // true if a "set..." method was called on this simple Statement
+    private volatile StatementHolder parameterized = null; // the cached PreparedStatement of the current execution
+
+    private final InListBucketer.Bucketed bucketed; // non-null only if the PreparedStatement IN-lists were padded
+
+    private final FlightRecorder flightRecorder;
+    private final int connectionId;
+
     StatementInvocationHandler(StatementHolder statement, StatementCache statementCache, Connection connProxy,
-                               ViburConfig config, ExceptionCollector exceptionCollector) {
-        super(statement.rawStatement(), connProxy, "getConnection", config, exceptionCollector);
+                               ViburConfig config, ConnectionInvocationHandler connHandler,
+                               ConnectionInvocationHandler autoParameterizer, InListBucketer.Bucketed bucketed) {
+        super(statement.rawStatement(), connProxy, "getConnection", config, connHandler);
         this.statement = statement;
         this.statementCache = statementCache;
         this.config = config;
@@ -67,6 +100,26 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
         this.logSqlQueryParams = config.isIncludeQueryParameters() &&
                 (executionHooks.length > 0 || invocationHooksAccessor.onResultSetRetrieval().length > 0);
         this.sqlQueryParams = logSqlQueryParams ? new ArrayList<Object[]>() : null;
+        this.autoParameterizer = autoParameterizer;
+        this.bucketed = bucketed;
+        this.flightRecorder = config.getFlightRecorder();
+        this.connectionId = connHandler.connectionId();
+    }
+
+    private static Method getPrepareStatementMethod() {
+        try {
+            return Connection.class.getMethod("prepareStatement", String.class);
+        } catch (NoSuchMethodException e) {
+            throw new Error(e); // not expected to happen
+        }
+    }
+
+    private static Method getSetMethod(String name, Class<?> parameterType) {
+        try {
+            return PreparedStatement.class.getMethod(name, int.class, parameterType);
+        } catch (NoSuchMethodException e) {
+            throw new Error(e); // not expected to happen
+        }
     }
 
     @Override
@@ -90,6 +143,11 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
         if (methodName.startsWith("execute")) // this intercepts all "execute..." JDBC Statement methods
             return processExecute(proxy, method, args);
 
+        StatementHolder current = parameterized;
+        if (current != null && (methodName == "getResultSet" || methodName == "getUpdateCount"
+                || methodName == "getMoreResults" || methodName == "getWarnings" || methodName == "clearWarnings"))
+            return processParameterizedResults(proxy, method, args, (PreparedStatement) current.rawStatement());
+
         if (methodName == "getMoreResults") // *2
             return processMoreResults(method, args);
 
@@ -109,6 +167,7 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
             return null;
 
         closeAllResultSets();
+        restoreParameterized();
 
         if (statementCache != null && statementCache.restore(statement, config.isClearSQLWarnings()))
             return null; // calls to close() are not passed when the statement is restored successfully in the cache
@@ -118,20 +177,104 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
     private Object processCancel(Method method, Object[] args) throws SQLException {
         if (statementCache != null)
             statementCache.remove(statement); // because cancelled Statements are not longer valid
+        StatementHolder current = parameterized;
+        if (current != null) {
+            config.getStatementCache().remove(current);
+            ((Statement) current.rawStatement()).cancel();
+        }
         return targetInvoke(method, args);
     }
 
     private Object processSet(Method method, Object[] args) throws SQLException {
+        if (autoParameterizer != null)
+            configured = true; // the Statement settings would not apply to the auto-parameterized PreparedStatement
         if (logSqlQueryParams && args != null && args.length >= 2)
             addSqlQueryParams(method, args);
+        if (bucketed != null && args != null && args.length >= 2 && args[0] instanceof Integer)
+            return processBucketedSet(method, args);
         return targetInvoke(method, args); // the real "set..." call
     }
 
+    /**
+     * Sets the given parameter at its index in the padded query, and if it is the last element of a padded
+     * IN-list, sets the same value for the padding parameters which follow it. As a stream or reader can be read
+     * only once, such a value of a padded parameter is read in memory and is set via {@code setBytes},
+     * {@code setString} or {@code setNString}; the not padded stream parameters are passed as they are.
+     */
+    private Object processBucketedSet(Method method, Object[] args) throws SQLException {
+        int originalIndex = (Integer) args[0];
+        int index = bucketed.parameterIndex(originalIndex);
+        int padding = bucketed.padding(originalIndex);
+        Object[] bucketedArgs;
+        if (padding > 0 && (args[1] instanceof InputStream || args[1] instanceof Reader)) {
+            bucketedArgs = new Object[] {index, readStream(method, args)};
+            method = bucketedArgs[1] instanceof byte[] ? SET_BYTES
+                    : method.getName().startsWith("setN") ? SET_NSTRING : SET_STRING;
+        }
+        else {
+            bucketedArgs = args.clone();
+            bucketedArgs[0] = index;
+        }
+        Object result = targetInvoke(method, bucketedArgs);
+
+        for (int i = 1; i <= padding; i++) {
+            bucketedArgs[0] = index + i;
+            targetInvoke(method, bucketedArgs);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the stream or reader value of the given stream setter call, up to its length argument if any.
+     *
+     * @return the read {@code String} for a reader or an ASCII or Unicode stream, or the read {@code byte[]}
+     * for any other stream
+     */
+    private static Object readStream(Method method, Object[] args) throws SQLException {
+        long length = args.length >= 3 && args[2] instanceof Number ? ((Number) args[2]).longValue() : Long.MAX_VALUE;
+        try {
+            if (args[1] instanceof Reader) {
+                Reader reader = (Reader) args[1];
+                StringBuilder result = new StringBuilder();
+                char[] buffer = new char[4096];
+                int read;
+                while (result.length() < length
+                        && (read = reader.read(buffer, 0, (int) Math.min(buffer.length, length - result.length()))) != -1)
+                    result.append(buffer, 0, read);
+                return result.toString();
+            }
+
+            InputStream stream = (InputStream) args[1];
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while (result.size() < length
+                    && (read = stream.read(buffer, 0, (int) Math.min(buffer.length, length - result.size()))) != -1)
+                result.write(buffer, 0, read);
+
+            String methodName = method.getName();
+            if (methodName == "setAsciiStream")
+                return new String(result.toByteArray(), US_ASCII);
+            if (methodName == "setUnicodeStream")
+                return new String(result.toByteArray(), UTF_8);
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException("Couldn't read the stream parameter " + args[0], e);
+        }
+    }
+
     private Object processExecute(Statement proxy, Method method, Object[] args) throws SQLException {
         closeAllResultSets();
+        restoreParameterized();
 
         if (statement.getSqlQuery() == null && args != null && args.length >= 1) // a simple Statement "execute..." call
             statement.setSqlQuery((String) args[0]);
+        if (autoParameterizer != null && !configured && args != null && args.length == 1
+                && (method.getName() == "executeQuery" || method.getName() == "executeUpdate"))
+            parameterized = autoParameterize((String) args[0]);
+
+        if (flightRecorder != null)
+            return processRecordedExecute(proxy, method, args);
 
         try {
             return firstHook.on(proxy, method, args, statement.getSqlQuery(), sqlQueryParams, this); // see the SPP implementation below
@@ -140,6 +283,22 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
         }
     }
 
+    private Object processRecordedExecute(Statement proxy, Method method, Object[] args) throws SQLException {
+        String sqlQuery = statement.getSqlQuery();
+        flightRecorder.record(EXECUTE_START, connectionId, sqlQuery != null ? sqlQuery.hashCode() : 0);
+        long startNanoTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = firstHook.on(proxy, method, args, sqlQuery, sqlQueryParams, this);
+            failed = false;
+            return result;
+        } finally {
+            prepareForNextExecution();
+            long takenNanos = Math.max(System.nanoTime() - startNanoTime, 1);
+            flightRecorder.record(EXECUTE_END, connectionId, failed ? -takenNanos : takenNanos);
+        }
+    }
+
     private Object processMoreResults(Method method, Object[] args) throws SQLException {
         int current = Statement.CLOSE_ALL_RESULTS;
         if (args != null && args.length == 1)
@@ -153,6 +312,78 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
         return targetInvoke(method, args);
     }
 
+    /**
+     * Tries to parameterize the given simple Statement SQL query and to obtain a cached PreparedStatement
+     * for the parameterized query, with the extracted parameters set on it.
+     *
+     * The queries executed within a transaction, i.e., when the auto-commit is off, are not parameterized,
+     * as on some databases, such as PostgreSQL, a failed parameterized execution would abort the transaction
+     * and the fallback to the original query would fail too.
+     *
+     * @return the cached PreparedStatement holder, or {@code null} if the query cannot be parameterized
+     * or prepared, in which case the query will be executed via the simple Statement
+     */
+    private StatementHolder autoParameterize(String sqlQuery) {
+        SqlParameterizer.Parameterized result = SqlParameterizer.parameterize(sqlQuery);
+        if (result == null)
+            return null;
+        try {
+            if (!autoParameterizer.getTarget().getAutoCommit())
+                return null;
+        } catch (SQLException e) {
+            logger.debug("Couldn't get the auto-commit mode of the connection", e);
+            return null;
+        }
+        String sql = result.getSql();
+        InListBucketer.Bucketed inLists = config.isInListBucketing() ? InListBucketer.bucket(sql) : null;
+        if (inLists != null)
+            sql = inLists.getSql();
+
+        StatementHolder holder;
+        try {
+            holder = autoParameterizer.getCachedStatement(PREPARE_STATEMENT, new Object[] {sql});
+        } catch (SQLException e) {
+            logger.debug("Couldn't prepare the parameterized {}", sql, e);
+            return null;
+        }
+
+        PreparedStatement pStatement = (PreparedStatement) holder.rawStatement();
+        try {
+            Object[] parameters = result.getParameters();
+            for (int i = 1; i <= parameters.length; i++) {
+                int index = inLists != null ? inLists.parameterIndex(i) : i;
+                int padding = inLists != null ? inLists.padding(i) : 0;
+                for (int j = index; j <= index + padding; j++)
+                    setParameter(pStatement, j, parameters[i - 1]);
+            }
+            return holder;
+        } catch (SQLException e) {
+            logger.debug("Couldn't set the parameters of {}", sql, e);
+            restore(holder);
+            return null;
+        }
+    }
+
+    private static void setParameter(PreparedStatement pStatement, int index, Object parameter) throws SQLException {
+        if (parameter instanceof Long)
+            pStatement.setLong(index, (Long) parameter);
+        else
+            pStatement.setBigDecimal(index, (BigDecimal) parameter);
+    }
+
+    private void restoreParameterized() {
+        StatementHolder current = parameterized;
+        if (current != null) {
+            parameterized = null;
+            restore(current);
+        }
+    }
+
+    private void restore(StatementHolder holder) {
+        if (!config.getStatementCache().restore(holder, config.isClearSQLWarnings()))
+            quietClose(holder.rawStatement());
+    }
+
     private void prepareForNextExecution() {
         if (sqlQueryParams != null)
             sqlQueryParams.clear();
@@ -196,6 +427,10 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
     }
 
     private Object doProcessExecute(Statement proxy, Method method, Object[] args) throws SQLException {
+        StatementHolder current = parameterized;
+        if (current != null)
+            return doProcessParameterizedExecute(proxy, method, args, current);
+
         // executeQuery result has to be proxied so that when getStatement() is called
         // on its result the return value to be the current JDBC Statement proxy.
         if (method.getName() == "executeQuery") // *1
@@ -203,4 +438,68 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
 
         return targetInvoke(method, args); // the real "execute..." call
     }
+
+    /**
+     * Executes the auto-parameterized PreparedStatement, and if this fails, falls back to executing the original
+     * SQL query via the simple Statement. The auto-commit is on, hence the failed execution does not affect
+     * the fallback one. The failure is passed to the exceptions collector in either case.
+     */
+    private Object doProcessParameterizedExecute(Statement proxy, Method method, Object[] args, StatementHolder current)
+            throws SQLException {
+        PreparedStatement pStatement = (PreparedStatement) current.rawStatement();
+        try {
+            if (method.getName() == "executeQuery") // the result's getStatement() is the simple Statement proxy
+                return addResultSet(newProxyResultSet(pStatement.executeQuery(), proxy, statement.getSqlQuery(),
+                        sqlQueryParams, config, this));
+            return pStatement.executeUpdate();
+        } catch (SQLException e) {
+            logger.debug("Couldn't execute the parameterized {}, falling back to the original query",
+                    statement.getSqlQuery(), e);
+            autoParameterizer.addException(e);
+            config.getStatementCache().remove(current);
+            restoreParameterized();
+            try {
+                return doProcessExecute(proxy, method, args);
+            } catch (SQLException fallbackException) {
+                fallbackException.addSuppressed(e);
+                throw fallbackException;
+            }
+        }
+    }
+
+    /**
+     * Forwards the given result accessor call to the auto-parameterized PreparedStatement which executed the
+     * current query, as the simple Statement itself has no results.
+     */
+    private Object processParameterizedResults(Statement proxy, Method method, Object[] args,
+                                               PreparedStatement pStatement) throws SQLException {
+        String methodName = method.getName();
+        try {
+            if (methodName == "getResultSet")
+                return addResultSet(newProxyResultSet(pStatement.getResultSet(), proxy, statement.getSqlQuery(),
+                        sqlQueryParams, config, this));
+            if (methodName == "getUpdateCount")
+                return pStatement.getUpdateCount();
+            if (methodName == "getWarnings")
+                return pStatement.getWarnings();
+            if (methodName == "clearWarnings") {
+                pStatement.clearWarnings();
+                return null;
+            }
+
+            if (args == null || args.length == 0) {
+                quietClose(currentResultSets.pollLast());
+                return pStatement.getMoreResults();
+            }
+            int current = (Integer) args[0];
+            if (current == Statement.CLOSE_CURRENT_RESULT)
+                quietClose(currentResultSets.pollLast());
+            else if (current == Statement.CLOSE_ALL_RESULTS)
+                closeAllResultSets();
+            return pStatement.getMoreResults(current);
+        } catch (SQLException e) {
+            autoParameterizer.addException(e);
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnHolder;
+import org.vibur.dbcp.stcache.StatementHolder.State;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.vibur.dbcp.stcache.StatementHolder.State.*;
+import static org.vibur.dbcp.util.JdbcUtils.clearWarnings;
+import static org.vibur.dbcp.util.JdbcUtils.quietClose;
+
+/**
+ * The common base of the built-in statement cache implementations. Implements the restoring of statements
+ * in the cache and keeps the cache {@link StatementCacheStats}.
+ *
+ * @author Simeon Malchev
+ */
+public abstract class AbstractStatementCache implements StatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractStatementCache.class);
+
+    private final StatementCacheStats stats = new StatementCacheStats();
+    private volatile StatementCloser statementCloser = null;
+
+    private volatile int epoch = 0; // the idle epoch, advanced only by the StatementCacheSweeper
+    private volatile int maxIdleEpochs = 0; // 0 means that the idle statements do not expire
+
+    public StatementCacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets the background closer of the evicted statements. If not set, the evicted statements are closed
+     * by the thread which evicts them.
+     */
+    public void setStatementCloser(StatementCloser statementCloser) {
+        this.statementCloser = statementCloser;
+    }
+
+    @Override
+    public boolean restore(StatementHolder statement, boolean clearWarnings) {
+        if (isClosed()) {
+            remove(statement);
+            return false;
+        }
+        if (statement.state() == null) // this statement is not in the cache
+            return false;
+
+        PreparedStatement rawStatement = (PreparedStatement) statement.rawStatement();
+        try {
+            if (clearWarnings)
+                clearWarnings(rawStatement);
+            return statement.state().compareAndSet(IN_USE, AVAILABLE); // we just mark it as AVAILABLE if it was IN_USE
+        } catch (SQLException e) {
+            logger.debug("Couldn't clear warnings on {}", rawStatement, e);
+            remove(statement);
+            return false;
+        }
+    }
+
+    /**
+     * Returns up to {@code maxCount} of the most frequently used statements cached for the given connection,
+     * in descending order of their use counts. Used for the warm-up of a replacement connection, and should be
+     * called only while the connection is not in use.
+     *
+     * @param connHolder the connection holder
+     * @param maxCount the maximum number of statements to return
+     * @return the statement methods (cache keys) of the most frequently used statements
+     */
+    public final List<StatementMethod> getHottestStatements(ConnHolder connHolder, int maxCount) {
+        List<StatementHolder> statements = new ArrayList<>();
+        for (StatementHolder statement : getCachedStatements(connHolder)) {
+            if (statement.statementMethod() != null && statement.state().get() != EVICTED)
+                statements.add(statement);
+        }
+        Collections.sort(statements, new Comparator<StatementHolder>() {
+            @Override
+            public int compare(StatementHolder s1, StatementHolder s2) {
+                return s1.useCount() < s2.useCount() ? 1 : s1.useCount() > s2.useCount() ? -1 : 0;
+            }
+        });
+
+        List<StatementMethod> result = new ArrayList<>(Math.min(maxCount, statements.size()));
+        for (int i = 0; i < statements.size() && i < maxCount; i++)
+            result.add(statements.get(i).statementMethod());
+        return result;
+    }
+
+    /**
+     * Returns the statements currently cached for the given connection.
+     */
+    protected abstract Collection<StatementHolder> getCachedStatements(ConnHolder connHolder);
+
+    /**
+     * Returns the statements currently cached for all connections, or only a part of them if the cache
+     * cannot safely enumerate its statements from a thread different than the ones using the connections.
+     * Called periodically when the persistent statement cache warm-up is enabled.
+     */
+    protected abstract Collection<StatementHolder> getCachedStatements();
+
+    /**
+     * Records a use of the given cached statement; must be called whenever a cached statement is taken.
+     */
+    final void recordUse(StatementHolder statement) {
+        statement.recordUse(epoch);
+    }
+
+    /**
+     * Returns true if the given cached statement has not been used for more than the idle TTL.
+     */
+    final boolean isExpired(StatementHolder statement) {
+        int max = maxIdleEpochs;
+        return max > 0 && epoch - statement.lastUseEpoch() > max;
+    }
+
+    /**
+     * Advances the idle epoch of this cache and removes the AVAILABLE statements which have not been used during
+     * the last {@code maxIdleEpochs} epochs. Only the statements returned by {@link #getCachedStatements()}
+     * are removed here; a cache which cannot enumerate all of its statements should check {@link #isExpired}
+     * on its own. Called periodically by the {@link StatementCacheSweeper}.
+     *
+     * @param maxIdleEpochs the number of epochs after which an unused statement expires
+     * @return the number of removed statements
+     */
+    public final int expireIdle(int maxIdleEpochs) {
+        this.maxIdleEpochs = maxIdleEpochs;
+        epoch++; // there is only one writer thread
+        int expired = 0;
+        for (StatementHolder statement : getCachedStatements()) {
+            if (statement.state().get() == AVAILABLE && isExpired(statement) && remove(statement)) {
+                stats.recordEviction();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Marks the given cached {@code statement} as EVICTED and closes it if it was AVAILABLE. If {@code closeInUse}
+     * is {@code true} closes it if it was IN_USE, too. If a {@link StatementCloser} is set, the AVAILABLE statements
+     * are closed by it in the background, unless {@code closeInUse} is {@code true}, which is the case when
+     * the statement's connection is being destroyed or the cache is being closed.
+     *
+     * @return 1 if the statement was not EVICTED before, 0 otherwise
+     */
+    final int evict(StatementHolder statement, boolean closeInUse) {
+        State state = statement.state().getAndSet(EVICTED);
+        if (state == AVAILABLE || (closeInUse && state == IN_USE)) {
+            StatementCloser closer = statementCloser;
+            if (closeInUse || closer == null || !closer.closeLater(statement)) {
+                quietClose(statement.rawStatement());
+                stats.recordClose();
+            }
+        }
+        return state != EVICTED ? 1 : 0;
+    }
+
+    /**
+     * Creates a new StatementHolder for the given {@code statementMethod} which is not included in the cache.
+     */
+    static StatementHolder uncached(StatementMethod statementMethod) throws SQLException {
+        return new StatementHolder(statementMethod.newStatement(), null, statementMethod.sqlQuery());
+    }
+}
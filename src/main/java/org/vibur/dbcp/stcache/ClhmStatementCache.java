@@ -18,63 +18,132 @@ package org.vibur.dbcp.stcache;
 
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnHolder;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static java.util.Objects.requireNonNull;
 import static org.vibur.dbcp.stcache.StatementHolder.State.*;
-import static org.vibur.dbcp.util.JdbcUtils.clearWarnings;
-import static org.vibur.dbcp.util.JdbcUtils.quietClose;
 import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
 
 /**
  * Implements and encapsulates all JDBC Statement caching functionality and logic. The cache implementation is
  * based on {@link ConcurrentLinkedHashMap}.
  *
+ * <p>Each cache entry can hold up to {@code maxInstancesPerKey} cached instances of the same statement, each of
+ * them with its own AVAILABLE/IN_USE state, so that when the same SQL is prepared again on a connection while
+ * its first instance is still in use (for example, in nested DAO calls) the call can still be served from
+ * the cache. The entry's weight is the number of its cached instances, and the total weight of all entries
+ * is bounded by the cache {@code maxSize}.
+ *
+ * <p>If a {@code maxBytes} budget is given, the entry's weight is instead the estimated memory footprint of its
+ * cached instances, i.e. {@link #ESTIMATED_STATEMENT_FOOTPRINT} plus two bytes per SQL query character for each
+ * instance, and the total weight of all entries is bounded by the {@code maxBytes}.
+ *
  * @author Simeon Malchev
  */
-public class ClhmStatementCache implements StatementCache {
+public class ClhmStatementCache extends AbstractStatementCache {
 
     private static final Logger logger = LoggerFactory.getLogger(ClhmStatementCache.class);
 
+    public static final int DEFAULT_MAX_INSTANCES_PER_KEY = 4;
+    /** The estimated memory footprint in bytes of a prepared statement in the JDBC driver, excluding its SQL. */
+    public static final int ESTIMATED_STATEMENT_FOOTPRINT = 2048;
+
+    private final int maxInstancesPerKey;
+    private final long maxBytes; // 0 means that the entries are weighed by their number of instances
     private final ConcurrentMap<StatementMethod, StatementHolder> statementCache;
+    private final ConnectionIndex connectionIndex = new ConnectionIndex();
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public ClhmStatementCache(int maxSize) {
+        this(maxSize, DEFAULT_MAX_INSTANCES_PER_KEY);
+    }
+
+    public ClhmStatementCache(int maxSize, int maxInstancesPerKey) {
+        this(maxSize, maxInstancesPerKey, 0);
+    }
+
+    /**
+     * Creates a new ClhmStatementCache which total weight is bounded by the estimated memory footprint
+     * of its statements if {@code maxBytes} is greater than {@code 0}, and by their number otherwise.
+     *
+     * @param maxSize the maximum number of statements, used as the initial capacity if {@code maxBytes} is given
+     * @param maxInstancesPerKey the maximum number of cached instances of the same statement
+     * @param maxBytes the memory budget in bytes, or {@code 0}
+     */
+    public ClhmStatementCache(int maxSize, int maxInstancesPerKey, long maxBytes) {
         forbidIllegalArgument(maxSize <= 0);
+        forbidIllegalArgument(maxInstancesPerKey <= 0);
+        forbidIllegalArgument(maxBytes < 0);
+        this.maxInstancesPerKey = maxInstancesPerKey;
+        this.maxBytes = maxBytes;
         statementCache = requireNonNull(buildStatementCache(maxSize));
     }
 
     protected ConcurrentMap<StatementMethod, StatementHolder> buildStatementCache(int maxSize) {
         return new ConcurrentLinkedHashMap.Builder<StatementMethod, StatementHolder>()
                 .initialCapacity(maxSize)
-                .maximumWeightedCapacity(maxSize)
+                .maximumWeightedCapacity(maxBytes > 0 ? maxBytes : maxSize)
+                .weigher(getWeigher(maxBytes > 0))
                 .listener(getListener())
                 .build();
     }
 
+    /**
+     * Creates and returns a new Weigher for the CLHM, which weighs each cache entry as the number of
+     * its currently cached statement instances, multiplied by their estimated memory footprint if {@code inBytes}
+     * is {@code true}. The weight of an entry is recalculated when it is replaced with itself via {@link #reweigh}.
+     *
+     * @return a new Weigher for the CLHM
+     */
+    private static Weigher<StatementHolder> getWeigher(final boolean inBytes) {
+        return new Weigher<StatementHolder>() {
+            @Override
+            public int weightOf(StatementHolder head) {
+                int count = 1;
+                AtomicReferenceArray<StatementHolder> instances = head.instances();
+                if (instances != null) {
+                    for (int i = 0; i < instances.length(); i++) {
+                        if (instances.get(i) != null)
+                            count++;
+                    }
+                }
+                if (!inBytes)
+                    return count;
+                String sqlQuery = head.getSqlQuery();
+                long footprint = ESTIMATED_STATEMENT_FOOTPRINT + 2L * (sqlQuery != null ? sqlQuery.length() : 0);
+                return (int) Math.min(count * footprint, Integer.MAX_VALUE);
+            }
+        };
+    }
+
     /**
      * Creates and returns a new EvictionListener for the CLHM. It is worth noting that this
      * EvictionListener is called in the context of the thread that has executed an insert (putIfAbsent)
-     * operation which has increased the CLHM size above its maxSize - in which case the CLHM
-     * evicts its LRU entry.
+     * or a replace operation which has increased the CLHM weighted size above its maxSize - in which case
+     * the CLHM evicts its LRU entries.
      *
      * @return a new EvictionListener for the CLHM
      */
-    private static EvictionListener<StatementMethod, StatementHolder> getListener() {
+    private EvictionListener<StatementMethod, StatementHolder> getListener() {
         return new EvictionListener<StatementMethod, StatementHolder>() {
             @Override
             public void onEviction(StatementMethod statementMethod, StatementHolder statementHolder) {
-                if (statementHolder.state().getAndSet(EVICTED) == AVAILABLE)
-                    quietClose(statementHolder.rawStatement());
+                connectionIndex.remove(statementHolder);
+                evictAll(statementHolder, false);
+                getStats().recordEviction();
                 if (logger.isTraceEnabled())
                     logger.trace("Evicted {}", statementHolder.rawStatement());
             }
@@ -84,76 +153,156 @@ public class ClhmStatementCache implements StatementCache {
     @Override
     public StatementHolder take(StatementMethod statementMethod) throws SQLException {
         if (isClosed())
-            return new StatementHolder(statementMethod.newStatement(), null, statementMethod.sqlQuery());
+            return uncached(statementMethod);
 
         StatementHolder statement = statementCache.get(statementMethod);
         if (statement != null) {
             if (statement.state().compareAndSet(AVAILABLE, IN_USE)) {
                 if (logger.isTraceEnabled())
                     logger.trace("Using cached statement for {}", statementMethod);
+                getStats().recordHit(statementMethod.sqlQuery());
+                recordUse(statement);
                 return statement;
             }
-            // if the statement in the cache was not available we return an uncached StatementHolder
-            return new StatementHolder(statementMethod.newStatement(), null, statementMethod.sqlQuery());
+            // the head statement in the cache was not available, so we'll try its additional instances
+            return takeInstance(statementMethod, statement);
         }
 
         // there was no cache entry for the statementMethod, so we'll try to put a new one
+        getStats().recordMiss(statementMethod.sqlQuery());
         PreparedStatement rawStatement = statementMethod.newStatement();
-        statement = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE), statementMethod.sqlQuery());
-        if (statementCache.putIfAbsent(statementMethod, statement) == null)
+        AtomicReferenceArray<StatementHolder> instances =
+                maxInstancesPerKey > 1 ? new AtomicReferenceArray<StatementHolder>(maxInstancesPerKey - 1) : null;
+        statement = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE), statementMethod.sqlQuery(),
+                statementMethod, instances, null);
+        connectionIndex.add(statement); // before the put, so that a concurrent eviction will find it
+        if (statementCache.putIfAbsent(statementMethod, statement) == null) {
+            recordUse(statement);
             return statement; // the new entry was successfully put in the cache, so we return it
+        }
+        connectionIndex.remove(statement);
         // if we couldn't put the statement in the cache we return an uncached StatementHolder
         return new StatementHolder(rawStatement, null, statementMethod.sqlQuery());
     }
 
-    @Override
-    public boolean restore(StatementHolder statement, boolean clearWarnings) {
-        if (isClosed()) {
-            remove(statement);
-            return false;
-        }
-        if (statement.state() == null) // this statement is not in the cache
-            return false;
+    private StatementHolder takeInstance(StatementMethod statementMethod, StatementHolder head) throws SQLException {
+        AtomicReferenceArray<StatementHolder> instances = head.instances();
+        if (instances != null) {
+            for (int i = 0; i < instances.length(); i++) {
+                StatementHolder instance = instances.get(i);
+                if (instance != null && instance.state().compareAndSet(AVAILABLE, IN_USE)) {
+                    if (logger.isTraceEnabled())
+                        logger.trace("Using cached statement instance {} for {}", i + 1, statementMethod);
+                    getStats().recordHit(statementMethod.sqlQuery());
+                    recordUse(head);
+                    return instance;
+                }
+            }
 
-        PreparedStatement rawStatement = (PreparedStatement) statement.rawStatement();
-        try {
-            if (clearWarnings)
-                clearWarnings(rawStatement);
-            return statement.state().compareAndSet(IN_USE, AVAILABLE); // we just mark it as AVAILABLE if it was IN_USE
-        } catch (SQLException e) {
-            logger.debug("Couldn't clear warnings on {}", rawStatement, e);
-            remove(statement);
-            return false;
+            for (int i = 0; i < instances.length(); i++) {
+                if (instances.get(i) != null)
+                    continue;
+
+                getStats().recordMiss(statementMethod.sqlQuery());
+                PreparedStatement rawStatement = statementMethod.newStatement();
+                StatementHolder instance = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE),
+                        statementMethod.sqlQuery(), head.statementMethod(), null, head);
+                if (!instances.compareAndSet(i, null, instance)) // we lost a race for the empty slot
+                    return new StatementHolder(rawStatement, null, statementMethod.sqlQuery());
+
+                reweigh(head);
+                if (head.state().get() == EVICTED) // the whole entry was concurrently evicted or removed
+                    instance.state().set(EVICTED); // so that it will be closed when restored
+                recordUse(head);
+                return instance;
+            }
         }
+
+        // if all cached instances were in use we return an uncached StatementHolder
+        getStats().recordContention(statementMethod.sqlQuery());
+        return uncached(statementMethod);
     }
 
+    /**
+     * Recalculates the weight of the cache entry for the given {@code head} statement after the number
+     * of its additional cached instances has changed. The CLHM recalculates the weight on replace.
+     */
+    private void reweigh(StatementHolder head) {
+        statementCache.replace(head.statementMethod(), head, head);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The removed statement is marked as EVICTED, so that it will not be restored in the cache later.
+     * If the removed statement is the head instance of its cache entry, the whole entry is removed and its
+     * additional instances which are AVAILABLE are closed.
+     */
     @Override
     public boolean remove(StatementHolder statement) {
-        if (statement.state() == null) // this statement is not in the cache
+        StatementMethod statementMethod = statement.statementMethod();
+        if (statement.state() == null || statementMethod == null) // this statement is not in the cache
             return false;
 
-        for (Map.Entry<StatementMethod, StatementHolder> entry : statementCache.entrySet()) {
-            StatementHolder value = entry.getValue();
-            if (value == statement) // comparing with == as these JDBC Statements are cached objects
-                return statementCache.remove(entry.getKey(), value);
+        StatementHolder head = statement.head();
+        if (head != null) { // this is an additional instance
+            AtomicReferenceArray<StatementHolder> instances = head.instances();
+            for (int i = 0; i < instances.length(); i++) {
+                if (instances.compareAndSet(i, statement, null)) {
+                    statement.state().set(EVICTED);
+                    reweigh(head);
+                    return true;
+                }
+            }
+            return false;
         }
-        return false;
+
+        if (!statementCache.remove(statementMethod, statement))
+            return false;
+        connectionIndex.remove(statement);
+        evictAll(statement, false);
+        return true;
     }
 
     @Override
     public int removeAll(Connection rawConnection) {
         int removed = 0;
-        for (Map.Entry<StatementMethod, StatementHolder> entry : statementCache.entrySet()) {
-            StatementMethod key = entry.getKey();
-            StatementHolder value = entry.getValue();
-            if (key.rawConnection() == rawConnection && statementCache.remove(key, value)) {
-                quietClose(value.rawStatement());
-                removed++;
-            }
+        for (StatementHolder statement : connectionIndex.removeAll(rawConnection)) {
+            if (statementCache.remove(statement.statementMethod(), statement))
+                removed += evictAll(statement, true);
         }
         return removed;
     }
 
+    @Override
+    protected Collection<StatementHolder> getCachedStatements(ConnHolder connHolder) {
+        return connectionIndex.get(connHolder.rawConnection());
+    }
+
+    @Override
+    protected Collection<StatementHolder> getCachedStatements() {
+        return statementCache.values(); // the head statements only, which keep the use counts for their keys
+    }
+
+    /**
+     * Marks as EVICTED the given {@code head} statement and all of its additional instances, and closes
+     * the ones which were AVAILABLE. If {@code closeInUse} is {@code true} closes the ones which were IN_USE, too.
+     *
+     * @return the number of evicted statement instances
+     */
+    private int evictAll(StatementHolder head, boolean closeInUse) {
+        int evicted = evict(head, closeInUse);
+        AtomicReferenceArray<StatementHolder> instances = head.instances();
+        if (instances != null) {
+            for (int i = 0; i < instances.length(); i++) {
+                StatementHolder instance = instances.getAndSet(i, null);
+                if (instance != null)
+                    evicted += evict(instance, closeInUse);
+            }
+        }
+        return evicted;
+    }
+
     /**
      * Closes this ClhmStatementCache and removes all entries from it.
      */
@@ -165,8 +314,9 @@ public class ClhmStatementCache implements StatementCache {
         for (Map.Entry<StatementMethod, StatementHolder> entry : statementCache.entrySet()) {
             StatementHolder value = entry.getValue();
             statementCache.remove(entry.getKey(), value);
-            quietClose(value.rawStatement());
+            evictAll(value, true);
         }
+        connectionIndex.clear();
     }
 
     @Override
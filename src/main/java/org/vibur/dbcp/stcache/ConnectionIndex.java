@@ -0,0 +1,74 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Collections.newSetFromMap;
+
+/**
+ * A secondary index of the cached statements per raw connection, used by the statement cache implementations
+ * for the fast removal of all statements of a connection when it is destroyed.
+ *
+ * @author Simeon Malchev
+ */
+final class ConnectionIndex {
+
+    private final ConcurrentMap<Connection, Set<StatementHolder>> connectionStatements = new ConcurrentHashMap<>();
+
+    void add(StatementHolder statement) {
+        Connection rawConnection = statement.statementMethod().rawConnection();
+        Set<StatementHolder> statements = connectionStatements.get(rawConnection);
+        if (statements == null) {
+            Set<StatementHolder> newStatements = newSetFromMap(new ConcurrentHashMap<StatementHolder, Boolean>());
+            statements = connectionStatements.putIfAbsent(rawConnection, newStatements);
+            if (statements == null)
+                statements = newStatements;
+        }
+        statements.add(statement);
+    }
+
+    void remove(StatementHolder statement) {
+        Set<StatementHolder> statements = connectionStatements.get(statement.statementMethod().rawConnection());
+        if (statements != null)
+            statements.remove(statement);
+    }
+
+    /**
+     * Returns all indexed statements for the given {@code rawConnection}.
+     */
+    Set<StatementHolder> get(Connection rawConnection) {
+        Set<StatementHolder> statements = connectionStatements.get(rawConnection);
+        return statements != null ? statements : Collections.<StatementHolder>emptySet();
+    }
+
+    /**
+     * Removes and returns all indexed statements for the given {@code rawConnection}.
+     */
+    Set<StatementHolder> removeAll(Connection rawConnection) {
+        Set<StatementHolder> statements = connectionStatements.remove(rawConnection);
+        return statements != null ? statements : Collections.<StatementHolder>emptySet();
+    }
+
+    void clear() {
+        connectionStatements.clear();
+    }
+}
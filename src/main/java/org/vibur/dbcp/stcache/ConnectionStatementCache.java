@@ -0,0 +1,232 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnHolder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.vibur.dbcp.stcache.StatementHolder.State.*;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A per-connection JDBC Statement cache. Each pooled connection keeps its own LRU cache of statements in its
+ * {@link ConnHolder}, see {@link LocalStatementCache}, and because a pooled connection is used by only one
+ * thread at a time, the statement lookups do not contend on any data structure shared by all connections.
+ * The statements of a destroyed connection are removed in O(1) time relative to the total number
+ * of cached statements.
+ *
+ * <p>The {@code maxSize} is a global budget for the total number of statements cached across all connections.
+ * All cached statements are also kept in a concurrent set which is updated only on cache misses and evictions.
+ * When a connection needs to cache a new statement and the budget is exhausted, the coldest AVAILABLE statement
+ * among a small round-robin sample of this set is evicted, regardless of which connection it belongs to.
+ * The coldness is determined by the eviction tick of the statement's last use, and then by its use count.
+ * The total size may temporarily exceed the {@code maxSize} when all sampled statements are in use.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionStatementCache extends AbstractStatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionStatementCache.class);
+
+    static final int EVICTION_SAMPLE_SIZE = 8;
+
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // all cached statements across all connections, excluding the EVICTED ones
+    private final Set<StatementHolder> statements =
+            Collections.newSetFromMap(new ConcurrentHashMap<StatementHolder, Boolean>());
+
+    private final Object evictionLock = new Object();
+    private Iterator<StatementHolder> evictionCursor = null; // guarded by evictionLock
+    private volatile int tick = 0; // advanced on each eviction, written only under evictionLock
+
+    public ConnectionStatementCache(int maxSize) {
+        forbidIllegalArgument(maxSize <= 0);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public StatementHolder take(StatementMethod statementMethod) throws SQLException {
+        ConnHolder connHolder = statementMethod.connHolder();
+        if (isClosed() || connHolder == null)
+            return uncached(statementMethod);
+
+        LocalStatementCache localCache = connHolder.getLocalStatementCache();
+        if (localCache == null) {
+            localCache = new LocalStatementCache(this);
+            connHolder.setLocalStatementCache(localCache);
+        }
+
+        StatementHolder statement = localCache.get(statementMethod);
+        if (statement != null) {
+            if (statement.state().compareAndSet(AVAILABLE, IN_USE)) {
+                if (logger.isTraceEnabled())
+                    logger.trace("Using cached statement for {}", statementMethod);
+                getStats().recordHit(statementMethod.sqlQuery());
+                recordUse(statement);
+                statement.recordUseTick(tick);
+                return statement;
+            }
+            // the same statement is already open on this connection, so we return an uncached StatementHolder
+            getStats().recordContention(statementMethod.sqlQuery());
+            return uncached(statementMethod);
+        }
+
+        getStats().recordMiss(statementMethod.sqlQuery());
+        PreparedStatement rawStatement = statementMethod.newStatement();
+        localCache.purgeEvicted();
+        localCache.expireIdle(); // the StatementCacheSweeper expires only the AVAILABLE statements
+        while (size.get() >= maxSize && evictColdest()) {
+            // making room for the new statement by evicting the coldest statements across all connections
+        }
+        statement = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE), statementMethod.sqlQuery(),
+                statementMethod);
+        recordUse(statement);
+        statement.recordUseTick(tick);
+        localCache.put(statementMethod, statement);
+        statements.add(statement);
+        size.incrementAndGet();
+        if (isClosed()) // closed concurrently, the statement will be closed when its proxy is closed
+            evictCached(statement, false);
+        return statement;
+    }
+
+    /**
+     * Evicts the coldest AVAILABLE statement among the next {@link #EVICTION_SAMPLE_SIZE} cached statements,
+     * which are visited in a round-robin order.
+     *
+     * @return true if a statement was evicted
+     */
+    private boolean evictColdest() {
+        StatementHolder coldest = null;
+        synchronized (evictionLock) {
+            tick++;
+            for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+                if (evictionCursor == null || !evictionCursor.hasNext()) {
+                    evictionCursor = statements.iterator();
+                    if (!evictionCursor.hasNext())
+                        break;
+                }
+                StatementHolder statement = evictionCursor.next();
+                if (statement.state().get() == AVAILABLE && (coldest == null || isColder(statement, coldest)))
+                    coldest = statement;
+            }
+        }
+        if (coldest == null || evictCached(coldest, false) == 0)
+            return false;
+
+        getStats().recordEviction();
+        return true;
+    }
+
+    private static boolean isColder(StatementHolder statement, StatementHolder other) {
+        int diff = statement.lastUseTick() - other.lastUseTick();
+        return diff < 0 || (diff == 0 && statement.useCount() < other.useCount());
+    }
+
+    /**
+     * Evicts the given cached statement, see {@link #evict}, and if the statement was not EVICTED before, removes
+     * it from the set of all cached statements and from the cache size. The entry is dropped from the statement's
+     * per-connection cache by the thread which uses the connection, on its next cache miss or access of this entry.
+     *
+     * @return 1 if the statement was not EVICTED before, 0 otherwise
+     */
+    int evictCached(StatementHolder statement, boolean closeInUse) {
+        if (evict(statement, closeInUse) == 0)
+            return 0;
+
+        statements.remove(statement);
+        size.decrementAndGet();
+        LocalStatementCache localCache = statement.statementMethod().connHolder().getLocalStatementCache();
+        if (localCache != null)
+            localCache.recordEvicted();
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This method may be called from a thread different than the one which uses the statement's connection,
+     * hence the entry is dropped from the per-connection cache on its next access, see {@link #evictCached}.
+     */
+    @Override
+    public boolean remove(StatementHolder statement) {
+        if (statement.state() == null) // this statement is not in the cache
+            return false;
+        return evictCached(statement, false) > 0;
+    }
+
+    /**
+     * Always returns {@code 0}, as the per-connection statements are removed via
+     * {@link LocalStatementCache#removeAll()} when the connection is destroyed.
+     */
+    @Override
+    public int removeAll(Connection rawConnection) {
+        return 0;
+    }
+
+    @Override
+    protected Collection<StatementHolder> getCachedStatements(ConnHolder connHolder) {
+        LocalStatementCache localCache = connHolder.getLocalStatementCache();
+        return localCache != null ? localCache.statements() : Collections.<StatementHolder>emptyList();
+    }
+
+    @Override
+    protected Collection<StatementHolder> getCachedStatements() {
+        return statements;
+    }
+
+    /**
+     * Closes this ConnectionStatementCache. After that, no new statements will be cached, the AVAILABLE cached
+     * statements of all connections are closed, and the statements which are in use will be closed when they
+     * are restored.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+        for (StatementHolder statement : statements)
+            evictCached(statement, false);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Returns the current total number of statements cached across all connections.
+     */
+    public int size() {
+        return size.get();
+    }
+}
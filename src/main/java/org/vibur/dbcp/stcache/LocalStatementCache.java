@@ -0,0 +1,125 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.vibur.dbcp.stcache.StatementHolder.State.EVICTED;
+
+/**
+ * The LRU cache of statements of a single pooled connection, used by the {@link ConnectionStatementCache}.
+ * The instances of this class are attached to the connection's {@link org.vibur.dbcp.pool.ConnHolder ConnHolder}
+ * and are <b>not</b> thread-safe. They rely on the fact that a pooled connection is used by only one thread
+ * at a time, and on the happens-before relation established by the pool when a connection is taken or restored.
+ * The only operations which may come from other threads are the evictions of statements by the owning
+ * {@link ConnectionStatementCache}, upon {@code Statement.cancel()}, or when the global cache budget is exhausted;
+ * they only mark the statement's state as EVICTED, and the entry is dropped by the owning thread on its next
+ * access, or on its next cache miss.
+ *
+ * @author Simeon Malchev
+ */
+public final class LocalStatementCache {
+
+    private final ConnectionStatementCache owner;
+    private final LinkedHashMap<StatementMethod, StatementHolder> statements =
+            new LinkedHashMap<>(16, 0.75f, true); // in access order
+    private final AtomicInteger evicted = new AtomicInteger(0); // the EVICTED entries still in the statements map
+
+    LocalStatementCache(ConnectionStatementCache owner) {
+        this.owner = owner;
+    }
+
+    StatementHolder get(StatementMethod statementMethod) {
+        StatementHolder statement = statements.get(statementMethod);
+        if (statement != null && statement.state().get() == EVICTED) {
+            statements.remove(statementMethod);
+            evicted.decrementAndGet();
+            return null;
+        }
+        return statement;
+    }
+
+    void put(StatementMethod statementMethod, StatementHolder statement) {
+        statements.put(statementMethod, statement);
+    }
+
+    /**
+     * Records that one of the statements of this connection was evicted by the owning cache.
+     */
+    void recordEvicted() {
+        evicted.incrementAndGet();
+    }
+
+    /**
+     * Drops the entries of the statements of this connection which were evicted by the owning cache.
+     */
+    void purgeEvicted() {
+        if (evicted.get() == 0)
+            return;
+
+        Iterator<StatementHolder> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().state().get() == EVICTED) {
+                iterator.remove();
+                evicted.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used statements of this connection which have not been used
+     * for more than the idle TTL, if it is enabled.
+     */
+    void expireIdle() {
+        Iterator<StatementHolder> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            StatementHolder statement = iterator.next();
+            if (!owner.isExpired(statement))
+                break; // the statements are in access order, so the remaining ones are not expired, too
+            if (owner.evictCached(statement, false) > 0)
+                owner.getStats().recordEviction();
+            iterator.remove();
+            evicted.decrementAndGet();
+        }
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    Collection<StatementHolder> statements() {
+        return statements.values();
+    }
+
+    /**
+     * Removes and closes all statements of this connection. Called when the underlying raw connection is
+     * destroyed, i.e. when it is no longer used by any application thread.
+     *
+     * @return the number of removed statements
+     */
+    public int removeAll() {
+        int removed = 0;
+        for (StatementHolder statement : statements.values())
+            removed += owner.evictCached(statement, true);
+        statements.clear();
+        evicted.set(0);
+        return removed;
+    }
+}
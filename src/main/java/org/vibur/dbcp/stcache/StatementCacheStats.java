@@ -0,0 +1,117 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.vibur.dbcp.util.StripedCounter;
+import org.vibur.dbcp.util.TopKCounter;
+
+import java.util.List;
+
+/**
+ * The statistics of a statement cache: the number of cache hits, misses, evictions, contentions (i.e. when
+ * an uncached statement was created because the cached one was in use), and of the statements closed by the cache,
+ * plus an approximate top list of SQL queries by their prepare and miss counts. All counters are striped
+ * in order to keep the recording cheap on the statement prepare path.
+ *
+ * @author Simeon Malchev
+ */
+public final class StatementCacheStats {
+
+    private static final int TOP_SQL_CAPACITY = 100; // the number of tracked SQL queries in each top list
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+    private final StripedCounter contentions = new StripedCounter();
+    private final StripedCounter closes = new StripedCounter();
+
+    private final TopKCounter<String> topPrepared = new TopKCounter<>(TOP_SQL_CAPACITY);
+    private final TopKCounter<String> topMissed = new TopKCounter<>(TOP_SQL_CAPACITY);
+
+    void recordHit(String sqlQuery) {
+        hits.increment();
+        topPrepared.add(sqlQuery);
+    }
+
+    void recordMiss(String sqlQuery) {
+        misses.increment();
+        topPrepared.add(sqlQuery);
+        topMissed.add(sqlQuery);
+    }
+
+    void recordContention(String sqlQuery) {
+        contentions.increment();
+        topPrepared.add(sqlQuery);
+        topMissed.add(sqlQuery);
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordClose() {
+        closes.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Returns the number of uncached statements created because the cached statement was in use. */
+    public long getContentions() {
+        return contentions.sum();
+    }
+
+    /** Returns the number of statements closed by the cache, i.e. on eviction, removal, or cache close. */
+    public long getCloses() {
+        return closes.sum();
+    }
+
+    /** Returns up to {@code n} SQL queries with the highest prepare counts. */
+    public List<TopKCounter.Entry<String>> getTopPrepared(int n) {
+        return topPrepared.top(n);
+    }
+
+    /** Returns up to {@code n} SQL queries with the highest miss counts, including the contentions. */
+    public List<TopKCounter.Entry<String>> getTopMissed(int n) {
+        return topMissed.top(n);
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        contentions.reset();
+        closes.reset();
+        topPrepared.reset();
+        topMissed.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "hits " + getHits() + ", misses " + getMisses() + ", evictions " + getEvictions()
+                + ", contentions " + getContentions() + ", closes " + getCloses();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.ViburUtils.newDaemonThreadFactory;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * Periodically removes from the statement cache the statements which have not been used for longer than
+ * the configured idle TTL, so that the statements which are never reused do not hold client and server side
+ * resources forever.
+ *
+ * <p>The TTL is tracked in coarse-grained epochs: the sweeper runs {@link #EPOCHS_PER_TTL} times per TTL and
+ * advances the cache idle epoch on each run, and a statement expires when it has not been used during the last
+ * {@code EPOCHS_PER_TTL} epochs. Thus, a statement is removed after being idle for between 1 and 1.25 TTLs,
+ * and recording a statement use costs only a plain field write.
+ *
+ * @author Simeon Malchev
+ */
+public final class StatementCacheSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementCacheSweeper.class);
+
+    static final int EPOCHS_PER_TTL = 4;
+
+    private final ScheduledExecutorService executor;
+
+    public StatementCacheSweeper(final AbstractStatementCache statementCache, int idleTtlInSeconds, String poolName) {
+        forbidIllegalArgument(idleTtlInSeconds <= 0);
+        final int period = Math.max(1, idleTtlInSeconds / EPOCHS_PER_TTL);
+        final int maxIdleEpochs = (idleTtlInSeconds + period - 1) / period;
+
+        executor = newSingleThreadScheduledExecutor(newDaemonThreadFactory("vibur-statement-sweeper-" + poolName));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int expired = statementCache.expireIdle(maxIdleEpochs);
+                    if (expired > 0)
+                        logger.debug("Removed {} idle statements", expired);
+                } catch (RuntimeException e) {
+                    logger.warn("Couldn't remove the idle statements", e);
+                }
+            }
+        }, period, period, SECONDS);
+    }
+
+    public void terminate() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnHolder;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.JdbcUtils.quietClose;
+import static org.vibur.dbcp.util.ViburUtils.newDaemonThreadFactory;
+
+/**
+ * Closes the evicted and removed cached statements in a background thread, so that the application threads
+ * which trigger the evictions do not pay for the statement closes, which on some JDBC drivers are
+ * network round trips.
+ *
+ * <p>The statements to be closed are queued per connection in the connection's {@link ConnHolder}, and each
+ * connection's queued statements are closed as one batch, only while the connection is idle in the pool. Each
+ * statement is closed while the connection is acquired via {@link ConnHolder#beginBackgroundUse()}, and the pool
+ * waits for this before handing the connection to an application thread, so that the raw connection is never
+ * used by two threads at the same time. The statements which are still queued when the connection is destroyed
+ * are closed synchronously by the destroying thread.
+ *
+ * @author Simeon Malchev
+ */
+public final class StatementCloser {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementCloser.class);
+
+    private final AbstractStatementCache statementCache;
+    private final ThreadPoolExecutor executor;
+    private final Set<ConnHolder> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<ConnHolder, Boolean>());
+
+    public StatementCloser(AbstractStatementCache statementCache, String poolName) {
+        this.statementCache = statementCache;
+        this.executor = new ThreadPoolExecutor(1, 1, 30, SECONDS, new LinkedBlockingQueue<Runnable>(),
+                newDaemonThreadFactory("vibur-statement-closer-" + poolName));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the given evicted statement to be closed in the background.
+     *
+     * @return false if the statement is not associated with a pooled connection and needs to be closed
+     * by the caller
+     */
+    boolean closeLater(StatementHolder statement) {
+        StatementMethod statementMethod = statement.statementMethod();
+        ConnHolder connHolder = statementMethod != null ? statementMethod.connHolder() : null;
+        if (connHolder == null)
+            return false;
+
+        connHolder.pendingCloses().offer(statement);
+        if (connHolder.isIdle())
+            schedule(connHolder);
+        return true;
+    }
+
+    /**
+     * Schedules the closing of the queued statements of the given connection, if any. Called when the connection
+     * is restored to the pool.
+     *
+     * @param connHolder the connection holder
+     */
+    public void closeLater(ConnHolder connHolder) {
+        if (!connHolder.pendingCloses().isEmpty())
+            schedule(connHolder);
+    }
+
+    private void schedule(ConnHolder connHolder) {
+        if (!scheduled.add(connHolder))
+            return; // a batch for this connection is already scheduled
+        try {
+            executor.execute(new CloseBatch(connHolder));
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(connHolder); // the statements will be closed when the connection is destroyed
+        }
+    }
+
+    /**
+     * Synchronously closes the queued statements of the given connection. Called when the connection is
+     * destroyed, after it is no longer used by any other thread.
+     *
+     * @param connHolder the connection holder
+     */
+    public void closeNow(ConnHolder connHolder) {
+        StatementHolder statement;
+        while ((statement = connHolder.pendingCloses().poll()) != null)
+            close(statement);
+    }
+
+    private void close(StatementHolder statement) {
+        quietClose(statement.rawStatement());
+        statementCache.getStats().recordClose();
+    }
+
+    public void terminate() {
+        executor.shutdown();
+    }
+
+    private final class CloseBatch implements Runnable {
+        private final ConnHolder connHolder;
+
+        private CloseBatch(ConnHolder connHolder) {
+            this.connHolder = connHolder;
+        }
+
+        @Override
+        public void run() {
+            scheduled.remove(connHolder);
+            int closed = 0;
+            Queue<StatementHolder> pendingCloses = connHolder.pendingCloses();
+            while (!pendingCloses.isEmpty()) {
+                if (!connHolder.beginBackgroundUse())
+                    break; // the batch will be rescheduled when the connection is restored to the pool
+                try {
+                    StatementHolder statement = pendingCloses.poll();
+                    if (statement != null) {
+                        close(statement);
+                        closed++;
+                    }
+                } finally {
+                    connHolder.endBackgroundUse();
+                }
+            }
+            if (closed > 0)
+                logger.debug("Closed {} statements on rawConnection {}", closed, connHolder.rawConnection());
+        }
+    }
+}
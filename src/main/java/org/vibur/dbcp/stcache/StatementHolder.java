@@ -18,6 +18,7 @@ package org.vibur.dbcp.stcache;
 
 import java.sql.Statement;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A thin wrapper around the raw JDBC {@code Statement} object which allows us to augment it with useful "state"
@@ -43,14 +44,36 @@ public class StatementHolder {
 
     private final Statement rawStatement; // the underlying raw JDBC Statement
     private final AtomicReference<State> state; // a null value means that this StatementHolder instance is not included in the cache
+    private final StatementMethod statementMethod; // the cache key of this StatementHolder, can be null
+
+    // the additional cached instances for the same cache key, non-null only for the head (main) instance
+    private final AtomicReferenceArray<StatementHolder> instances;
+    private final StatementHolder head; // non-null only for the additional cached instances
 
     private String sqlQuery;
+    private int useCount = 0; // approximate, used for the selection of the statements to warm up
+    private int lastUseEpoch; // the statement cache idle epoch of the last use, see StatementCacheSweeper
+    private int lastUseTick; // the eviction tick of the last use, see ConnectionStatementCache
 
     public StatementHolder(Statement rawStatement, AtomicReference<State> state, String sqlQuery) {
+        this(rawStatement, state, sqlQuery, null);
+    }
+
+    public StatementHolder(Statement rawStatement, AtomicReference<State> state, String sqlQuery,
+                           StatementMethod statementMethod) {
+        this(rawStatement, state, sqlQuery, statementMethod, null, null);
+    }
+
+    StatementHolder(Statement rawStatement, AtomicReference<State> state, String sqlQuery,
+                    StatementMethod statementMethod,
+                    AtomicReferenceArray<StatementHolder> instances, StatementHolder head) {
         assert rawStatement != null;
         this.rawStatement = rawStatement;
         this.state = state;
         this.sqlQuery = sqlQuery;
+        this.statementMethod = statementMethod;
+        this.instances = instances;
+        this.head = head;
     }
 
     public Statement rawStatement() {
@@ -61,6 +84,39 @@ public class StatementHolder {
         return state;
     }
 
+    public StatementMethod statementMethod() {
+        return statementMethod;
+    }
+
+    AtomicReferenceArray<StatementHolder> instances() {
+        return instances;
+    }
+
+    StatementHolder head() {
+        return head;
+    }
+
+    void recordUse(int epoch) {
+        useCount++;
+        lastUseEpoch = epoch;
+    }
+
+    int useCount() {
+        return useCount;
+    }
+
+    int lastUseEpoch() {
+        return lastUseEpoch;
+    }
+
+    void recordUseTick(int tick) {
+        lastUseTick = tick;
+    }
+
+    int lastUseTick() {
+        return lastUseTick;
+    }
+
     public String getSqlQuery() {
         return sqlQuery;
     }
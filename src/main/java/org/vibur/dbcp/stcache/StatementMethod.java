@@ -16,6 +16,8 @@
 
 package org.vibur.dbcp.stcache;
 
+import org.vibur.dbcp.pool.ConnHolder;
+
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -29,7 +31,9 @@ import static java.lang.String.format;
  * given JDBC Connection.
  *
  * <p>Used as a caching {@code key} for the above mentioned Connection method invocations in a {@code ConcurrentMap}
- * cache implementation.
+ * cache implementation. The key's hash code is computed once, and the key equality is checked by reference
+ * before falling back to {@code equals}. A StatementMethod instance can be reused as a lookup probe via
+ * {@link #reset}, but only until it becomes a key stored in the cache.
  *
  * @see StatementHolder
  *
@@ -43,23 +47,74 @@ public class StatementMethod {
 
     private final StatementCreator statementCreator;
     private final Connection rawConnection; // the underlying raw JDBC Connection
-    private final Method method; // the invoked prepareStatement(...) or prepareCall(...) method
-    private final Object[] args; // the invoked method args
+    private final ConnHolder connHolder; // the pooled holder of the rawConnection, can be null
+    private Method method; // the invoked prepareStatement(...) or prepareCall(...) method
+    private Object[] args; // the invoked method args
+    private int hash;
 
     public StatementMethod(Connection rawConnection, StatementCreator statementCreator, Method method, Object[] args) {
+        this(rawConnection, null, statementCreator, method, args);
+    }
+
+    public StatementMethod(ConnHolder connHolder, StatementCreator statementCreator, Method method, Object[] args) {
+        this(connHolder.rawConnection(), connHolder, statementCreator, method, args);
+    }
+
+    private StatementMethod(Connection rawConnection, ConnHolder connHolder, StatementCreator statementCreator,
+                            Method method, Object[] args) {
         assert statementCreator != null;
         assert method != null;
         assert args != null && args.length >= 1;
         this.statementCreator = statementCreator;
         this.rawConnection = rawConnection;
+        this.connHolder = connHolder;
         this.method = method;
         this.args = args;
+        this.hash = computeHash();
+    }
+
+    /**
+     * Resets this StatementMethod to describe the given {@code method} and {@code args} invoked on the same
+     * connection, so that it can be reused for a cache lookup without allocating a new key. Must not be called
+     * after this instance has been stored as a key in the cache, i.e. when a StatementHolder returned
+     * from the cache refers to it as its {@link StatementHolder#statementMethod()}.
+     *
+     * @param method the invoked prepareStatement(...) or prepareCall(...) method
+     * @param args the invoked method args
+     */
+    public void reset(Method method, Object[] args) {
+        assert method != null;
+        assert args != null && args.length >= 1;
+        this.method = method;
+        this.args = args;
+        this.hash = computeHash();
+    }
+
+    private int computeHash() {
+        // the rawConnection is compared by reference in equals(), hence its identity hash code is used here
+        int result = System.identityHashCode(rawConnection);
+        result = 31 * result + method.hashCode();
+        for (Object arg : args)
+            result = 31 * result + (arg == null ? 0 : arg.hashCode()); // String caches its hash code
+        return result;
     }
 
     Connection rawConnection() {
         return rawConnection;
     }
 
+    ConnHolder connHolder() {
+        return connHolder;
+    }
+
+    Method method() {
+        return method;
+    }
+
+    Object[] args() {
+        return args;
+    }
+
     PreparedStatement newStatement() throws SQLException {
         return statementCreator.newStatement(method, args);
     }
@@ -74,17 +129,29 @@ public class StatementMethod {
         if (o == null || getClass() != o.getClass()) return false;
 
         StatementMethod that = (StatementMethod) o;
-        return rawConnection == that.rawConnection // comparing with == as the JDBC Connections are pooled objects
-            && method.equals(that.method)
-            && Arrays.equals(args, that.args);
+        return hash == that.hash
+            && rawConnection == that.rawConnection // comparing with == as the JDBC Connections are pooled objects
+            && (method == that.method || method.equals(that.method))
+            && argsEqual(args, that.args);
+    }
+
+    private static boolean argsEqual(Object[] args1, Object[] args2) {
+        if (args1 == args2)
+            return true;
+        if (args1.length != args2.length)
+            return false;
+        for (int i = 0; i < args1.length; i++) {
+            Object arg1 = args1[i];
+            Object arg2 = args2[i];
+            if (arg1 != arg2 && (arg1 == null || !arg1.equals(arg2))) // by reference first, as the SQL is often
+                return false;                                          // the same String instance
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        int result = rawConnection.hashCode();
-        result = 31 * result + method.hashCode();
-        result = 31 * result + Arrays.hashCode(args);
-        return result;
+        return hash;
     }
 
     @Override
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.stcache.StatementWarmer.WarmUpStatement;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Reads and writes the statement cache warm-up file. The file is a UTF-8 text file with one statement per line,
+ * formatted as:
+ * <blockquote>{@code methodName<TAB>intArgs<TAB>sqlQuery}</blockquote>
+ * where the {@code methodName} is {@code prepareStatement} or {@code prepareCall}, the {@code intArgs} are the
+ * comma separated {@code int} arguments following the SQL query (for example, the result set type and concurrency,
+ * or the auto-generated keys flag), and the backslash, tab, and line break characters in the {@code sqlQuery}
+ * are escaped. The lines starting with {@code #} are ignored. The statements are written in descending order
+ * of their use counts.
+ *
+ * @author Simeon Malchev
+ */
+final class StatementWarmUpFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementWarmUpFile.class);
+
+    private static final String HEADER = "# Vibur DBCP statement cache warm-up file, version 1";
+
+    private StatementWarmUpFile() { }
+
+    /**
+     * Returns true if the given statement can be written to the warm-up file, i.e. if it was prepared via
+     * a method which arguments after the SQL query are all {@code int}.
+     */
+    static boolean isPersistable(WarmUpStatement statement) {
+        Class<?>[] parameterTypes = statement.method.getParameterTypes();
+        if (parameterTypes.length == 0 || parameterTypes[0] != String.class)
+            return false;
+        for (int i = 1; i < parameterTypes.length; i++) {
+            if (parameterTypes[i] != int.class)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to {@code maxCount} statements from the given warm-up file. The malformed lines are skipped.
+     *
+     * @return the read statements, or an empty list if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    static List<WarmUpStatement> read(Path file, int maxCount) throws IOException {
+        List<WarmUpStatement> statements = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            String line;
+            while (statements.size() < maxCount && (line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+                WarmUpStatement statement = parse(line);
+                if (statement != null)
+                    statements.add(statement);
+                else
+                    logger.debug("Skipping malformed line {} in {}", line, file);
+            }
+        } catch (NoSuchFileException ignored) {
+            logger.debug("{} does not exist", file);
+        }
+        return statements;
+    }
+
+    private static WarmUpStatement parse(String line) {
+        String[] parts = line.split("\t", 3);
+        if (parts.length != 3 || !parts[0].equals("prepareStatement") && !parts[0].equals("prepareCall"))
+            return null;
+
+        try {
+            String[] intArgs = parts[1].isEmpty() ? new String[0] : parts[1].split(",");
+            Class<?>[] parameterTypes = new Class<?>[intArgs.length + 1];
+            Object[] args = new Object[intArgs.length + 1];
+            parameterTypes[0] = String.class;
+            args[0] = unescape(parts[2]);
+            for (int i = 0; i < intArgs.length; i++) {
+                parameterTypes[i + 1] = int.class;
+                args[i + 1] = Integer.valueOf(intArgs[i]);
+            }
+            Method method = Connection.class.getMethod(parts[0], parameterTypes);
+            return new WarmUpStatement(method, args, 0);
+        } catch (NumberFormatException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given statements to the given warm-up file. The file is first written to a temporary file
+     * in the same directory, which then replaces the warm-up file, atomically if the file system supports it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Path file, List<WarmUpStatement> statements) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (WarmUpStatement statement : statements) {
+                writer.write(statement.method.getName());
+                writer.write('\t');
+                for (int i = 1; i < statement.args.length; i++) {
+                    if (i > 1)
+                        writer.write(',');
+                    writer.write(statement.args[i].toString());
+                }
+                writer.write('\t');
+                writer.write(escape((String) statement.args[0]));
+                writer.newLine();
+            }
+        }
+
+        try {
+            Files.move(tempFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, REPLACE_EXISTING);
+        }
+    }
+
+    private static String escape(String sql) {
+        StringBuilder result = new StringBuilder(sql.length() + 16);
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            switch (c) {
+                case '\\': result.append("\\\\"); break;
+                case '\t': result.append("\\t"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                default: result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String unescape(String sql) {
+        StringBuilder result = new StringBuilder(sql.length());
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\' && i + 1 < sql.length()) {
+                char next = sql.charAt(++i);
+                switch (next) {
+                    case 't': result.append('\t'); break;
+                    case 'n': result.append('\n'); break;
+                    case 'r': result.append('\r'); break;
+                    default: result.append(next);
+                }
+            }
+            else
+                result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.pool.ConnHolder;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.stcache.StatementHolder.State.EVICTED;
+import static org.vibur.dbcp.util.JdbcUtils.quietClose;
+import static org.vibur.dbcp.util.ViburUtils.newDaemonThreadFactory;
+
+/**
+ * Warms up the statement cache of the newly created replacement connections. When a pooled connection is
+ * destroyed, the warmer remembers up to {@code statementCacheWarmUpSize} of its most frequently used cached
+ * statements, and when a new connection is restored to the pool for the first time, the remembered statements
+ * are prepared on it and put in the statement cache in a background thread. The warm-up does not start when
+ * the connection is created, as the new connections are normally handed straight to the thread which waits
+ * for them.
+ *
+ * <p>The warm-up of a connection is cancelled before the connection is taken from the pool or is destroyed, and
+ * the pool then waits for the in-flight statement prepare (if any) to complete, so that the raw connection is never
+ * used by two threads at the same time. The statements which were not prepared yet are remembered again for
+ * the next replacement connection.
+ *
+ * <p>If a {@code statementCacheWarmUpFile} is configured, the hottest statements across all connections are
+ * also periodically written to it, and on the next start they are prepared synchronously on the initial
+ * pool connections, within the {@code statementCacheWarmUpTimeBudgetInMs} time budget.
+ *
+ * @author Simeon Malchev
+ */
+public final class StatementWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementWarmer.class);
+
+    private final ViburConfig config;
+    private final int warmUpSize;
+    private final BlockingDeque<List<WarmUpStatement>> learned; // the remembered statements of destroyed connections
+    private final ThreadPoolExecutor executor;
+    private volatile boolean terminated = false;
+
+    private final Path warmUpFile; // null if the persistent warm-up is not enabled
+    private final ScheduledExecutorService persister; // null if the warm-up file is written only on terminate
+    private volatile List<WarmUpStatement> startupStatements = null; // non-null only during the pool start
+    private long startupDeadlineNanos;
+
+    public StatementWarmer(ViburConfig config) {
+        this.config = config;
+        this.warmUpSize = config.getStatementCacheWarmUpSize();
+        this.learned = new LinkedBlockingDeque<>(config.getPoolMaxSize());
+        this.executor = new ThreadPoolExecutor(1, 1, 30, SECONDS, new LinkedBlockingQueue<Runnable>(),
+                newDaemonThreadFactory("vibur-statement-warmer-" + config.getName()));
+        this.executor.allowCoreThreadTimeOut(true);
+
+        String warmUpFileName = config.getStatementCacheWarmUpFile();
+        this.warmUpFile = warmUpFileName != null ? Paths.get(warmUpFileName) : null;
+        int interval = config.getStatementCacheWarmUpFileIntervalInSeconds();
+        if (warmUpFile != null && interval > 0) {
+            this.persister = newSingleThreadScheduledExecutor(
+                    newDaemonThreadFactory("vibur-statement-persister-" + config.getName()));
+            this.persister.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    persist();
+                }
+            }, interval, interval, SECONDS);
+        }
+        else
+            this.persister = null;
+    }
+
+    /**
+     * Loads the statements from the {@code statementCacheWarmUpFile}, if configured, so that they will be prepared
+     * on the connections created until {@link #endStartup} is called, see {@link #warmUpOnStartup}. Called by
+     * the DataSource {@code start()} before the initial pool connections are created.
+     */
+    public void beginStartup() {
+        if (warmUpFile == null)
+            return;
+        try {
+            List<WarmUpStatement> statements = StatementWarmUpFile.read(warmUpFile, warmUpSize);
+            logger.debug("Loaded {} statements from {}", statements.size(), warmUpFile);
+            startupDeadlineNanos = System.nanoTime() + MILLISECONDS.toNanos(config.getStatementCacheWarmUpTimeBudgetInMs());
+            if (!statements.isEmpty())
+                startupStatements = statements;
+        } catch (IOException e) {
+            logger.warn("Couldn't load the statements from {}", warmUpFile, e);
+        }
+    }
+
+    public void endStartup() {
+        startupStatements = null;
+    }
+
+    /**
+     * Remembers the most frequently used cached statements of the given connection, which is about
+     * to be destroyed. Must be called before the connection's statements are removed from the cache.
+     *
+     * @param connHolder the connection holder
+     */
+    public void learn(ConnHolder connHolder) {
+        connHolder.cancelWarmUp();
+        StatementCache statementCache = config.getStatementCache();
+        if (terminated || !(statementCache instanceof AbstractStatementCache))
+            return;
+
+        Collection<StatementHolder> cached = ((AbstractStatementCache) statementCache).getCachedStatements(connHolder);
+        List<WarmUpStatement> hottest = hottest(cached, Collections.<List<WarmUpStatement>>emptyList());
+        remember(hottest.size() > warmUpSize ? new ArrayList<>(hottest.subList(0, warmUpSize)) : hottest);
+    }
+
+    private void remember(List<WarmUpStatement> statements) {
+        if (statements.isEmpty())
+            return;
+        while (!learned.offerLast(statements)) // drops the oldest remembered statements if needed
+            learned.pollFirst();
+    }
+
+    /**
+     * Prepares synchronously the statements loaded from the warm-up file on the given newly created pooled
+     * connection, if called during the pool start.
+     *
+     * @param connHolder the connection holder
+     */
+    public void warmUpOnStartup(ConnHolder connHolder) {
+        List<WarmUpStatement> statements = startupStatements;
+        if (statements != null && !terminated)
+            new WarmUpTask(connHolder, statements, true).run();
+    }
+
+    /**
+     * Prepares in the background the remembered statements of a destroyed connection, if any, on the given pooled
+     * connection. Called when the connection is restored to the pool for the first time.
+     *
+     * @param connHolder the connection holder
+     */
+    public void warmUp(ConnHolder connHolder) {
+        if (terminated)
+            return;
+        List<WarmUpStatement> statements = learned.pollFirst();
+        if (statements == null)
+            return;
+
+        WarmUpTask task = new WarmUpTask(connHolder, statements, false);
+        connHolder.setWarmUpTask(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            connHolder.setWarmUpTask(null);
+        }
+    }
+
+    /**
+     * Writes the hottest statements across all connections to the {@code statementCacheWarmUpFile}, if configured.
+     * If there are no such statements, the file is not modified.
+     */
+    public synchronized void persist() {
+        StatementCache statementCache = config.getStatementCache();
+        if (warmUpFile == null || !(statementCache instanceof AbstractStatementCache))
+            return;
+
+        List<WarmUpStatement> statements = new ArrayList<>();
+        for (WarmUpStatement statement : hottest(((AbstractStatementCache) statementCache).getCachedStatements(),
+                new ArrayList<>(learned))) {
+            if (StatementWarmUpFile.isPersistable(statement) && statements.size() < warmUpSize)
+                statements.add(statement);
+        }
+        if (statements.isEmpty())
+            return;
+        try {
+            StatementWarmUpFile.write(warmUpFile, statements);
+            logger.debug("Saved {} statements to {}", statements.size(), warmUpFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Couldn't save the statements to {}", warmUpFile, e);
+        }
+    }
+
+    /**
+     * Returns the given cached and remembered statements, with the ones with the same method and args merged
+     * into one, in descending order of their use counts.
+     */
+    private List<WarmUpStatement> hottest(Collection<StatementHolder> cached,
+                                          Collection<List<WarmUpStatement>> remembered) {
+        Map<WarmUpStatement, WarmUpStatement> merged = new HashMap<>();
+        for (StatementHolder statement : cached) {
+            StatementMethod statementMethod = statement.statementMethod();
+            if (statementMethod != null && statement.state().get() != EVICTED)
+                merge(merged, new WarmUpStatement(statementMethod.method(), statementMethod.args(), statement.useCount()));
+        }
+        for (List<WarmUpStatement> statements : remembered) {
+            for (WarmUpStatement statement : statements)
+                merge(merged, new WarmUpStatement(statement.method, statement.args, statement.useCount));
+        }
+
+        List<WarmUpStatement> result = new ArrayList<>(merged.values());
+        Collections.sort(result, new Comparator<WarmUpStatement>() {
+            @Override
+            public int compare(WarmUpStatement s1, WarmUpStatement s2) {
+                return Long.compare(s2.useCount, s1.useCount);
+            }
+        });
+        return result;
+    }
+
+    private static void merge(Map<WarmUpStatement, WarmUpStatement> merged, WarmUpStatement statement) {
+        WarmUpStatement existing = merged.get(statement);
+        if (existing != null)
+            existing.useCount += statement.useCount;
+        else
+            merged.put(statement, statement);
+    }
+
+    public void terminate() {
+        persist(); // the idle connections are already destroyed and their statements remembered
+        terminated = true;
+        startupStatements = null;
+        executor.shutdown();
+        if (persister != null)
+            persister.shutdown();
+        learned.clear();
+    }
+
+    /**
+     * A statement to be warmed up, described by the {@code prepareStatement} or {@code prepareCall} method
+     * and its args, regardless of the connection on which it was prepared.
+     */
+    static final class WarmUpStatement {
+        final Method method;
+        final Object[] args;
+        long useCount;
+
+        WarmUpStatement(Method method, Object[] args, long useCount) {
+            this.method = method;
+            this.args = args;
+            this.useCount = useCount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            WarmUpStatement that = (WarmUpStatement) o;
+            return method.equals(that.method) && Arrays.equals(args, that.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + Arrays.hashCode(args);
+        }
+    }
+
+    /**
+     * The warm-up of a single connection. Each statement is prepared while the connection is acquired via
+     * {@link ConnHolder#beginBackgroundUse()}, and the pool waits for this before handing the connection to
+     * an application thread. The startup warm-up tasks are run synchronously on the not yet pooled connections
+     * and stop when the startup time budget is exhausted.
+     */
+    public final class WarmUpTask implements Runnable, StatementMethod.StatementCreator {
+
+        private final ConnHolder connHolder;
+        private final List<WarmUpStatement> statements;
+        private final boolean startup;
+        private volatile boolean cancelled = false;
+        private int next = 0; // accessed only by the thread which runs this task
+
+        private WarmUpTask(ConnHolder connHolder, List<WarmUpStatement> statements, boolean startup) {
+            this.connHolder = connHolder;
+            this.statements = statements;
+            this.startup = startup;
+        }
+
+        @Override
+        public void run() {
+            StatementCache statementCache = config.getStatementCache();
+            int prepared = 0;
+            while (next < statements.size() && !cancelled && !terminated) {
+                if (startup) {
+                    if (System.nanoTime() - startupDeadlineNanos >= 0)
+                        break;
+                    if (prepare(statementCache, statements.get(next++)))
+                        prepared++;
+                    continue;
+                }
+
+                if (!connHolder.beginBackgroundUse())
+                    break; // the connection was taken or destroyed
+                try {
+                    if (prepare(statementCache, statements.get(next++)))
+                        prepared++;
+                } finally {
+                    connHolder.endBackgroundUse();
+                }
+            }
+            if (!startup && next < statements.size())
+                remember(new ArrayList<>(statements.subList(next, statements.size())));
+            logger.debug("Prepared {} statements on rawConnection {}", prepared, connHolder.rawConnection());
+        }
+
+        private boolean prepare(StatementCache statementCache, WarmUpStatement statement) {
+            try {
+                StatementHolder holder = statementCache.take(
+                        new StatementMethod(connHolder, this, statement.method, statement.args));
+                if (!statementCache.restore(holder, false))
+                    quietClose(holder.rawStatement());
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                logger.debug("Couldn't prepare {} on rawConnection {}",
+                        statement.args[0], connHolder.rawConnection(), e);
+                return false;
+            }
+        }
+
+        @Override
+        public PreparedStatement newStatement(Method method, Object[] args) throws SQLException {
+            Connection rawConnection = connHolder.rawConnection();
+            try {
+                return (PreparedStatement) method.invoke(rawConnection, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException)
+                    throw (SQLException) e.getCause();
+                throw new SQLException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new SQLException(e);
+            }
+        }
+
+        /**
+         * Cancels this warm-up. The statements which were not prepared yet are remembered again for the next
+         * replacement connection.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (executor.remove(this)) // the warm-up was not started yet
+                remember(statements);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnHolder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.vibur.dbcp.stcache.StatementHolder.State.*;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A JDBC Statement cache with a frequency-aware W-TinyLFU eviction policy, which does not depend on any
+ * external library. The new statements enter a small LRU admission window; the statements evicted from the
+ * window compete with the eviction victim of the main segmented LRU (SLRU) space, and are admitted into
+ * it only if their estimated access frequency, as recorded by a count-min {@link FrequencySketch},
+ * is higher. As a result, a burst of one-off statements (for example, from reporting queries) cannot
+ * flush the frequently used OLTP statements out of the cache.
+ *
+ * <p>The cached statements are kept in a {@link ConcurrentHashMap}, while the eviction policy state is guarded
+ * by a lock. The cache hits only try to acquire this lock, and if it is contended the policy update for
+ * the hit is skipped.
+ *
+ * @author Simeon Malchev
+ */
+public class TinyLfuStatementCache extends AbstractStatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TinyLfuStatementCache.class);
+
+    private static final int NONE = 0, WINDOW = 1, PROBATION = 2, PROTECTED = 3; // the Node queues
+
+    private final ConcurrentMap<StatementMethod, Node> statementCache;
+    private final ConnectionIndex connectionIndex = new ConnectionIndex();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // the eviction policy state, all guarded by the policyLock:
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final Node window = new Node(null, null); // the LRU lists sentinels
+    private final Node probation = new Node(null, null);
+    private final Node protectedSpace = new Node(null, null);
+    private final int maxWindow;
+    private final int maxMain;
+    private final int maxProtected;
+    private int windowSize = 0;
+    private int probationSize = 0;
+    private int protectedSize = 0;
+
+    public TinyLfuStatementCache(int maxSize) {
+        forbidIllegalArgument(maxSize <= 0);
+        statementCache = new ConcurrentHashMap<>(maxSize);
+        sketch = new FrequencySketch(maxSize);
+        maxWindow = Math.max(1, maxSize / 100); // 1% of the cache capacity
+        maxMain = maxSize - maxWindow;
+        maxProtected = maxMain * 4 / 5; // 80% of the main space
+    }
+
+    @Override
+    public StatementHolder take(StatementMethod statementMethod) throws SQLException {
+        if (isClosed())
+            return uncached(statementMethod);
+
+        Node node = statementCache.get(statementMethod);
+        if (node != null) {
+            afterRead(node);
+            if (node.statement.state().compareAndSet(AVAILABLE, IN_USE)) {
+                if (logger.isTraceEnabled())
+                    logger.trace("Using cached statement for {}", statementMethod);
+                getStats().recordHit(statementMethod.sqlQuery());
+                recordUse(node.statement);
+                return node.statement;
+            }
+            // if the statement in the cache was not available we return an uncached StatementHolder
+            getStats().recordContention(statementMethod.sqlQuery());
+            return uncached(statementMethod);
+        }
+
+        // there was no cache entry for the statementMethod, so we'll try to put a new one
+        getStats().recordMiss(statementMethod.sqlQuery());
+        PreparedStatement rawStatement = statementMethod.newStatement();
+        StatementHolder statement = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE),
+                statementMethod.sqlQuery(), statementMethod);
+        node = new Node(statementMethod, statement);
+        connectionIndex.add(statement);
+        if (statementCache.putIfAbsent(statementMethod, node) == null) {
+            afterWrite(node);
+            recordUse(statement);
+            return statement; // the new entry was successfully put in the cache, so we return it
+        }
+        connectionIndex.remove(statement);
+        // if we couldn't put the statement in the cache we return an uncached StatementHolder
+        return new StatementHolder(rawStatement, null, statementMethod.sqlQuery());
+    }
+
+    @Override
+    public boolean remove(StatementHolder statement) {
+        StatementMethod statementMethod = statement.statementMethod();
+        if (statement.state() == null || statementMethod == null) // this statement is not in the cache
+            return false;
+
+        Node node = statementCache.get(statementMethod);
+        if (node == null || node.statement != statement || !statementCache.remove(statementMethod, node))
+            return false;
+
+        connectionIndex.remove(statement);
+        policyLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            policyLock.unlock();
+        }
+        evict(statement, false);
+        return true;
+    }
+
+    @Override
+    public int removeAll(Connection rawConnection) {
+        List<Node> removed = new ArrayList<>();
+        for (StatementHolder statement : connectionIndex.removeAll(rawConnection)) {
+            Node node = statementCache.get(statement.statementMethod());
+            if (node != null && node.statement == statement && statementCache.remove(node.key, node))
+                removed.add(node);
+        }
+        if (removed.isEmpty())
+            return 0;
+
+        policyLock.lock();
+        try {
+            for (Node node : removed)
+                unlink(node);
+        } finally {
+            policyLock.unlock();
+        }
+        for (Node node : removed)
+            evict(node.statement, true);
+        return removed.size();
+    }
+
+    @Override
+    protected Collection<StatementHolder> getCachedStatements(ConnHolder connHolder) {
+        return connectionIndex.get(connHolder.rawConnection());
+    }
+
+    @Override
+    protected Collection<StatementHolder> getCachedStatements() {
+        List<StatementHolder> statements = new ArrayList<>(statementCache.size());
+        for (Node node : statementCache.values())
+            statements.add(node.statement);
+        return statements;
+    }
+
+    /**
+     * Closes this TinyLfuStatementCache and removes all entries from it.
+     */
+    @Override
+    public void close() {
+        if (closed.getAndSet(true))
+            return;
+
+        for (Node node : statementCache.values()) {
+            if (statementCache.remove(node.key, node))
+                evict(node.statement, true);
+        }
+        connectionIndex.clear();
+
+        policyLock.lock();
+        try {
+            clear(window);
+            clear(probation);
+            clear(protectedSpace);
+            windowSize = probationSize = protectedSize = 0;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    //////// The W-TinyLFU eviction policy: ////////
+
+    private void afterRead(Node node) {
+        if (!policyLock.tryLock())
+            return; // the policy update for this cache hit is skipped, as the lock is contended
+        try {
+            sketch.increment(node.key);
+            onHit(node);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void afterWrite(Node node) {
+        Node victim = null;
+        policyLock.lock();
+        try {
+            sketch.increment(node.key);
+            if (statementCache.get(node.key) == node) { // if the node was not concurrently removed
+                node.queue = WINDOW;
+                linkLast(window, node);
+                windowSize++;
+                victim = evictFromWindow();
+            }
+        } finally {
+            policyLock.unlock();
+        }
+
+        if (victim != null) {
+            connectionIndex.remove(victim.statement);
+            evict(victim.statement, false);
+            getStats().recordEviction();
+            if (logger.isTraceEnabled())
+                logger.trace("Evicted {}", victim.statement.rawStatement());
+        }
+    }
+
+    private void onHit(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+            case PROTECTED:
+                unlinkNode(node);
+                linkLast(node.queue == WINDOW ? window : protectedSpace, node);
+                break;
+            case PROBATION: // promote to the protected space
+                unlink(node);
+                node.queue = PROTECTED;
+                linkLast(protectedSpace, node);
+                protectedSize++;
+                if (protectedSize > maxProtected) { // demote the protected space LRU to the probation space
+                    Node demoted = protectedSpace.next;
+                    unlink(demoted);
+                    demoted.queue = PROBATION;
+                    linkLast(probation, demoted);
+                    probationSize++;
+                }
+                break;
+            default: // NONE, i.e. the node was concurrently removed
+        }
+    }
+
+    /**
+     * Moves the LRU statement from the admission window to the main space if the window has overflowed.
+     * If the main space is full, the moved statement (the candidate) competes with the LRU statement from
+     * the main space (the victim) and the less frequently used of them is evicted.
+     *
+     * @return the evicted Node, if any
+     */
+    private Node evictFromWindow() {
+        if (windowSize <= maxWindow)
+            return null;
+
+        Node candidate = window.next;
+        unlink(candidate);
+        if (probationSize + protectedSize < maxMain) {
+            candidate.queue = PROBATION;
+            linkLast(probation, candidate);
+            probationSize++;
+            return null;
+        }
+
+        Node victim = probationSize > 0 ? probation.next : protectedSize > 0 ? protectedSpace.next : null;
+        if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            unlink(victim);
+            candidate.queue = PROBATION;
+            linkLast(probation, candidate);
+            probationSize++;
+            return statementCache.remove(victim.key, victim) ? victim : null;
+        }
+        return statementCache.remove(candidate.key, candidate) ? candidate : null;
+    }
+
+    private void unlink(Node node) {
+        switch (node.queue) {
+            case WINDOW: windowSize--; break;
+            case PROBATION: probationSize--; break;
+            case PROTECTED: protectedSize--; break;
+            default: return; // NONE
+        }
+        unlinkNode(node);
+        node.queue = NONE;
+    }
+
+    private static void unlinkNode(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+    }
+
+    private static void linkLast(Node sentinel, Node node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static void clear(Node sentinel) {
+        sentinel.prev = sentinel.next = sentinel;
+    }
+
+    private static final class Node {
+        private final StatementMethod key;
+        private final StatementHolder statement;
+
+        // guarded by the policyLock:
+        private int queue = NONE;
+        private Node prev;
+        private Node next;
+
+        private Node(StatementMethod key, StatementHolder statement) {
+            this.key = key;
+            this.statement = statement;
+            this.prev = this.next = this; // an empty sentinel list points to itself
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import java.util.Arrays;
+
+import static org.vibur.dbcp.util.SqlLexer.endOfComment;
+import static org.vibur.dbcp.util.SqlLexer.endOfQuotedIdentifier;
+import static org.vibur.dbcp.util.SqlLexer.endOfString;
+import static org.vibur.dbcp.util.SqlLexer.endOfWord;
+import static org.vibur.dbcp.util.SqlLexer.isCommentStart;
+import static org.vibur.dbcp.util.SqlLexer.isWordStart;
+
+/**
+ * Pads the {@code IN (?, ?, ..., ?)} lists of placeholders in a prepared statement SQL query to the next power of two
+ * length, so that the queries which differ only by their IN-list lengths map to a logarithmic number of distinct
+ * statements in the statement cache, and of distinct server side execution plans. The padding placeholders must be
+ * bound to the same value as the last placeholder of their list, which does not change the query result.
+ *
+ * <p>Only the IN-lists consisting of {@code ?} placeholders only are padded. The placeholders in string literals,
+ * quoted identifiers, and comments are ignored. An IN-list is not padded beyond {@link #MAX_IN_LIST_SIZE}
+ * elements, as Oracle allows at most 1000 elements per list, and the query is not padded beyond
+ * {@link #MAX_PARAMETERS} parameters, as SQL Server allows at most 2100 parameters per query; such lists keep
+ * their exact size. The queries which contain backslashes, whose escaping semantics are database specific, or
+ * the PostgreSQL {@code ??}, {@code ?|}, and {@code ?&} operators, are not padded at all.
+ *
+ * @author Simeon Malchev
+ */
+public final class InListBucketer {
+
+    public static final int MAX_IN_LIST_SIZE = 1000;
+    public static final int MAX_PARAMETERS = 2100;
+
+    private InListBucketer() { }
+
+    /**
+     * The result of a successful bucketing, including the mapping of the original parameter indexes
+     * to the parameter indexes in the padded query.
+     */
+    public static final class Bucketed {
+        private final String sql;
+        private final int[] indexes; // the 1-based padded query index of each original parameter, [0] is unused
+        private final int[] paddings; // the number of padding parameters after each original parameter
+
+        private Bucketed(String sql, int[] indexes, int[] paddings) {
+            this.sql = sql;
+            this.indexes = indexes;
+            this.paddings = paddings;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Returns the padded query parameter index for the given original parameter index, or the given
+         * index if it is out of the range of the query parameters.
+         */
+        public int parameterIndex(int originalIndex) {
+            return originalIndex > 0 && originalIndex < indexes.length ? indexes[originalIndex] : originalIndex;
+        }
+
+        /**
+         * Returns the number of the padding parameters which follow the given original parameter and which need
+         * to be bound to the same value.
+         */
+        public int padding(int originalIndex) {
+            return originalIndex > 0 && originalIndex < paddings.length ? paddings[originalIndex] : 0;
+        }
+    }
+
+    /**
+     * Pads the IN-lists of the given SQL query. Allocates nothing if there is nothing to pad.
+     *
+     * @param sql the SQL query
+     * @return the padded query and its parameter mapping, or {@code null} if there is nothing to pad
+     */
+    public static Bucketed bucket(String sql) {
+        if (sql == null)
+            return null;
+        int placeholders = countPlaceholders(sql); // an upper bound of the number of the original parameters
+        if (placeholders < 3) // the shortest list which needs padding is (?, ?, ?)
+            return null;
+
+        int length = sql.length();
+        StringBuilder result = null; // lazily created when the first IN-list needs to be padded
+        int copied = 0; // the index in sql up to which the text has been copied to result
+        int[] indexes = null; // lazily created together with the result
+        int[] paddings = null;
+        int original = 0; // the number of the original parameters seen so far
+        int shift = 0; // the number of the padding parameters added so far
+        boolean afterIn = false; // whether the previous significant token is the IN keyword
+
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = c == '\'' ? endOfString(sql, i, false) : endOfQuotedIdentifier(sql, i);
+                if (end < 0)
+                    return null;
+                i = end;
+                afterIn = false;
+            }
+            else if (isCommentStart(sql, i))
+                i = endOfComment(sql, i);
+            else if (isWordStart(c)) {
+                int end = endOfWord(sql, i);
+                afterIn = end - i == 2 && sql.regionMatches(true, i, "in", 0, 2);
+                i = end;
+            }
+            else if (c == '(' && afterIn) {
+                afterIn = false;
+                int closing = endOfPlaceholderList(sql, i + 1);
+                if (closing < 0) {
+                    i++;
+                    continue;
+                }
+                int count = countPlaceholders(sql, i + 1, closing);
+                int padding = padding(count, placeholders + shift);
+
+                if (padding > 0 && result == null) {
+                    result = new StringBuilder(length + padding * 3);
+                    indexes = new int[placeholders + 1];
+                    paddings = new int[placeholders + 1];
+                    for (int k = 1; k <= original; k++)
+                        indexes[k] = k; // no padding so far
+                }
+                if (result != null) {
+                    for (int k = 0; k < count; k++) {
+                        original++;
+                        indexes[original] = original + shift;
+                    }
+                }
+                else
+                    original += count;
+                if (padding > 0) {
+                    paddings[original] = padding;
+                    shift += padding;
+                    result.append(sql, copied, closing);
+                    for (int k = 0; k < padding; k++)
+                        result.append(", ?");
+                    copied = closing;
+                }
+                i = closing + 1;
+            }
+            else {
+                if (c == '?') {
+                    original++;
+                    if (result != null)
+                        indexes[original] = original + shift;
+                }
+                if (!Character.isWhitespace(c))
+                    afterIn = false;
+                i++;
+            }
+        }
+
+        if (result == null)
+            return null;
+        result.append(sql, copied, length);
+        if (original < placeholders) { // some of the counted placeholders were in literals or comments
+            indexes = Arrays.copyOf(indexes, original + 1);
+            paddings = Arrays.copyOf(paddings, original + 1);
+        }
+        return new Bucketed(result.toString(), indexes, paddings);
+    }
+
+    /**
+     * Returns the number of padding placeholders for an IN-list with the given number of placeholders, in a query
+     * which will have the given number of parameters without this padding.
+     */
+    private static int padding(int count, int parameters) {
+        int bucket = Integer.highestOneBit(count);
+        if (bucket == count)
+            return 0;
+        bucket <<= 1;
+        if (bucket > MAX_IN_LIST_SIZE || parameters + bucket - count > MAX_PARAMETERS)
+            return 0;
+        return bucket - count;
+    }
+
+    /**
+     * Returns the number of the {@code ?} characters in the given SQL query, or {@code 0} if the query contains
+     * a backslash or one of the PostgreSQL {@code ??}, {@code ?|}, or {@code ?&} operators.
+     */
+    private static int countPlaceholders(String sql) {
+        int count = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\\')
+                return 0;
+            if (c == '?') {
+                if (i + 1 < sql.length() && "?|&".indexOf(sql.charAt(i + 1)) >= 0)
+                    return 0;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countPlaceholders(String sql, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (sql.charAt(i) == '?')
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Parses a list of {@code ?} placeholders separated by commas and terminated by a closing parenthesis, starting
+     * at the given index.
+     *
+     * @return the index of the closing parenthesis, or {@code -1} if the list contains anything else
+     */
+    private static int endOfPlaceholderList(String sql, int start) {
+        boolean expectPlaceholder = true;
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c))
+                continue;
+            if (expectPlaceholder && c == '?')
+                expectPlaceholder = false;
+            else if (!expectPlaceholder && c == ',')
+                expectPlaceholder = true;
+            else if (!expectPlaceholder && c == ')')
+                return i;
+            else
+                return -1;
+        }
+        return -1;
+    }
+}
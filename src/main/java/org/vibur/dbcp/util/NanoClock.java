@@ -0,0 +1,85 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.vibur.dbcp.util.ViburUtils.newDaemonThreadFactory;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * The source of the {@code nanoTime} timestamps which are taken on the hot path, such as the connection taken,
+ * restored and last access times, and the ResultSet retrieval times. The returned values are comparable with
+ * the values of {@code System.nanoTime()}.
+ *
+ * @author Simeon Malchev
+ */
+public abstract class NanoClock {
+
+    /** Returns {@code System.nanoTime()}. */
+    public static final NanoClock SYSTEM = new NanoClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    public abstract long nanoTime();
+
+    public void terminate() { }
+
+    /**
+     * A clock which returns the value of {@code System.nanoTime()} as last sampled by a background ticker thread.
+     * Reading it costs a volatile read instead of a potentially slow clock source call on virtualized hosts, at
+     * the price of returning values which lag behind {@code System.nanoTime()} by up to the clock resolution.
+     */
+    public static final class Coarse extends NanoClock {
+
+        private static final Logger logger = LoggerFactory.getLogger(Coarse.class);
+
+        private volatile long nanoTime = System.nanoTime();
+        private final ScheduledExecutorService executor;
+
+        public Coarse(long resolutionInMs, String poolName) {
+            forbidIllegalArgument(resolutionInMs <= 0);
+            executor = newSingleThreadScheduledExecutor(newDaemonThreadFactory("vibur-clock-" + poolName));
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    nanoTime = System.nanoTime();
+                }
+            }, resolutionInMs, resolutionInMs, MILLISECONDS);
+            logger.debug("Started coarse clock with resolution {} ms", resolutionInMs);
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        @Override
+        public void terminate() {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.util;
+
+import static org.vibur.dbcp.util.SqlLexer.endOfComment;
+import static org.vibur.dbcp.util.SqlLexer.endOfQuotedIdentifier;
+import static org.vibur.dbcp.util.SqlLexer.endOfString;
+import static org.vibur.dbcp.util.SqlLexer.isCommentStart;
+import static org.vibur.dbcp.util.SqlLexer.isIdentifierPart;
+import static org.vibur.dbcp.util.SqlLexer.isNumberStart;
+
+/**
+ * Normalizes SQL queries into fingerprints, so that the queries which differ only by their literal values,
+ * comments, or formatting, have the same fingerprint. Unlike {@link SqlParameterizer}, which must produce
+ * an executable query, the fingerprinting is lenient and never fails: all numeric and string literals are replaced
+ * with {@code ?}, comments are removed, whitespace runs are collapsed into a single space, and the parenthesized
+ * lists of parameters, such as {@code IN (?, ?, ?)}, are collapsed into {@code (?)}. The identifiers, keywords,
+ * and quoted identifiers are left unchanged.
+ *
+ * @author Simeon Malchev
+ */
+public final class SqlFingerprint {
+
+    private SqlFingerprint() { }
+
+    /**
+     * Returns the fingerprint of the given SQL query.
+     *
+     * @param sql the SQL query
+     * @return as above, or {@code null} if the given query is {@code null}
+     */
+    public static String fingerprint(String sql) {
+        if (sql == null)
+            return null;
+
+        int length = sql.length();
+        StringBuilder result = new StringBuilder(length);
+        boolean space = false; // whether a whitespace is pending before the next token
+
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (isCommentStart(sql, i)) {
+                i = endOfComment(sql, i);
+                space = true;
+                continue;
+            }
+
+            if (space && result.length() > 0)
+                result.append(' ');
+            space = false;
+
+            if (c == '\'') { // a backslash escapes the next character, as in MySQL
+                int end = endOfString(sql, i, true);
+                i = end < 0 ? length : end;
+                appendParameter(result);
+            }
+            else if (c == '"' || c == '`') { // a quoted identifier
+                int end = endOfQuotedIdentifier(sql, i);
+                end = end < 0 ? length : end;
+                result.append(sql, i, end);
+                i = end;
+            }
+            else if (isNumberStart(sql, i)) {
+                i++;
+                while (i < length && (isIdentifierPart(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++; // includes the exponent, hexadecimal digits, and type suffixes
+                appendParameter(result);
+            }
+            else if (isIdentifierPart(c)) {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end)))
+                    end++;
+                result.append(sql, i, end);
+                i = end;
+            }
+            else if (c == ')') {
+                collapseParameterList(result);
+                result.append(c);
+                i++;
+            }
+            else {
+                result.append(c);
+                i++;
+            }
+        }
+        return result.toString();
+    }
+
+    /** Appends a {@code ?}, dropping the string prefix, such as in {@code N'...'} or {@code X'...'}, if any. */
+    private static void appendParameter(StringBuilder result) {
+        int length = result.length();
+        if (length == 1 && isIdentifierPart(result.charAt(0))
+                || length > 1 && isIdentifierPart(result.charAt(length - 1)) && !isIdentifierPart(result.charAt(length - 2)))
+            result.setLength(length - 1);
+        result.append('?');
+    }
+
+    /**
+     * If the given fingerprint ends with an open parenthesis followed only by a comma separated list of
+     * {@code ?}, replaces the list with a single {@code ?}.
+     */
+    private static void collapseParameterList(StringBuilder result) {
+        int i = result.length() - 1;
+        int parameters = 0;
+        while (i >= 0) {
+            char c = result.charAt(i);
+            if (c == '?')
+                parameters++;
+            else if (c == '(')
+                break;
+            else if (c != ',' && c != ' ')
+                return;
+            i--;
+        }
+        if (i >= 0 && parameters > 1) {
+            result.setLength(i + 1);
+            result.append('?');
+        }
+    }
+}
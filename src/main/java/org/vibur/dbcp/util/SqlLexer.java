@@ -0,0 +1,138 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+/**
+ * The SQL token scanning shared by {@link SqlParameterizer}, {@link InListBucketer}, and {@link SqlFingerprint}.
+ * Each method scans one token starting at the given index of the SQL query and returns the index after it, so
+ * that the callers can walk the query without any allocations, and decide for themselves how strict to be with
+ * the database specific syntax, such as the backslash escapes or the unterminated literals.
+ *
+ * @author Simeon Malchev
+ */
+final class SqlLexer {
+
+    private SqlLexer() { }
+
+    /**
+     * Returns the index after the closing quote of the string literal starting at {@code start}, or {@code -1}
+     * if the literal is not terminated. Two adjacent quotes are an escaped quote.
+     *
+     * @param backslashEscapes whether a backslash escapes the next character, as in MySQL
+     */
+    static int endOfString(String sql, int start, boolean backslashEscapes) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes)
+                i += 2;
+            else if (c == '\'') {
+                if (i + 1 < length && sql.charAt(i + 1) == '\'')
+                    i += 2; // an escaped quote
+                else
+                    return i + 1;
+            }
+            else
+                i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index after the closing quote of the {@code "..."} or {@code `...`} quoted identifier starting
+     * at {@code start}, or {@code -1} if the identifier is not terminated.
+     */
+    static int endOfQuotedIdentifier(String sql, int start) {
+        int end = sql.indexOf(sql.charAt(start), start + 1);
+        return end < 0 ? -1 : end + 1;
+    }
+
+    static boolean isCommentStart(String sql, int i) {
+        if (i + 1 >= sql.length())
+            return false;
+        char c = sql.charAt(i);
+        char next = sql.charAt(i + 1);
+        return c == '-' && next == '-' || c == '/' && next == '*';
+    }
+
+    /**
+     * Returns the index after the {@code --} or {@code /* ... *}{@code /} comment starting at {@code start}, or
+     * the end of the query if the comment is not terminated.
+     */
+    static int endOfComment(String sql, int start) {
+        int end;
+        if (sql.charAt(start) == '-') {
+            end = sql.indexOf('\n', start + 2);
+            return end < 0 ? sql.length() : end + 1;
+        }
+        end = sql.indexOf("*/", start + 2);
+        return end < 0 ? sql.length() : end + 2;
+    }
+
+    static boolean isNumberStart(String sql, int i) {
+        char c = sql.charAt(i);
+        return isDigit(c) || c == '.' && i + 1 < sql.length() && isDigit(sql.charAt(i + 1));
+    }
+
+    /**
+     * Returns the index after the digits, the fraction, and the exponent of the numeric literal starting
+     * at {@code start}. The caller decides what to do if the literal is followed by an identifier character.
+     */
+    static int endOfNumber(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        while (i < length && isDigit(sql.charAt(i)))
+            i++;
+        if (i < length && sql.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(sql.charAt(i)))
+                i++;
+        }
+        if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int j = i + 1;
+            if (j < length && (sql.charAt(j) == '+' || sql.charAt(j) == '-'))
+                j++;
+            if (j < length && isDigit(sql.charAt(j))) {
+                i = j;
+                while (i < length && isDigit(sql.charAt(i)))
+                    i++;
+            }
+        }
+        return i;
+    }
+
+    static boolean isWordStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    /** Returns the index after the identifier or keyword starting at {@code start}. */
+    static int endOfWord(String sql, int start) {
+        int end = start + 1;
+        while (end < sql.length() && isIdentifierPart(sql.charAt(end)))
+            end++;
+        return end;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+    }
+}
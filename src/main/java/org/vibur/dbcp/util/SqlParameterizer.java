@@ -0,0 +1,202 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.vibur.dbcp.util.SqlLexer.endOfNumber;
+import static org.vibur.dbcp.util.SqlLexer.endOfQuotedIdentifier;
+import static org.vibur.dbcp.util.SqlLexer.endOfString;
+import static org.vibur.dbcp.util.SqlLexer.endOfWord;
+import static org.vibur.dbcp.util.SqlLexer.isCommentStart;
+import static org.vibur.dbcp.util.SqlLexer.isIdentifierPart;
+import static org.vibur.dbcp.util.SqlLexer.isNumberStart;
+import static org.vibur.dbcp.util.SqlLexer.isWordStart;
+
+/**
+ * Replaces the numeric literals in simple DML statements with {@code ?} parameters, so that the SQL text
+ * of a {@code java.sql.Statement} can be executed via a (cached) {@code PreparedStatement}. The string literals
+ * are left inline, because binding them via {@code setString} changes their type on some databases, for example,
+ * they become {@code varchar} instead of {@code unknown} on PostgreSQL, and are not blank-padded when compared
+ * with {@code CHAR} columns on Oracle.
+ *
+ * <p>The tokenizer is deliberately conservative. It accepts only SQL starting with {@code SELECT}, {@code INSERT},
+ * {@code UPDATE}, or {@code DELETE}, and gives up on comments, {@code ?} or named parameters, semicolons,
+ * JDBC escapes, dollar-quoted strings, and string literals containing backslashes. Only the numeric literals
+ * which directly follow a comparison operator, or which are elements of an {@code IN (...)} or {@code VALUES (...)}
+ * list, are replaced; all other numeric literals, for example, the ones in the select list or in {@code LIMIT}
+ * clauses, are left unchanged.
+ *
+ * @author Simeon Malchev
+ */
+public final class SqlParameterizer {
+
+    private SqlParameterizer() { }
+
+    /**
+     * The result of a successful parameterization.
+     */
+    public static final class Parameterized {
+        private final String sql;
+        private final Object[] parameters; // Long or BigDecimal values
+
+        private Parameterized(String sql, Object[] parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public Object[] getParameters() {
+            return parameters;
+        }
+    }
+
+    private static final String OPERATOR = "op";
+    private static final String OTHER = "other";
+
+    /**
+     * Parameterizes the given SQL query.
+     *
+     * @param sql the SQL query
+     * @return the parameterized SQL query and the extracted parameters, or {@code null} if the query cannot
+     * be safely parameterized or contains no literals to be replaced
+     */
+    public static Parameterized parameterize(String sql) {
+        // the backslash escaping semantics are database specific
+        if (sql == null || !startsWithDml(sql) || sql.indexOf('\\') >= 0)
+            return null;
+
+        int length = sql.length();
+        StringBuilder result = new StringBuilder(length);
+        List<Object> parameters = new ArrayList<>();
+        Deque<Boolean> groups = new ArrayDeque<>(); // for each open parenthesis, whether it is an IN or VALUES list
+        String previous = OTHER; // the previous significant token, upper-cased for the keywords
+
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                result.append(c);
+                i++;
+            }
+            else if (c == '\'') {
+                int end = endOfString(sql, i, false);
+                if (end < 0)
+                    return null;
+                result.append(sql, i, end);
+                previous = OTHER;
+                i = end;
+            }
+            else if (c == '"' || c == '`') { // a quoted identifier
+                int end = endOfQuotedIdentifier(sql, i);
+                if (end < 0)
+                    return null;
+                result.append(sql, i, end);
+                previous = OTHER;
+                i = end;
+            }
+            else if (isNumberStart(sql, i)) {
+                int end = endOfNumber(sql, i);
+                if (end < length && isIdentifierPart(sql.charAt(end)))
+                    return null;
+                if (isParameterPosition(previous, groups)) {
+                    result.append('?');
+                    parameters.add(toNumber(sql.substring(i, end)));
+                }
+                else
+                    result.append(sql, i, end);
+                previous = OTHER;
+                i = end;
+            }
+            else if (isWordStart(c)) {
+                int end = endOfWord(sql, i);
+                String word = sql.substring(i, end);
+                result.append(word);
+                previous = word.toUpperCase();
+                i = end;
+            }
+            else if (c == '=' || c == '<' || c == '>' || c == '!') {
+                int end = i + 1;
+                while (end < length && "=<>!".indexOf(sql.charAt(end)) >= 0)
+                    end++;
+                result.append(sql, i, end);
+                previous = OPERATOR;
+                i = end;
+            }
+            else if (c == '(') {
+                groups.push(previous.equals("IN") || previous.equals("VALUES"));
+                result.append(c);
+                previous = "(";
+                i++;
+            }
+            else if (c == ')') {
+                groups.poll();
+                result.append(c);
+                previous = OTHER;
+                i++;
+            }
+            else if (c == ',') {
+                result.append(c);
+                previous = ",";
+                i++;
+            }
+            else if (c == '?' || c == ';' || c == '{' || c == '}' || c == '$' || isCommentStart(sql, i)
+                    || (c == ':' && i + 1 < length && isIdentifierPart(sql.charAt(i + 1)))) {
+                return null; // parameters, multiple statements, escapes, or comments
+            }
+            else {
+                result.append(c);
+                previous = OTHER;
+                i++;
+            }
+        }
+
+        if (parameters.isEmpty())
+            return null;
+        return new Parameterized(result.toString(), parameters.toArray());
+    }
+
+    private static boolean startsWithDml(String sql) {
+        int i = 0;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+            i++;
+        if (i + 6 < sql.length() && isIdentifierPart(sql.charAt(i + 6)))
+            return false;
+        return sql.regionMatches(true, i, "select", 0, 6) || sql.regionMatches(true, i, "insert", 0, 6)
+                || sql.regionMatches(true, i, "update", 0, 6) || sql.regionMatches(true, i, "delete", 0, 6);
+    }
+
+    private static boolean isParameterPosition(String previous, Deque<Boolean> groups) {
+        if (previous == OPERATOR)
+            return true;
+        return (previous.equals("(") || previous.equals(",")) && Boolean.TRUE.equals(groups.peek());
+    }
+
+    private static Object toNumber(String literal) {
+        if (literal.length() <= 18 && literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0)
+            return Long.valueOf(literal);
+        return new BigDecimal(literal);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-contention counter where the increments from different threads are spread over several
+ * cache line padded cells, and the total is computed only when read, similarly to {@code LongAdder}.
+ * The {@link #sum} is not an atomic snapshot if concurrent updates occur.
+ *
+ * @author Simeon Malchev
+ */
+public final class StripedCounter {
+
+    private static final int PADDING = 8; // the number of longs in a 64 bytes cache line
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        cells.getAndIncrement(index());
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++)
+            sum += cells.get(i * PADDING);
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++)
+            cells.set(i * PADDING, 0);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    static int index() {
+        return (threadHash() & (STRIPES - 1)) * PADDING;
+    }
+
+    /** Returns a well-spread hash of the current thread id, for picking a stripe. */
+    public static int threadHash() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns the number of stripes for the given number of processors: a power of two, at most 64. */
+    public static int stripes(int processors) {
+        int stripes = Integer.highestOneBit(Math.max(processors, 1));
+        return Math.min(stripes < processors ? stripes << 1 : stripes, 64);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.vibur.dbcp.util.StripedCounter.stripes;
+import static org.vibur.dbcp.util.StripedCounter.threadHash;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A lock-free and allocation-free histogram of non-negative {@code long} values, similar in spirit to the
+ * HdrHistogram. The values are counted in logarithmic buckets, where each power of two range is split into
+ * {@link #SUB_BUCKETS} linear sub-buckets, which gives a relative error of the reported percentiles of at most
+ * {@code 1 / SUB_BUCKETS}, for the whole {@code long} range. As in {@link StripedCounter}, the recordings from
+ * different threads are spread over several stripes of buckets, which are merged only when read.
+ *
+ * <p>The histogram has no notion of time; an interval histogram is obtained by taking a {@link #snapshot}
+ * and then calling {@link #reset}. Neither of them is atomic with respect to the concurrent recordings.
+ *
+ * @author Simeon Malchev
+ */
+public final class StripedHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int MAX_STRIPES = 8;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final int SUM = BUCKETS; // the index of the sum of the recorded values in each stripe
+    private static final int STRIPE_LENGTH = BUCKETS + 8; // the sum, plus a cache line padding between the stripes
+
+    private final int stripes;
+    private final AtomicLongArray cells;
+    private final AtomicLong max = new AtomicLong();
+
+    public StripedHistogram() {
+        this(MAX_STRIPES);
+    }
+
+    /**
+     * Creates a histogram with at most {@code maxStripes} stripes. Each stripe takes about 8 KB, and a histogram
+     * with a single stripe can be used where the recordings are not expected to be highly concurrent.
+     *
+     * @param maxStripes the maximum number of stripes, rounded down to a power of two
+     */
+    public StripedHistogram(int maxStripes) {
+        forbidIllegalArgument(maxStripes <= 0);
+        this.stripes = Math.min(STRIPES, Integer.highestOneBit(maxStripes));
+        this.cells = new AtomicLongArray(stripes * STRIPE_LENGTH);
+    }
+
+    /**
+     * Records the given value. Negative values are recorded as {@code 0}.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        int stripe = (threadHash() & (stripes - 1)) * STRIPE_LENGTH;
+        cells.getAndIncrement(stripe + bucket(value));
+        cells.getAndAdd(stripe + SUM, value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+            currentMax = max.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0, sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            int stripe = i * STRIPE_LENGTH;
+            for (int j = 0; j < BUCKETS; j++) {
+                long c = cells.get(stripe + j);
+                counts[j] += c;
+                count += c;
+            }
+            sum += cells.get(stripe + SUM);
+        }
+        return new Snapshot(counts, count, sum, max.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++)
+            cells.set(i, 0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the highest value which is counted in the given bucket. */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowestValue = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lowestValue + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the histogram buckets, taken at the time of the {@link #snapshot} call.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * Returns the value below or at which the given percentage of the recorded values fall, within
+         * the precision of the histogram buckets.
+         *
+         * @param percentile the percentile, between {@code 0} and {@code 100}
+         * @return as above, or {@code 0} if there are no recorded values
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max((long) Math.ceil(Math.min(percentile, 100) / 100 * count), 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highestValue(i), max);
+            }
+            return max; // can happen only if a concurrent recording has been partially copied
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + Math.round(getMean()) + ", p50=" + getValueAtPercentile(50)
+                    + ", p90=" + getValueAtPercentile(90) + ", p99=" + getValueAtPercentile(99)
+                    + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * An approximate counter of the most frequent keys, based on the Space-Saving algorithm. It keeps at most
+ * {@code capacity} keys per stripe; when a new key is added to a full stripe, it replaces the key with the minimal
+ * count and inherits this count as its possible overestimation {@code error}. The keys of each stripe are kept
+ * in a min-heap ordered by their counts, thus an addition takes {@code O(log capacity)} time.
+ *
+ * <p>The additions from different threads are spread over several stripes, each of them guarded by its own lock
+ * which the {@link #add} method only tries to acquire; if the lock is contended the addition is dropped and
+ * accounted in {@link #getDropped}. The stripes are merged when the {@link #top} keys are requested, by
+ * summing up the counts and errors of the same key. Thus, the counts are approximate, but the calling threads
+ * do not serialize on a single lock and never block.
+ *
+ * @author Simeon Malchev
+ * @param <K> the type of the counted keys
+ */
+public final class TopKCounter<K> {
+
+    private static final int MAX_STRIPES = 16;
+
+    public static final class Entry<K> {
+        private final K key;
+        private final long count;
+        private final long error;
+
+        private Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /** The maximal possible overestimation of the count of this key. */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return count + (error > 0 ? " (+/-" + error + ")" : "") + ": " + key;
+        }
+    }
+
+    private final Stripe<K>[] stripes;
+    private final StripedCounter dropped = new StripedCounter();
+
+    public TopKCounter(int capacity) {
+        this(capacity, Math.min(StripedCounter.stripes(Runtime.getRuntime().availableProcessors()), MAX_STRIPES));
+    }
+
+    @SuppressWarnings("unchecked")
+    TopKCounter(int capacity, int stripes) {
+        forbidIllegalArgument(capacity <= 0);
+        forbidIllegalArgument(stripes <= 0 || Integer.bitCount(stripes) != 1);
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++)
+            this.stripes[i] = new Stripe<>(capacity);
+    }
+
+    public void add(K key) {
+        add(key, 1);
+    }
+
+    public void add(K key, long increment) {
+        Stripe<K> stripe = stripes[StripedCounter.threadHash() & (stripes.length - 1)];
+        if (!stripe.lock.tryLock()) {
+            dropped.increment();
+            return;
+        }
+        try {
+            stripe.add(key, increment);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of up to {@code n} keys with the highest counts, in descending order of their counts.
+     */
+    public List<Entry<K>> top(int n) {
+        Map<K, long[]> merged = new HashMap<>();
+        for (Stripe<K> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (int i = 0; i < stripe.size; i++) {
+                    Node<K> node = stripe.heap[i];
+                    long[] countAndError = merged.get(node.key);
+                    if (countAndError == null)
+                        merged.put(node.key, new long[] {node.count, node.error});
+                    else {
+                        countAndError[0] += node.count;
+                        countAndError[1] += node.error;
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        List<Entry<K>> result = new ArrayList<>(merged.size());
+        for (Map.Entry<K, long[]> e : merged.entrySet())
+            result.add(new Entry<>(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        Collections.sort(result, new Comparator<Entry<K>>() {
+            @Override
+            public int compare(Entry<K> e1, Entry<K> e2) {
+                return e1.count < e2.count ? 1 : e1.count > e2.count ? -1 : 0;
+            }
+        });
+        return result.size() > n ? result.subList(0, n) : result;
+    }
+
+    /** Returns the number of additions which were dropped because of contention. */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public void reset() {
+        for (Stripe<K> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        dropped.reset();
+    }
+
+    private static final class Node<K> {
+        private final K key;
+        private long count;
+        private final long error;
+        private int index; // the position of this node in the heap
+
+        private Node(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /** A Space-Saving summary with its keys in a min-heap ordered by count. Guarded by its lock. */
+    private static final class Stripe<K> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<K, Node<K>> nodes = new HashMap<>();
+        private final Node<K>[] heap;
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        private Stripe(int capacity) {
+            heap = new Node[capacity];
+        }
+
+        private void add(K key, long increment) {
+            Node<K> node = nodes.get(key);
+            if (node != null) {
+                node.count += increment;
+                siftDown(node);
+                return;
+            }
+
+            if (size < heap.length) {
+                node = new Node<>(key, increment, 0);
+                node.index = size;
+                heap[size++] = node;
+                nodes.put(key, node);
+                siftUp(node);
+                return;
+            }
+
+            Node<K> min = heap[0];
+            nodes.remove(min.key);
+            node = new Node<>(key, min.count + increment, min.count);
+            node.index = 0;
+            heap[0] = node;
+            nodes.put(key, node);
+            siftDown(node);
+        }
+
+        private void siftUp(Node<K> node) {
+            int i = node.index;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent].count <= node.count)
+                    break;
+                place(heap[parent], i);
+                i = parent;
+            }
+            place(node, i);
+        }
+
+        private void siftDown(Node<K> node) {
+            int i = node.index;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && heap[right].count < heap[child].count)
+                    child = right;
+                if (node.count <= heap[child].count)
+                    break;
+                place(heap[child], i);
+                i = child;
+            }
+            place(node, i);
+        }
+
+        private void place(Node<K> node, int index) {
+            heap[index] = node;
+            node.index = index;
+        }
+
+        private void clear() {
+            for (int i = 0; i < size; i++)
+                heap[i] = null;
+            size = 0;
+            nodes.clear();
+        }
+    }
+}
@@ -19,9 +19,12 @@ package org.vibur.dbcp.util;
 import org.vibur.dbcp.ViburConfig;
 import org.vibur.objectpool.BasePool;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static java.lang.Integer.toHexString;
@@ -52,19 +55,30 @@ public final class ViburUtils {
         return getPoolName(config); // this is one level of recursion only, pool state changes only once
     }
 
+    /**
+     * Returns a new {@code ThreadFactory} which creates daemon threads named {@code namePrefix-N}.
+     *
+     * @param namePrefix the threads name prefix
+     */
+    public static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + '-' + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
     public static String getStackTraceAsString(Pattern logLinePattern, StackTraceElement[] stackTrace) {
         if (stackTrace == null || stackTrace.length == 0)
             return "EMPTY STACK TRACE\n";
 
-        int i;
-        for (i = 0; i < stackTrace.length; i++) {
-            if (!stackTrace[i].getClassName().startsWith("org.vibur")
-                || stackTrace[i].getMethodName().equals("getConnection"))
-                break;
-        }
-
         StringBuilder builder = new StringBuilder(4096);
-        for (i++; i < stackTrace.length; i++) {
+        for (int i = firstApplicationFrame(stackTrace); i < stackTrace.length; i++) {
             String stackTraceStr = stackTrace[i].toString();
             if (logLinePattern == null || logLinePattern.matcher(stackTraceStr).matches())
                 builder.append("  at ").append(stackTraceStr).append('\n');
@@ -72,20 +86,69 @@ public final class ViburUtils {
         return builder.toString();
     }
 
-    public static String formatSql(String sqlQuery, List<Object[]> sqlQueryParams) {
-        StringBuilder result = new StringBuilder(1024).append("-- ").append(sqlQuery);
+    /**
+     * Writes the given stack trace to the given {@code Appendable} in the same format as
+     * {@link #getStackTraceAsString}, but without building an intermediate {@code String}.
+     *
+     * @param out the output
+     * @param logLinePattern the pattern which the written stack trace lines must match, can be {@code null}
+     * @param stackTrace the stack trace
+     * @param maxDepth the maximum number of the written stack trace lines, {@code 0} means no limit
+     * @throws IOException if the output throws such
+     */
+    public static void appendStackTrace(Appendable out, Pattern logLinePattern, StackTraceElement[] stackTrace,
+                                        int maxDepth) throws IOException {
+        if (stackTrace == null || stackTrace.length == 0) {
+            out.append("EMPTY STACK TRACE\n");
+            return;
+        }
 
-        if (sqlQueryParams != null && !sqlQueryParams.isEmpty()) {
-            Object[] params = sqlQueryParams.toArray();
-            Arrays.sort(params, new Comparator<Object>() {
-                @Override
-                public int compare(Object o1, Object o2) {
-                    return Integer.compare((int) ((Object[]) o1)[1], (int) ((Object[]) o2)[1]);
-                }
-            });
+        int written = 0;
+        for (int i = firstApplicationFrame(stackTrace); i < stackTrace.length; i++) {
+            if (maxDepth > 0 && written == maxDepth) {
+                out.append("  ...\n");
+                return;
+            }
+            String stackTraceStr = stackTrace[i].toString();
+            if (logLinePattern == null || logLinePattern.matcher(stackTraceStr).matches()) {
+                out.append("  at ").append(stackTraceStr).append('\n');
+                written++;
+            }
+        }
+    }
 
-            result.append("\n-- Parameters:\n-- ").append(Arrays.deepToString(params));
+    /** Returns the index of the first stack trace element after the Vibur frames and the getConnection() frame. */
+    private static int firstApplicationFrame(StackTraceElement[] stackTrace) {
+        int i;
+        for (i = 0; i < stackTrace.length; i++) {
+            if (!stackTrace[i].getClassName().startsWith("org.vibur")
+                || stackTrace[i].getMethodName().equals("getConnection"))
+                break;
         }
+        return i + 1;
+    }
+
+    public static String formatSql(String sqlQuery, List<Object[]> sqlQueryParams) {
+        StringBuilder result = new StringBuilder(1024).append("-- ").append(sqlQuery);
+
+        if (sqlQueryParams != null && !sqlQueryParams.isEmpty())
+            result.append("\n-- Parameters:\n-- ").append(formatSqlParams(sqlQueryParams.toArray()));
         return result.toString();
     }
+
+    /**
+     * Formats the given SQL query parameters, sorted in place by their parameter index.
+     *
+     * @param params the parameters, each of which is an {@code Object[]} of the setter method name, the parameter
+     *               index, and the parameter value(s)
+     */
+    public static String formatSqlParams(Object[] params) {
+        Arrays.sort(params, new Comparator<Object>() {
+            @Override
+            public int compare(Object o1, Object o2) {
+                return Integer.compare((int) ((Object[]) o1)[1], (int) ((Object[]) o2)[1]);
+            }
+        });
+        return Arrays.deepToString(params);
+    }
 }
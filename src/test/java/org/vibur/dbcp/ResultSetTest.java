@@ -17,15 +17,22 @@
 package org.vibur.dbcp;
 
 import org.junit.Test;
+import org.vibur.dbcp.pool.Hook;
 
 import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Simeon Malchev
@@ -51,4 +58,98 @@ public class ResultSetTest extends AbstractDataSourceTest {
         assertTrue(resultSet.isClosed());
         assertTrue(resultSet.unwrap(ResultSet.class).isClosed());
     }
+
+    @Test
+    public void testThinResultSetIsImplicitlyClosed() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setUseThinProxies(true);
+        ds.setLogLargeResultSet(-1);
+        ds.start();
+        ResultSet resultSet;
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'");
+            assertFalse(Proxy.isProxyClass(resultSet.getClass())); // i.e., that is a ResultSet delegate
+            assertSame(statement, resultSet.getStatement());
+            assertTrue(resultSet.next());
+
+            assertFalse(resultSet.isClosed());
+            assertFalse(resultSet.unwrap(ResultSet.class).isClosed());
+
+        } // the statement is closed here
+
+        assertTrue(resultSet.isClosed());
+        assertTrue(resultSet.unwrap(ResultSet.class).isClosed());
+    }
+
+    @Test
+    public void testThinProxiesWithResultSetRetrievalHook() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setUseThinProxies(true); // logLargeResultSet is enabled by default
+        ds.start();
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'");
+            assertTrue(Proxy.isProxyClass(resultSet.getClass()));
+            assertSame(statement, resultSet.getStatement());
+        }
+    }
+
+    @Test
+    public void testThinResultSetCriticalSQLStateDrainsPool() throws SQLException {
+        // find out the SQLState which the driver reports for an unknown column label
+        ViburDBCPDataSource probeDs = createDataSourceNoStatementsCache();
+        String sqlState = getUnknownColumnSQLState(probeDs);
+        probeDs.close();
+        assertNotNull(sqlState);
+
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setUseThinProxies(true);
+        ds.setLogLargeResultSet(-1);
+        ds.setCriticalSQLStates(sqlState);
+        final AtomicInteger drains = new AtomicInteger();
+        ds.getConnHooks().addOnCriticalDrain(new Hook.CriticalDrain() {
+            @Override
+            public void on(SQLException criticalException, int destroyedConnections) {
+                drains.incrementAndGet();
+            }
+        });
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        Connection rawConnection = connection.unwrap(Connection.class);
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'");
+            assertFalse(Proxy.isProxyClass(resultSet.getClass())); // i.e., that is a ResultSet delegate
+            assertTrue(resultSet.next());
+            try {
+                resultSet.getString("no_such_column");
+                fail("SQLException expected");
+            } catch (SQLException e) {
+                assertEquals(sqlState, e.getSQLState());
+            }
+        }
+        connection.close();
+
+        assertEquals(1, drains.get());
+        assertTrue(rawConnection.isClosed()); // i.e., the connection was not returned to the pool
+        assertEquals(0, ds.getPool().taken());
+    }
+
+    private static String getUnknownColumnSQLState(ViburDBCPDataSource ds) throws SQLException {
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'");
+            assertTrue(resultSet.next());
+            resultSet.getString("no_such_column");
+        } catch (SQLException e) {
+            return e.getSQLState();
+        }
+        return null;
+    }
 }
@@ -24,20 +24,45 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InOrder;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.vibur.dbcp.pool.ConnectionSlots;
+import org.vibur.dbcp.pool.FlightRecordDecoder;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.PoolMetrics;
+import org.vibur.dbcp.pool.QueryStats;
 import org.vibur.dbcp.pool.TakenConnection;
+import org.vibur.dbcp.stcache.AbstractStatementCache;
+import org.vibur.dbcp.stcache.ClhmStatementCache;
+import org.vibur.dbcp.stcache.ConnectionStatementCache;
+import org.vibur.dbcp.stcache.StatementCacheStats;
 import org.vibur.dbcp.stcache.StatementHolder;
 import org.vibur.dbcp.stcache.StatementMethod;
+import org.vibur.dbcp.stcache.TinyLfuStatementCache;
+import org.vibur.dbcp.util.NanoClock;
+import org.vibur.dbcp.util.StripedHistogram;
+import org.vibur.dbcp.util.TopKCounter;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Proxy;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static org.vibur.dbcp.ViburConfig.SQLSTATE_INTERRUPTED_ERROR;
@@ -118,6 +143,50 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         }
     }
 
+    @Test
+    public void testStatementsCacheLookupKeyIsReusedOnCacheHits() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceWithStatementsCache();
+        ConcurrentMap<StatementMethod, StatementHolder> mockedStatementCache = mockStatementCache(ds);
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection);
+            executeAndVerifyPreparedSelectStatement(connection);
+            executeAndVerifyPreparedSelectStatement(connection);
+
+            verify(mockedStatementCache, times(3)).get(key1.capture());
+            verify(mockedStatementCache).putIfAbsent(key2.capture(), val1.capture());
+
+            List<StatementMethod> keys = key1.getAllValues();
+            assertSame(key2.getValue(), keys.get(0)); // the first lookup key became the cache key
+            assertNotSame(keys.get(0), keys.get(1));
+            assertSame(keys.get(1), keys.get(2)); // the cache hits reused the same lookup key
+            assertEquals(1, mockedStatementCache.size());
+        }
+    }
+
+    @Test
+    public void testStatementsCacheStats() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceWithStatementsCache();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection);
+            executeAndVerifyPreparedSelectStatement(connection);
+            executeAndVerifyPreparedSelectStatementByLastName(connection); // evicts the first statement
+
+            assertEquals(1, stats.getHits());
+            assertEquals(2, stats.getMisses());
+            assertEquals(1, stats.getEvictions());
+            assertEquals(1, stats.getCloses());
+            assertEquals(0, stats.getContentions());
+
+            List<TopKCounter.Entry<String>> topPrepared = stats.getTopPrepared(10);
+            assertEquals(2, topPrepared.size());
+            assertEquals("select * from actor where first_name = ?", topPrepared.get(0).getKey());
+            assertEquals(2, topPrepared.get(0).getCount());
+        }
+    }
+
     @Test
     public void testTwoPreparedSelectStatementsWithStatementsCache() throws SQLException {
         ViburDBCPDataSource ds = createDataSourceWithStatementsCache();
@@ -142,6 +211,424 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         }
     }
 
+    @Test
+    public void testNestedPreparedSelectStatementsWithStatementsCache() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.start();
+        ConcurrentMap<StatementMethod, StatementHolder> mockedStatementCache = mockStatementCache(ds);
+
+        String sql = "select * from actor where first_name = ?";
+        try (Connection connection = ds.getConnection()) {
+            PreparedStatement pStatement1 = connection.prepareStatement(sql);
+            PreparedStatement pStatement2 = connection.prepareStatement(sql); // while pStatement1 is in use
+            Statement internalStatement1 = pStatement1.unwrap(Statement.class);
+            Statement internalStatement2 = pStatement2.unwrap(Statement.class);
+            assertNotSame(internalStatement1, internalStatement2);
+            pStatement2.close();
+            pStatement1.close();
+            assertFalse(internalStatement1.isClosed()); // both instances are restored in the cache
+            assertFalse(internalStatement2.isClosed());
+            assertEquals(1, mockedStatementCache.size());
+
+            PreparedStatement pStatement3 = connection.prepareStatement(sql);
+            PreparedStatement pStatement4 = connection.prepareStatement(sql);
+            assertSame(internalStatement1, pStatement3.unwrap(Statement.class));
+            assertSame(internalStatement2, pStatement4.unwrap(Statement.class));
+            pStatement4.close();
+            pStatement3.close();
+        }
+    }
+
+    @Test
+    public void testPreparedSelectStatementWithConnectionStatementCache() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(1);
+        ConnectionStatementCache statementCache = new ConnectionStatementCache(ds.getStatementCacheMaxSize());
+        ds.setStatementCache(statementCache);
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        PreparedStatement pStatement1 = connection.prepareStatement("select * from actor where first_name = ?");
+        Statement internalStatement1 = pStatement1.unwrap(Statement.class);
+        pStatement1.close();
+        assertFalse(internalStatement1.isClosed()); // restored in the cache
+
+        PreparedStatement pStatement2 = connection.prepareStatement("select * from actor where first_name = ?");
+        assertSame(internalStatement1, pStatement2.unwrap(Statement.class)); // a cache hit
+        pStatement2.close();
+        assertEquals(1, statementCache.size());
+
+        executeAndVerifyPreparedSelectStatementByLastName(connection);
+        assertTrue(internalStatement1.isClosed()); // evicted because the cache capacity is set to 1
+        assertEquals(1, statementCache.size());
+
+        ds.severConnection(connection);
+        assertEquals(0, statementCache.size());
+    }
+
+    @Test
+    public void testPreparedSelectStatementWithTinyLfuStatementCache() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCache(new TinyLfuStatementCache(ds.getStatementCacheMaxSize()));
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        PreparedStatement pStatement1 = connection.prepareStatement("select * from actor where first_name = ?");
+        Statement internalStatement1 = pStatement1.unwrap(Statement.class);
+        pStatement1.close();
+        assertFalse(internalStatement1.isClosed()); // restored in the cache
+
+        executeAndVerifyPreparedSelectStatement(connection);
+        PreparedStatement pStatement2 = connection.prepareStatement("select * from actor where first_name = ?");
+        assertSame(internalStatement1, pStatement2.unwrap(Statement.class)); // a cache hit
+        pStatement2.close();
+
+        ds.severConnection(connection);
+        assertTrue(internalStatement1.isClosed());
+    }
+
+    @Test
+    public void testStatementsCacheWarmUpOfReplacementConnection() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheWarmUpSize(5);
+        ds.start();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        Connection connection = ds.getConnection();
+        executeAndVerifyPreparedSelectStatement(connection);
+        executeAndVerifyPreparedSelectStatement(connection);
+        ds.severConnection(connection); // the warmer learns the connection's cached statements
+        assertEquals(1, stats.getMisses());
+
+        connection = ds.getConnection(); // a replacement connection, handed straight to this thread
+        connection.close(); // the warm-up starts when the connection is restored to the pool
+        for (int i = 0; i < 100 && stats.getMisses() < 2; i++)
+            Thread.sleep(10);
+        assertEquals(2, stats.getMisses()); // the learned statement was prepared on the replacement connection
+
+        try (Connection connection2 = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection2);
+        }
+        assertEquals(2, stats.getMisses()); // a cache hit
+    }
+
+    @Test
+    public void testStatementsCacheWarmUpSkipsNonPooledConnections() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheWarmUpSize(5);
+        ds.start();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        Connection connection = ds.getConnection();
+        executeAndVerifyPreparedSelectStatement(connection);
+        ds.severConnection(connection); // the warmer learns the connection's cached statements
+
+        ds.getNonPooledConnection().close(); // must not consume the learned statements
+        assertEquals(1, stats.getMisses());
+
+        ds.getConnection().close(); // a replacement pooled connection, warmed up when restored to the pool
+        for (int i = 0; i < 100 && stats.getMisses() < 2; i++)
+            Thread.sleep(10);
+        assertEquals(2, stats.getMisses());
+    }
+
+    @Test
+    public void testStatementsCacheWarmUpFromFileOnStart() throws SQLException, IOException {
+        File warmUpFile = File.createTempFile("vibur-warm-up", ".txt");
+        warmUpFile.deleteOnExit();
+        assertTrue(warmUpFile.delete());
+
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheWarmUpSize(5);
+        ds.setStatementCacheWarmUpFile(warmUpFile.getPath());
+        ds.start();
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection);
+        }
+        ds.terminate(); // writes the warm-up file
+        assertTrue(warmUpFile.exists());
+
+        ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheWarmUpSize(5);
+        ds.setStatementCacheWarmUpFile(warmUpFile.getPath());
+        ds.start(); // prepares the statement from the file on each initial connection
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+        assertEquals(POOL_INITIAL_SIZE, stats.getMisses());
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection);
+        }
+        assertEquals(1, stats.getHits());
+        assertEquals(POOL_INITIAL_SIZE, stats.getMisses());
+    }
+
+    @Test
+    public void testStatementsCacheAsyncCloseOfEvictedStatements() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(1);
+        ds.setStatementCacheAsyncClose(true);
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        PreparedStatement pStatement1 = connection.prepareStatement("select * from actor where first_name = ?");
+        Statement internalStatement1 = pStatement1.unwrap(Statement.class);
+        pStatement1.close();
+        executeAndVerifyPreparedSelectStatementByLastName(connection); // evicts the first statement
+        assertFalse(internalStatement1.isClosed()); // not closed while the connection is taken
+
+        connection.close();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+        for (int i = 0; i < 100 && stats.getCloses() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, stats.getCloses());
+        assertTrue(internalStatement1.isClosed()); // closed in the background after the connection is restored
+    }
+
+    @Test
+    public void testStatementsCacheExpiresIdleStatements() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.start();
+        AbstractStatementCache statementCache = (AbstractStatementCache) ds.getStatementCache();
+
+        try (Connection connection = ds.getConnection()) {
+            PreparedStatement pStatement = connection.prepareStatement("select * from actor where first_name = ?");
+            Statement internalStatement = pStatement.unwrap(Statement.class);
+            pStatement.close();
+
+            assertEquals(0, statementCache.expireIdle(1)); // used during the previous epoch
+            assertFalse(internalStatement.isClosed());
+            assertEquals(1, statementCache.expireIdle(1));
+            assertTrue(internalStatement.isClosed());
+            assertEquals(1, statementCache.getStats().getEvictions());
+        }
+    }
+
+    @Test
+    public void testStatementsCacheMaxBytes() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheMaxBytes(ClhmStatementCache.ESTIMATED_STATEMENT_FOOTPRINT + 1000); // fits one statement
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifyPreparedSelectStatement(connection);
+            executeAndVerifyPreparedSelectStatementByLastName(connection); // evicts the first statement
+        }
+        assertEquals(1, ((AbstractStatementCache) ds.getStatementCache()).getStats().getEvictions());
+    }
+
+    @Test(expected = ViburDBCPException.class)
+    public void testStatementsCacheMaxBytesWithCustomCache() {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCache(new ConnectionStatementCache(10)); // cannot enforce the memory budget
+        ds.setStatementCacheMaxBytes(ClhmStatementCache.ESTIMATED_STATEMENT_FOOTPRINT + 1000);
+        ds.start();
+    }
+
+    @Test
+    public void testAutoParameterizedSimpleStatements() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setAutoParameterizeStatements(true);
+        ds.start();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifySelectStatement(connection); // the string literals are not parameterized
+            assertEquals(0, stats.getMisses());
+
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery("select * from actor where actor_id = 10");
+                assertSame(statement, resultSet.getStatement());
+                assertTrue(resultSet.next());
+                assertEquals("GABLE", resultSet.getString("last_name"));
+                assertEquals(-1, statement.getUpdateCount()); // forwarded to the parameterized PreparedStatement
+                assertNotNull(statement.getResultSet());
+                assertFalse(statement.getMoreResults());
+            }
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery("select * from actor where actor_id = 58");
+                assertTrue(resultSet.next()); // the same parameterized query is served from the cache
+                assertEquals("AKROYD", resultSet.getString("last_name"));
+            }
+        }
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getHits());
+        assertEquals("select * from actor where actor_id = ?", stats.getTopPrepared(1).get(0).getKey());
+    }
+
+    @Test
+    public void testAutoParameterizedSimpleStatementsSkippedInTransaction() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setAutoParameterizeStatements(true);
+        ds.start();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        try (Connection connection = ds.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery("select * from actor where actor_id = 10");
+                assertTrue(resultSet.next());
+                assertEquals("GABLE", resultSet.getString("last_name"));
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+        assertEquals(0, stats.getMisses()); // executed as is via the simple Statement
+    }
+
+    @Test
+    public void testInListBucketing() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setInListBucketing(true);
+        ds.start();
+        StatementCacheStats stats = ((AbstractStatementCache) ds.getStatementCache()).getStats();
+
+        try (Connection connection = ds.getConnection()) {
+            try (PreparedStatement pStatement = connection.prepareStatement(
+                    "select * from actor where first_name in (?, ?, ?) and last_name <> ?")) {
+                pStatement.setString(1, "NONE");
+                pStatement.setString(2, "NOBODY");
+                pStatement.setString(3, "CHRISTIAN"); // padded with one more CHRISTIAN parameter
+                pStatement.setString(4, "GABLE");
+                ResultSet resultSet = pStatement.executeQuery();
+                Set<String> expectedLastNames = new HashSet<>(Arrays.asList("AKROYD", "NEESON"));
+                while (resultSet.next())
+                    assertTrue(expectedLastNames.remove(resultSet.getString("last_name")));
+                assertTrue(expectedLastNames.isEmpty());
+            }
+
+            try (PreparedStatement pStatement = connection.prepareStatement(
+                    "select * from actor where first_name in (?, ?, ?, ?) and last_name <> ?")) {
+                assertEquals(1, stats.getHits()); // the same padded query
+            }
+        }
+        assertEquals(1, stats.getMisses());
+    }
+
+    @Test
+    public void testInListBucketingWithStreamParameters() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setInListBucketing(true);
+        ds.start();
+
+        try (Connection connection = ds.getConnection();
+             PreparedStatement pStatement = connection.prepareStatement(
+                     "select * from actor where first_name in (?, ?, ?) and last_name <> ?")) {
+            pStatement.setString(1, "NONE");
+            pStatement.setAsciiStream(2, new ByteArrayInputStream("NOBODY".getBytes(US_ASCII)), 6);
+            // the reader can be read only once, but is padded with one more CHRISTIAN parameter
+            pStatement.setCharacterStream(3, new StringReader("CHRISTIAN"));
+            pStatement.setCharacterStream(4, new StringReader("GABLE")); // not padded
+            ResultSet resultSet = pStatement.executeQuery();
+            Set<String> expectedLastNames = new HashSet<>(Arrays.asList("AKROYD", "NEESON"));
+            while (resultSet.next())
+                assertTrue(expectedLastNames.remove(resultSet.getString("last_name")));
+            assertTrue(expectedLastNames.isEmpty());
+        }
+    }
+
+    @Test
+    public void testPoolMetrics() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setEnableMetrics(true);
+        ds.start();
+        PoolMetrics metrics = ds.getPoolMetrics();
+        assertEquals(ds.getPoolInitialSize(), metrics.getConnectionCreate().snapshot().getCount());
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'")) {
+                while (resultSet.next())
+                    assertNotNull(resultSet.getString("last_name"));
+            }
+        }
+        assertEquals(1, metrics.getConnectionWait().snapshot().getCount());
+        assertEquals(1, metrics.getConnectionHold().snapshot().getCount());
+        assertEquals(1, metrics.getStatementExecution().snapshot().getCount());
+        StripedHistogram.Snapshot resultSetSize = metrics.getResultSetSize().snapshot();
+        assertEquals(1, resultSetSize.getCount());
+        assertEquals(3, resultSetSize.getValueAtPercentile(50));
+        assertEquals(3, resultSetSize.getMax());
+
+        metrics.reset();
+        assertEquals(0, metrics.getConnectionWait().snapshot().getCount());
+        assertEquals(0, metrics.getResultSetSize().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testQueryStats() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setQueryStatsMaxSize(10);
+        ds.start();
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String firstName : Arrays.asList("'CHRISTIAN'", "  'CHRISTIAN' -- again")) {
+                try (ResultSet resultSet = statement.executeQuery("select * from actor where first_name = " + firstName)) {
+                    while (resultSet.next())
+                        assertNotNull(resultSet.getString("last_name"));
+                }
+            }
+            try {
+                statement.executeQuery("select * from no_such_table where id in (1, 2, 3)");
+                fail("SQLException expected");
+            } catch (SQLException ignored) {
+            }
+        }
+
+        List<QueryStats.Entry> top = ds.getQueryStats().snapshot();
+        assertEquals(2, top.size());
+        QueryStats.Entry actor = top.get(0).getCalls() == 2 ? top.get(0) : top.get(1);
+        assertEquals("select * from actor where first_name = ?", actor.getFingerprint());
+        assertEquals(0, actor.getErrors());
+        assertEquals(6, actor.getRows());
+        assertTrue(actor.getMinNanos() <= actor.getMaxNanos());
+        QueryStats.Entry failed = top.get(0) == actor ? top.get(1) : top.get(0);
+        assertEquals("select * from no_such_table where id in (?)", failed.getFingerprint());
+        assertEquals(1, failed.getCalls());
+        assertEquals(1, failed.getErrors());
+
+        ds.getQueryStats().reset();
+        assertTrue(ds.getQueryStats().snapshot().isEmpty());
+    }
+
+    @Test
+    public void testAsyncEventLogging() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setAsyncLogQueueSize(2);
+        ds.setLogQueryExecutionLongerThanMs(0);
+        ds.setLogLargeResultSet(0);
+        ds.start();
+
+        int executions = 50;
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (int i = 0; i < executions; i++) {
+                try (ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'")) {
+                    while (resultSet.next())
+                        assertNotNull(resultSet.getString("last_name"));
+                }
+            }
+        }
+
+        assertNotNull(ds.getAsyncEventLogger()); // the logged JSON lines are verified in AsyncEventLoggerTest
+    }
+
     @Test
     public void testExceptionOnOneConnectionDoesNotImpactOtherConnections() throws SQLException {
         ViburDBCPDataSource ds = createDataSourceNoStatementsCache();
@@ -257,6 +744,22 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         assertEquals(createdTotal - 1, ds.getPool().createdTotal());
     }
 
+    @Test
+    public void testSeverPooledConnectionRemovesItsCachedStatements() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceWithStatementsCache();
+        ConcurrentMap<StatementMethod, StatementHolder> mockedStatementCache = mockStatementCache(ds);
+
+        Connection connection = ds.getConnection();
+        executeAndVerifyPreparedSelectStatement(connection);
+        verify(mockedStatementCache).putIfAbsent(key1.capture(), val1.capture());
+        assertEquals(1, mockedStatementCache.size());
+
+        ds.severConnection(connection);
+        verify(mockedStatementCache).remove(key1.getValue(), val1.getValue());
+        assertEquals(0, mockedStatementCache.size());
+        assertTrue(val1.getValue().rawStatement().isClosed());
+    }
+
     @Test
     public void testSeverNonPooledConnection() throws SQLException {
         ViburDBCPDataSource ds = createDataSourceNoStatementsCache();
@@ -291,6 +794,82 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         connection.close();
     }
 
+    @Test
+    public void testConnectionSlots() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceWithTracking();
+        ConnectionSlots slots = ds.getConnectionSlots();
+        assertEquals(ds.getPoolMaxSize(), slots.capacity());
+
+        int slot;
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertNotNull(statement);
+            slot = takenSlot(slots);
+            assertTrue(slot >= 0);
+            assertTrue(slots.takenNanoTime(slot) > 0);
+            assertTrue(slots.lastAccessNanoTime(slot) >= slots.takenNanoTime(slot)); // set by createStatement()
+            assertEquals(1, slots.uses(slot));
+        }
+
+        assertFalse(slots.isTaken(slot));
+        assertEquals(0, slots.takenNanoTime(slot));
+        assertTrue(slots.busyNanos(slot) > 0);
+        assertEquals(0, slots.errors(slot));
+    }
+
+    @Test
+    public void testCoarseClock() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolEnableConnectionTracking(true);
+        ds.setClockResolutionInMs(1);
+        ds.start();
+
+        assertTrue(ds.getClock() instanceof NanoClock.Coarse);
+        long before = ds.getClock().nanoTime();
+        MILLISECONDS.sleep(20);
+        assertTrue(ds.getClock().nanoTime() > before);
+        assertTrue(ds.getClock().nanoTime() <= System.nanoTime());
+
+        try (Connection connection = ds.getConnection()) {
+            TakenConnection[] takenConnections = ds.getTakenConnections();
+            assertEquals(1, takenConnections.length);
+            assertSame(connection, takenConnections[0].getProxyConnection());
+            assertTrue(takenConnections[0].getTakenNanoTime() <= System.nanoTime());
+        }
+    }
+
+    private static int takenSlot(ConnectionSlots slots) {
+        int result = -1;
+        for (int slot = 0; slot < slots.capacity(); slot++) {
+            if (slots.isTaken(slot)) {
+                assertEquals(-1, result);
+                result = slot;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testWriteTakenConnectionsStackTraces() throws SQLException, IOException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolEnableConnectionTracking(true);
+        ds.setTakenConnectionsFormatterMaxConnections(1);
+        ds.setTakenConnectionsFormatterMaxStackDepth(2);
+        ds.start();
+
+        try (Connection c1 = ds.getConnection();
+             Connection c2 = ds.getConnection()) {
+            StringWriter out = new StringWriter();
+            ds.writeTakenConnectionsStackTraces(out);
+            String text = out.toString();
+
+            assertTrue(text.startsWith("\n============\n(1/2), "));
+            assertTrue(text.contains("\n  ...\n"));
+            assertTrue(text.endsWith("... and 1 more taken connections\n"));
+            assertTrue(ds.getTakenConnectionsStackTraces().endsWith("... and 1 more taken connections\n"));
+        }
+    }
+
     @Test
     public void testLogTakenConnectionsOnTimeout() throws SQLException {
         ViburDBCPDataSource ds = createDataSourceNotStarted();
@@ -311,6 +890,143 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         }
     }
 
+    @Test
+    public void testTakenConnectionsSnapshotIsSharedOnTimeout() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(10);
+        ds.setPoolEnableConnectionTracking(true);
+        ds.setTakenConnectionsSnapshotIntervalInMs(60000);
+        final List<TakenConnection[]> snapshots = new ArrayList<>();
+        ds.getConnHooks().addOnTimeout(new Hook.GetConnectionTimeout() {
+            @Override
+            public void on(TakenConnection[] takenConnections, long takenNanos) {
+                snapshots.add(takenConnections);
+            }
+        });
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            for (int i = 0; i < 3; i++) {
+                try {
+                    ds.getConnection();
+                    fail("SQLTimeoutException expected");
+                } catch (SQLTimeoutException ignored) {
+                }
+            }
+        }
+
+        assertEquals(3, snapshots.size());
+        assertEquals(1, snapshots.get(0).length);
+        assertNotSame(snapshots.get(0), snapshots.get(1)); // each hook call gets its own copy of the shared snapshot
+        assertArrayEquals(snapshots.get(0), snapshots.get(1));
+        assertArrayEquals(snapshots.get(0), snapshots.get(2));
+    }
+
+    @Test
+    public void testConcurrentTimeoutsReceiveTakenConnectionsSnapshot() throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(10);
+        ds.setPoolEnableConnectionTracking(true);
+        ds.setTakenConnectionsSnapshotIntervalInMs(60000);
+        final List<Integer> snapshotSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        ds.getConnHooks().addOnTimeout(new Hook.GetConnectionTimeout() {
+            @Override
+            public void on(TakenConnection[] takenConnections, long takenNanos) {
+                snapshotSizes.add(takenConnections.length);
+            }
+        });
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            ds.getConnection();
+                        } catch (InterruptedException | SQLException ignored) {
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            start.countDown();
+            for (Thread thread : threads)
+                thread.join(5000);
+        }
+
+        assertEquals(8, snapshotSizes.size());
+        for (int size : snapshotSizes)
+            assertEquals(1, size); // none of the coalesced timeouts receives an empty snapshot
+    }
+
+    @Test
+    public void testFlightRecorderDumpOnTimeout() throws SQLException, IOException {
+        File dumpFile = File.createTempFile("vibur-flight-recorder", ".bin");
+        dumpFile.deleteOnExit();
+
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(10);
+        ds.setFlightRecorderSize(1024);
+        ds.setFlightRecorderDumpFile(dumpFile.getPath());
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifySelectStatement(connection);
+            try {
+                ds.getConnection();
+                fail("SQLTimeoutException expected");
+            } catch (SQLTimeoutException ignored) {
+            }
+        }
+
+        ByteArrayOutputStream timeline = new ByteArrayOutputStream();
+        assertEquals(5, FlightRecordDecoder.decode(dumpFile.toPath(), new PrintStream(timeline, true)));
+        String[] events = timeline.toString().split("\n");
+        assertTrue(events[0].contains(" CREATE "));
+        assertTrue(events[1].contains(" TAKE "));
+        assertTrue(events[2].contains(" EXECUTE_START "));
+        assertTrue(events[3].contains(" EXECUTE_END "));
+        assertTrue(events[4].contains(" TIMEOUT "));
+    }
+
+    @Test
+    public void testPoolTimeoutsAndWaitersAreCounted() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(10);
+        ds.setEnableMetrics(true);
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    ds.getConnection();
+                    fail("SQLTimeoutException expected");
+                } catch (SQLTimeoutException ignored) {
+                }
+            }
+            assertEquals(0, ds.getPoolWaiters());
+        }
+        assertEquals(2, ds.getPoolTimeouts());
+        ds.terminate();
+
+        ds = createDataSourceNotStarted();
+        ds.start();
+        assertEquals(-1, ds.getPoolWaiters()); // not counted as enableMetrics is not set
+        assertEquals(0, ds.getPoolTimeouts());
+    }
+
     @Test
     public void testInterruptedWhileGettingConnection() {
         ViburDBCPDataSource ds = createDataSourceWithTracking();
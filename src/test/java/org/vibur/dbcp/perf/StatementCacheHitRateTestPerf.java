@@ -0,0 +1,129 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.perf;
+
+import org.vibur.dbcp.stcache.ClhmStatementCache;
+import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.dbcp.stcache.StatementHolder;
+import org.vibur.dbcp.stcache.StatementMethod;
+import org.vibur.dbcp.stcache.StatementMethod.StatementCreator;
+import org.vibur.dbcp.stcache.TinyLfuStatementCache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the hit rates of the statement cache implementations on a skewed (Zipf distributed) trace of
+ * OLTP statements, which is periodically interrupted by bursts of one-off reporting statements.
+ *
+ * @author Simeon Malchev
+ */
+public class StatementCacheHitRateTestPerf {
+
+    // cache metrics:
+    private static final int CACHE_MAX_SIZE = 200;
+
+    // trace metrics:
+    private static final int HOT_STATEMENTS = 2000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int OPERATIONS = 1_000_000;
+    private static final int SCAN_EVERY = 10_000;
+    private static final int SCAN_LENGTH = 500;
+
+    public static void main(String[] args) throws SQLException, NoSuchMethodException {
+
+        // Generates a trace of OPERATIONS prepareStatement(sql) calls where the sql is one of HOT_STATEMENTS
+        // Zipf distributed statements, and where after every SCAN_EVERY calls there is a burst of SCAN_LENGTH
+        // unique one-off statements. Replays the trace against each statement cache and reports its hit rate.
+
+        String[] trace = generateTrace(new Random(42));
+
+        for (StatementCache statementCache : Arrays.asList(
+                new ClhmStatementCache(CACHE_MAX_SIZE), new TinyLfuStatementCache(CACHE_MAX_SIZE))) {
+
+            long misses = replay(trace, statementCache);
+            System.out.println(String.format("%s: hit rate %.2f%%, misses %d of %d.",
+                    statementCache.getClass().getSimpleName(),
+                    (trace.length - misses) * 100.0 / trace.length, misses, trace.length));
+            statementCache.close();
+        }
+    }
+
+    private static long replay(String[] trace, StatementCache statementCache)
+            throws SQLException, NoSuchMethodException {
+
+        Connection rawConnection = newDummy(Connection.class);
+        Method prepareStatement = Connection.class.getMethod("prepareStatement", String.class);
+        final long[] created = {0};
+        StatementCreator statementCreator = new StatementCreator() {
+            @Override
+            public PreparedStatement newStatement(Method method, Object[] args) {
+                created[0]++;
+                return newDummy(PreparedStatement.class);
+            }
+        };
+
+        for (String sql : trace) {
+            StatementHolder statement = statementCache.take(
+                    new StatementMethod(rawConnection, statementCreator, prepareStatement, new Object[] {sql}));
+            if (!statementCache.restore(statement, false))
+                statement.rawStatement().close();
+        }
+        return created[0];
+    }
+
+    private static String[] generateTrace(Random random) {
+        double[] cdf = new double[HOT_STATEMENTS];
+        double sum = 0;
+        for (int i = 0; i < HOT_STATEMENTS; i++)
+            cdf[i] = sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+        for (int i = 0; i < HOT_STATEMENTS; i++)
+            cdf[i] /= sum;
+
+        String[] trace = new String[OPERATIONS];
+        int oneOff = 0;
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (i % SCAN_EVERY >= SCAN_EVERY - SCAN_LENGTH)
+                trace[i] = "select * from report_" + oneOff++ + " where id = ?";
+            else {
+                int idx = Arrays.binarySearch(cdf, random.nextDouble());
+                trace[i] = "select * from table_" + (idx >= 0 ? idx : -idx - 1) + " where id = ?";
+            }
+        }
+        return trace;
+    }
+
+    private static <T> T newDummy(Class<T> iface) {
+        return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] {iface},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("hashCode"))
+                            return System.identityHashCode(proxy);
+                        if (method.getName().equals("equals"))
+                            return proxy == args[0];
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                    }
+                }));
+    }
+}
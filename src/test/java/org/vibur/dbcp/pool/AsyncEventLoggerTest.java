@@ -0,0 +1,160 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.After;
+import org.junit.Test;
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.objectpool.PoolService;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class AsyncEventLoggerTest {
+
+    private static final long TAKEN_NANOS = 3_012_345_678L;
+
+    private AsyncEventLogger eventLogger;
+
+    @After
+    public void terminate() {
+        if (eventLogger != null)
+            eventLogger.terminate();
+    }
+
+    @Test
+    public void testLogsJsonLines() throws InterruptedException {
+        CollectingSink sink = new CollectingSink(null);
+        eventLogger = new AsyncEventLogger(newConfig("p\"1"), 16, sink);
+        String thread = Thread.currentThread().getName();
+
+        List<Object[]> params = new ArrayList<>();
+        params.add(new Object[] {"setInt", 2, 5});
+        params.add(new Object[] {"setString", 1, "x"});
+        eventLogger.logSlowQuery("select * from t where a = ? and b = ?", params, TAKEN_NANOS, false);
+        eventLogger.logQueryException("drop table t", null, 1_500, new SQLException("boom", "08001"));
+        eventLogger.logLargeResultSet("select * from t", null, 42, 25_000_000, false);
+
+        assertEquals("{\"event\":\"slow_query\",\"pool\":\"p\\\"1\",\"taken\":3,\"remainingCreated\":2,\"maxSize\":10,"
+                + "\"thread\":\"" + thread + "\",\"durationMs\":3012.345,\"sql\":\"select * from t where a = ? and b = ?\","
+                + "\"params\":\"[[setString, 1, x], [setInt, 2, 5]]\"}", sink.next());
+        assertEquals("{\"event\":\"query_exception\",\"pool\":\"p\\\"1\",\"taken\":3,\"remainingCreated\":2,\"maxSize\":10,"
+                + "\"thread\":\"" + thread + "\",\"durationMs\":0.001,\"sql\":\"drop table t\","
+                + "\"exception\":\"java.sql.SQLException: boom\",\"sqlState\":\"08001\"}", sink.next());
+        assertEquals("{\"event\":\"large_result_set\",\"pool\":\"p\\\"1\",\"taken\":3,\"remainingCreated\":2,\"maxSize\":10,"
+                + "\"thread\":\"" + thread + "\",\"durationMs\":25.000,\"sql\":\"select * from t\",\"rows\":42}", sink.next());
+        assertEquals(Arrays.asList(AsyncEventLogger.Type.SLOW_QUERY, AsyncEventLogger.Type.QUERY_EXCEPTION,
+                AsyncEventLogger.Type.LARGE_RESULT_SET), sink.types);
+        assertTrue(sink.lines.isEmpty());
+        assertEquals(0, eventLogger.getDropped());
+    }
+
+    @Test
+    public void testReportsDroppedEvents() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingSink sink = new CollectingSink(release);
+        eventLogger = new AsyncEventLogger(newConfig("p1"), 2, sink);
+
+        eventLogger.logSlowQuery("select 1", null, TAKEN_NANOS, false);
+        assertTrue(sink.blocked.await(5, SECONDS)); // the logging thread is blocked in the sink, and the queue is empty
+        for (int i = 2; i <= 6; i++)
+            eventLogger.logSlowQuery("select " + i, null, TAKEN_NANOS, false); // the last 3 do not fit in the queue
+        assertEquals(3, eventLogger.getDropped());
+        release.countDown();
+
+        assertFalse(sink.next().contains("\"dropped\""));
+        String second = sink.next();
+        assertTrue(second, second.contains("\"sql\":\"select 2\"") && second.endsWith(",\"dropped\":3}"));
+        String third = sink.next();
+        assertTrue(third, third.contains("\"sql\":\"select 3\"") && !third.contains("\"dropped\""));
+        assertNull(sink.lines.poll(100, MILLISECONDS));
+    }
+
+    private static ViburDBCPDataSource newConfig(final String name) {
+        final PoolService<?> pool = (PoolService<?>) Proxy.newProxyInstance(PoolService.class.getClassLoader(),
+                new Class<?>[] {PoolService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "taken": return 3;
+                            case "remainingCreated": return 2;
+                            case "maxSize": return 10;
+                            case "isTerminated": return false;
+                            default: return null;
+                        }
+                    }
+                });
+        return new ViburDBCPDataSource() {
+            {
+                setName(name);
+                setPool(poolOf(pool));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PoolService<ConnHolder> poolOf(PoolService<?> pool) {
+        return (PoolService<ConnHolder>) pool;
+    }
+
+    /** Collects the logged lines without their timestamps; optionally blocks on the first line until released. */
+    private static final class CollectingSink implements AsyncEventLogger.Sink {
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final List<AsyncEventLogger.Type> types = new ArrayList<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private CollectingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void log(AsyncEventLogger.Type type, String json) {
+            types.add(type);
+            lines.add(json.replaceFirst("\"timestamp\":\\d+,", ""));
+            if (release != null && blocked.getCount() > 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private String next() throws InterruptedException {
+            String line = lines.poll(5, SECONDS);
+            assertNotNull("no logged line within 5 seconds", line);
+            return line;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.pool.PoolTestUtils.newConnHolder;
+import static org.vibur.dbcp.util.JdbcStubs.newConnection;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ConnHolderTest {
+
+    @Test
+    public void testBackgroundUseOnlyWhileIdle() {
+        ConnHolder connHolder = newConnHolder(newConnection());
+        assertFalse(connHolder.isIdle());
+        assertFalse(connHolder.beginBackgroundUse());
+
+        connHolder.markIdle();
+        assertTrue(connHolder.isIdle());
+        assertTrue(connHolder.beginBackgroundUse());
+        assertFalse(connHolder.beginBackgroundUse()); // only one background thread at a time
+        assertTrue(connHolder.isIdle());
+        connHolder.endBackgroundUse();
+
+        connHolder.markTaken();
+        assertFalse(connHolder.isIdle());
+        assertFalse(connHolder.beginBackgroundUse());
+        connHolder.markTaken(); // already taken
+        assertFalse(connHolder.isIdle());
+    }
+
+    @Test
+    public void testMarkTakenWaitsForTheBackgroundUse() throws InterruptedException {
+        final ConnHolder connHolder = newConnHolder(newConnection());
+        connHolder.markIdle();
+        assertTrue(connHolder.beginBackgroundUse());
+
+        final AtomicBoolean inBackgroundUse = new AtomicBoolean(true);
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final CountDownLatch taken = new CountDownLatch(1);
+        Thread taker = new Thread() {
+            @Override
+            public void run() {
+                connHolder.markTaken();
+                overlapped.set(inBackgroundUse.get());
+                taken.countDown();
+            }
+        };
+        taker.start();
+
+        assertFalse(taken.await(50, TimeUnit.MILLISECONDS));
+        inBackgroundUse.set(false);
+        connHolder.endBackgroundUse();
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        assertFalse(connHolder.isIdle());
+        assertFalse(connHolder.beginBackgroundUse());
+    }
+
+    @Test
+    public void testMarkTakenParksWhileWaiting() throws InterruptedException {
+        final ConnHolder connHolder = newConnHolder(newConnection());
+        connHolder.markIdle();
+        assertTrue(connHolder.beginBackgroundUse());
+
+        Thread taker = new Thread() {
+            @Override
+            public void run() {
+                connHolder.markTaken();
+            }
+        };
+        taker.start();
+
+        for (int i = 0; i < 500 && taker.getState() != Thread.State.WAITING; i++)
+            Thread.sleep(10);
+        assertEquals(Thread.State.WAITING, taker.getState()); // parked instead of spinning
+
+        connHolder.endBackgroundUse();
+        taker.join(5000);
+        assertFalse(taker.isAlive());
+        assertFalse(connHolder.isIdle());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.pool.PoolTestUtils.newConnHolder;
+import static org.vibur.dbcp.util.JdbcStubs.newConnection;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ConnectionSlotsTest {
+
+    @Test
+    public void testSlotsAreReused() {
+        ConnectionSlots slots = new ConnectionSlots(2);
+        ConnHolder first = newPooledConnHolder(slots);
+        ConnHolder second = newPooledConnHolder(slots);
+        assertEquals(0, first.slot());
+        assertEquals(1, second.slot());
+        assertSame(first, slots.holder(0));
+
+        first.releaseSlot();
+        assertNull(slots.holder(0));
+        assertEquals(0, newPooledConnHolder(slots).slot());
+    }
+
+    @Test
+    public void testTakenConnectionsBeyondCapacityAreTrackedInOverflow() {
+        ConnectionSlots slots = new ConnectionSlots(1);
+        ConnHolder old = newPooledConnHolder(slots); // e.g. a taken connection of the previous generation
+        ConnHolder replacement = newPooledConnHolder(slots);
+        assertEquals(0, old.slot());
+        assertEquals(-1, replacement.slot());
+
+        take(old);
+        take(replacement);
+        assertTrue(slots.isTaken(0));
+        assertEquals(1, slots.overflowTaken());
+        assertEquals(2, slots.getTakenConnections().length);
+        assertTrue(replacement.getTakenNanoTime() > 0); // kept in its own fields
+
+        replacement.setTaken(false);
+        assertEquals(0, slots.overflowTaken());
+        take(replacement);
+        replacement.releaseSlot(); // destroyed while taken
+        assertEquals(0, slots.overflowTaken());
+        assertEquals(1, slots.getTakenConnections().length);
+    }
+
+    private static ConnHolder newPooledConnHolder(ConnectionSlots slots) {
+        ConnHolder connHolder = newConnHolder(newConnection());
+        connHolder.allocateSlot(slots);
+        return connHolder;
+    }
+
+    private static void take(ConnHolder connHolder) {
+        connHolder.setThread(Thread.currentThread());
+        connHolder.setTakenNanoTime(System.nanoTime());
+        connHolder.setTaken(true);
+    }
+}
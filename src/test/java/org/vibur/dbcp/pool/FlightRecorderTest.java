@@ -0,0 +1,104 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.pool.FlightRecorder.EVENT_LONGS;
+import static org.vibur.dbcp.pool.FlightRecorder.Event.EXECUTE_END;
+import static org.vibur.dbcp.pool.FlightRecorder.Event.TAKE;
+import static org.vibur.dbcp.pool.FlightRecorder.HEADER_LONGS;
+
+/**
+ * @author Simeon Malchev
+ */
+public class FlightRecorderTest {
+
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new FlightRecorder(1000, 4).capacity());
+        assertEquals(4, new FlightRecorder(3, 8).capacity());
+        assertEquals(1, new FlightRecorder(1, 1).capacity());
+    }
+
+    @Test
+    public void testRecordAndDecode() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(8, 1);
+        recorder.record(TAKE, 1, 0);
+        recorder.record(EXECUTE_END, 1, 2_000_000);
+        recorder.record(EXECUTE_END, 1, -3_000_000);
+
+        Path file = Files.createTempFile("vibur-flight-recorder", ".bin");
+        try {
+            assertEquals(3, recorder.dump(file));
+            ByteArrayOutputStream timeline = new ByteArrayOutputStream();
+            assertEquals(3, FlightRecordDecoder.decode(file, new PrintStream(timeline, true)));
+
+            String[] events = timeline.toString().split("\n");
+            assertEquals(3, events.length);
+            assertTrue(events[0].contains(" TAKE "));
+            assertTrue(events[1].contains(" EXECUTE_END "));
+            assertTrue(events[2].contains(" EXECUTE_END "));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testWrapAroundKeepsLatestEvents() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(4, 1);
+        for (int i = 0; i < 10; i++)
+            recorder.record(EXECUTE_END, 1, i);
+
+        assertArrayEquals(new long[] {6, 7, 8, 9}, dumpedValues(recorder));
+        assertEquals(0, recorder.getDropped());
+    }
+
+    @Test
+    public void testOvertakenWriterIsDropped() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(4, 1);
+        assertTrue(recorder.write(0, 4, System.nanoTime(), 0, 4)); // the stripe wrapped once, same slot as seq 0
+        assertFalse(recorder.write(0, 0, System.nanoTime(), 0, 0)); // the overtaken writer must not tear the slot
+        assertFalse(recorder.write(0, 4, System.nanoTime(), 0, 5));
+        assertTrue(recorder.write(0, 8, System.nanoTime(), 0, 8));
+
+        recorder.record(EXECUTE_END, 1, 0); // seq 0 of the stripe, overtaken by seq 8
+        assertEquals(1, recorder.getDropped());
+    }
+
+    private static long[] dumpedValues(FlightRecorder recorder) throws IOException {
+        Path file = Files.createTempFile("vibur-flight-recorder", ".bin");
+        try {
+            int count = recorder.dump(file);
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++)
+                values[i] = buffer.getLong((HEADER_LONGS + i * EVENT_LONGS + 3) * 8);
+            return values;
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
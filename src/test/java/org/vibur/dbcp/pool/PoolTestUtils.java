@@ -0,0 +1,33 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import java.sql.Connection;
+
+/**
+ * Gives the unit tests outside of this package access to the package-private pool classes.
+ *
+ * @author Simeon Malchev
+ */
+public final class PoolTestUtils {
+
+    private PoolTestUtils() { }
+
+    public static ConnHolder newConnHolder(Connection rawConnection) {
+        return new ConnHolder(rawConnection, 0, 0);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class QueryStatsTest {
+
+    @Test
+    public void testAggregatesPerFingerprint() {
+        QueryStats queryStats = new QueryStats(10);
+        queryStats.recordExecution("select * from t where a = 1", 100, 0, false);
+        queryStats.recordExecution("select * from t where a = 2", 300, 0, true);
+        queryStats.recordExecution("select * from t where a = 2", 200, 5, false);
+        queryStats.recordRows("select * from t where a = 3", 7);
+        queryStats.recordRows("select * from unknown", 7);
+
+        List<QueryStats.Entry> top = queryStats.top(10);
+        assertEquals(1, top.size());
+        QueryStats.Entry entry = top.get(0);
+        assertEquals("select * from t where a = ?", entry.getFingerprint());
+        assertEquals(3, entry.getCalls());
+        assertEquals(0, entry.getCallsError());
+        assertEquals(1, entry.getErrors());
+        assertEquals(12, entry.getRows());
+        assertEquals(600, entry.getTotalNanos());
+        assertEquals(100, entry.getMinNanos());
+        assertEquals(300, entry.getMaxNanos());
+        assertEquals(3, entry.getExecutionNanos().getCount());
+    }
+
+    @Test
+    public void testHistogramOfSingleCall() {
+        QueryStats queryStats = new QueryStats(10);
+        queryStats.recordExecution("select 1", 1000, 0, false);
+
+        QueryStats.Entry entry = queryStats.top(1).get(0);
+        assertEquals(1, entry.getExecutionNanos().getCount());
+        assertEquals(1000, entry.getExecutionNanos().getSum());
+
+        queryStats.recordExecution("select 2", 3000, 0, false); // allocates the histogram
+        entry = queryStats.top(1).get(0);
+        assertEquals(2, entry.getExecutionNanos().getCount());
+        assertEquals(4000, entry.getExecutionNanos().getSum());
+        assertEquals(4000, entry.getTotalNanos());
+    }
+
+    @Test
+    public void testReplacesFingerprintWithFewCalls() {
+        QueryStats queryStats = new QueryStats(QueryStats.EVICTION_SAMPLE_SIZE);
+        for (int i = 0; i < QueryStats.EVICTION_SAMPLE_SIZE; i++) {
+            for (int j = 0; j <= i; j++)
+                queryStats.recordExecution("select * from t" + i, 10, 0, false); // t0 has the least calls
+        }
+        queryStats.recordExecution("select * from new_t", 10, 0, false);
+
+        List<QueryStats.Entry> snapshot = queryStats.snapshot();
+        assertEquals(QueryStats.EVICTION_SAMPLE_SIZE, snapshot.size());
+        QueryStats.Entry replacement = null;
+        for (QueryStats.Entry entry : snapshot) {
+            assertNotEquals("select * from t0", entry.getFingerprint());
+            if (entry.getFingerprint().equals("select * from new_t"))
+                replacement = entry;
+        }
+        assertNotNull(replacement);
+        assertEquals(2, replacement.getCalls());
+        assertEquals(1, replacement.getCallsError());
+    }
+
+    @Test
+    public void testTopOrdersByTotalTime() {
+        QueryStats queryStats = new QueryStats(10);
+        queryStats.recordExecution("select * from a", 100, 0, false);
+        queryStats.recordExecution("select * from b", 500, 0, false);
+        queryStats.recordExecution("select * from c", 300, 0, false);
+
+        List<QueryStats.Entry> top = queryStats.top(2);
+        assertEquals(2, top.size());
+        assertEquals("select * from b", top.get(0).getFingerprint());
+        assertEquals("select * from c", top.get(1).getFingerprint());
+
+        queryStats.reset();
+        assertTrue(queryStats.snapshot().isEmpty());
+    }
+}
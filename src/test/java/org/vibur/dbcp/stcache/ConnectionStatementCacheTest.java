@@ -0,0 +1,153 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.junit.Test;
+import org.vibur.dbcp.pool.ConnHolder;
+import org.vibur.dbcp.stcache.StatementMethod.StatementCreator;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.pool.PoolTestUtils.newConnHolder;
+import static org.vibur.dbcp.util.JdbcStubs.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ConnectionStatementCacheTest {
+
+    private static final StatementCreator creator = new StatementCreator() {
+        @Override
+        public PreparedStatement newStatement(Method method, Object[] args) {
+            return newPreparedStatement();
+        }
+    };
+
+    private static StatementHolder take(ConnectionStatementCache cache, ConnHolder connHolder, String sql)
+            throws SQLException {
+        return cache.take(new StatementMethod(connHolder, creator, PREPARE_STATEMENT, new Object[] {sql}));
+    }
+
+    private static StatementHolder takeAndRestore(ConnectionStatementCache cache, ConnHolder connHolder, String sql)
+            throws SQLException {
+        StatementHolder statement = take(cache, connHolder, sql);
+        assertTrue(cache.restore(statement, false));
+        return statement;
+    }
+
+    @Test
+    public void testCloseClosesTheCachedStatements() throws SQLException {
+        ConnectionStatementCache cache = new ConnectionStatementCache(10);
+        ConnHolder conn1 = newConnHolder(newConnection());
+        ConnHolder conn2 = newConnHolder(newConnection());
+
+        StatementHolder available1 = takeAndRestore(cache, conn1, "select 1");
+        StatementHolder available2 = takeAndRestore(cache, conn2, "select 2");
+        StatementHolder inUse = take(cache, conn2, "select 3");
+        assertEquals(3, cache.size());
+
+        cache.close();
+
+        assertTrue(isClosed(available1.rawStatement()));
+        assertTrue(isClosed(available2.rawStatement()));
+        assertFalse(isClosed(inUse.rawStatement())); // still used by the application
+        assertFalse(cache.restore(inUse, false)); // i.e., the statement proxy will close it
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsTheColdestStatementAcrossConnections() throws SQLException {
+        ConnectionStatementCache cache = new ConnectionStatementCache(2);
+        ConnHolder conn1 = newConnHolder(newConnection());
+        ConnHolder conn2 = newConnHolder(newConnection());
+
+        StatementHolder hot = null;
+        for (int i = 0; i < 5; i++)
+            hot = takeAndRestore(cache, conn1, "select hot");
+        StatementHolder cold = takeAndRestore(cache, conn2, "select cold");
+        assertEquals(2, cache.size());
+
+        // conn1 has only its hot statement cached, and still the cold statement of conn2 is evicted
+        StatementHolder newStatement = take(cache, conn1, "select new");
+        assertTrue(isClosed(cold.rawStatement()));
+        assertFalse(isClosed(hot.rawStatement()));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStats().getEvictions());
+
+        // the evicted entry is dropped lazily from the conn2 cache, and the next lookup is a miss
+        assertTrue(cache.restore(newStatement, false));
+        long misses = cache.getStats().getMisses();
+        StatementHolder recreated = take(cache, conn2, "select cold");
+        assertNotSame(cold, recreated);
+        assertEquals(misses + 1, cache.getStats().getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testInUseStatementsAreNotEvicted() throws SQLException {
+        ConnectionStatementCache cache = new ConnectionStatementCache(1);
+        ConnHolder conn = newConnHolder(newConnection());
+
+        StatementHolder inUse = take(cache, conn, "select 1");
+        StatementHolder other = take(cache, conn, "select 2");
+
+        assertFalse(isClosed(inUse.rawStatement()));
+        assertEquals(2, cache.size()); // the budget is temporarily exceeded
+
+        assertTrue(cache.restore(inUse, false));
+        assertTrue(cache.restore(other, false));
+        take(cache, conn, "select 3"); // evicts one of the AVAILABLE statements
+        assertTrue(isClosed(inUse.rawStatement()) || isClosed(other.rawStatement()));
+    }
+
+    @Test
+    public void testCancelledStatementIsDroppedFromItsConnectionCache() throws SQLException {
+        ConnectionStatementCache cache = new ConnectionStatementCache(10);
+        ConnHolder conn = newConnHolder(newConnection());
+
+        StatementHolder statement = take(cache, conn, "select 1");
+        assertTrue(cache.remove(statement)); // as on Statement.cancel(), possibly from another thread
+        assertFalse(cache.remove(statement));
+        assertEquals(0, cache.size());
+        assertFalse(cache.restore(statement, false));
+
+        StatementHolder recreated = take(cache, conn, "select 1");
+        assertNotSame(statement, recreated);
+        assertEquals(1, cache.size());
+        assertEquals(1, conn.getLocalStatementCache().size());
+    }
+
+    @Test
+    public void testRemoveAllClosesTheConnectionStatements() throws SQLException {
+        ConnectionStatementCache cache = new ConnectionStatementCache(10);
+        ConnHolder conn1 = newConnHolder(newConnection());
+        ConnHolder conn2 = newConnHolder(newConnection());
+
+        StatementHolder available = takeAndRestore(cache, conn1, "select 1");
+        StatementHolder inUse = take(cache, conn1, "select 2");
+        StatementHolder other = takeAndRestore(cache, conn2, "select 1");
+
+        assertEquals(2, conn1.getLocalStatementCache().removeAll());
+        assertTrue(isClosed(available.rawStatement()));
+        assertTrue(isClosed(inUse.rawStatement()));
+        assertFalse(isClosed(other.rawStatement()));
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testUnseenKeyHasZeroFrequency() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("select 1"));
+    }
+
+    @Test
+    public void testFrequencyIsCappedAt15() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 20; i++)
+            sketch.increment("select 1");
+        assertEquals(15, sketch.frequency("select 1"));
+    }
+
+    @Test
+    public void testCountersAreHalvedAtSampleSize() {
+        FrequencySketch sketch = new FrequencySketch(1); // a sample size of 10
+        for (int i = 0; i < 9; i++)
+            sketch.increment("select 1");
+        assertEquals(9, sketch.frequency("select 1"));
+
+        sketch.increment("select 1");
+        assertEquals(5, sketch.frequency("select 1"));
+    }
+
+    @Test
+    public void testNeverUnderestimates() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 10; i++)
+            sketch.increment("hot");
+        for (int i = 0; i < 300; i++)
+            sketch.increment("cold " + i);
+
+        assertTrue(sketch.frequency("hot") >= 10);
+        int overestimated = 0;
+        for (int i = 0; i < 300; i++) {
+            int frequency = sketch.frequency("cold " + i);
+            assertTrue(frequency >= 1);
+            if (frequency > 1)
+                overestimated++;
+        }
+        assertTrue("overestimated " + overestimated, overestimated < 30);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.stcache;
+
+import org.junit.Test;
+import org.vibur.dbcp.pool.ConnHolder;
+import org.vibur.dbcp.stcache.StatementMethod.StatementCreator;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.pool.PoolTestUtils.newConnHolder;
+import static org.vibur.dbcp.util.JdbcStubs.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class TinyLfuStatementCacheTest {
+
+    private static final StatementCreator creator = new StatementCreator() {
+        @Override
+        public PreparedStatement newStatement(Method method, Object[] args) {
+            return newPreparedStatement();
+        }
+    };
+
+    private static StatementHolder takeAndRestore(TinyLfuStatementCache cache, ConnHolder connHolder, String sql)
+            throws SQLException {
+        StatementHolder statement = cache.take(new StatementMethod(connHolder, creator, PREPARE_STATEMENT, new Object[] {sql}));
+        assertTrue(cache.restore(statement, false));
+        return statement;
+    }
+
+    @Test
+    public void testScanOfOneOffStatementsDoesNotFlushFrequentStatement() throws SQLException {
+        TinyLfuStatementCache cache = new TinyLfuStatementCache(100);
+        ConnHolder connHolder = newConnHolder(newConnection());
+
+        StatementHolder hot = takeAndRestore(cache, connHolder, "select * from actor where actor_id = ?");
+        for (int i = 0; i < 4; i++)
+            assertSame(hot, takeAndRestore(cache, connHolder, "select * from actor where actor_id = ?"));
+
+        for (int i = 0; i < 1000; i++) // a burst of one-off reporting queries
+            takeAndRestore(cache, connHolder, "select * from report_" + i);
+
+        assertSame(hot, takeAndRestore(cache, connHolder, "select * from actor where actor_id = ?"));
+        assertFalse(isClosed(hot.rawStatement()));
+        assertEquals(5, cache.getStats().getHits());
+        assertEquals(1001, cache.getStats().getMisses());
+        assertEquals(1001 - 100, cache.getStats().getEvictions());
+        assertEquals(100, cache.getCachedStatements().size());
+    }
+
+    @Test
+    public void testFrequentCandidateReplacesInfrequentVictim() throws SQLException {
+        TinyLfuStatementCache cache = new TinyLfuStatementCache(100);
+        ConnHolder connHolder = newConnHolder(newConnection());
+
+        StatementHolder[] cold = new StatementHolder[100];
+        for (int i = 0; i < cold.length; i++) // fills the cache with statements used once
+            cold[i] = takeAndRestore(cache, connHolder, "select * from cold_" + i);
+
+        // a statement which becomes popular while in the admission window is admitted into the main space
+        StatementHolder warm = takeAndRestore(cache, connHolder, "select * from warm");
+        for (int i = 0; i < 3; i++)
+            assertSame(warm, takeAndRestore(cache, connHolder, "select * from warm"));
+        takeAndRestore(cache, connHolder, "select * from next"); // pushes warm out of the window
+
+        assertSame(warm, takeAndRestore(cache, connHolder, "select * from warm"));
+        assertTrue(isClosed(cold[0].rawStatement())); // the LRU of the main space was evicted instead
+    }
+}
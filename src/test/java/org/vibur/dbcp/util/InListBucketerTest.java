@@ -0,0 +1,125 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class InListBucketerTest {
+
+    @Test
+    public void testPadsToTheNextPowerOfTwo() {
+        InListBucketer.Bucketed bucketed = InListBucketer.bucket("select * from t where a in (?, ?, ?) and b = ?");
+        assertNotNull(bucketed);
+        assertEquals("select * from t where a in (?, ?, ?, ?) and b = ?", bucketed.getSql());
+        assertIndexes(bucketed, 1, 2, 3, 5);
+        assertPaddings(bucketed, 0, 0, 1, 0);
+        assertEquals(0, bucketed.parameterIndex(0)); // out of range
+        assertEquals(9, bucketed.parameterIndex(9));
+        assertEquals(0, bucketed.padding(9));
+
+        bucketed = InListBucketer.bucket("select * from t where a IN(?,?,?,?,?)");
+        assertEquals("select * from t where a IN(?,?,?,?,?, ?, ?, ?)", bucketed.getSql());
+    }
+
+    @Test
+    public void testMultipleLists() {
+        InListBucketer.Bucketed bucketed = InListBucketer.bucket(
+                "select * from t where a in (?, ?) and b in (?, ?, ?) and c = ? and d in (?, ?, ?, ?, ?)");
+        assertEquals("select * from t where a in (?, ?) and b in (?, ?, ?, ?) and c = ? "
+                + "and d in (?, ?, ?, ?, ?, ?, ?, ?)", bucketed.getSql());
+        assertIndexes(bucketed, 1, 2, 3, 4, 5, 7, 8, 9, 10, 11, 12);
+        assertPaddings(bucketed, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 3);
+    }
+
+    @Test
+    public void testNothingToPad() {
+        assertNull(InListBucketer.bucket(null));
+        assertNull(InListBucketer.bucket("select * from t"));
+        assertNull(InListBucketer.bucket("select * from t where a in (?, ?) and b in (?, ?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where a in (?, ?, 1)"));
+        assertNull(InListBucketer.bucket("select * from t where a = (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t join (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where a in (?, ?, ?"));
+    }
+
+    @Test
+    public void testIgnoresLiteralsAndComments() {
+        assertNull(InListBucketer.bucket("select * from t where a = 'in (?, ?, ?)'"));
+        assertNull(InListBucketer.bucket("select * from t where \"in (?, ?, ?)\" = 1"));
+        assertNull(InListBucketer.bucket("select * from t where a = 1 -- in (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where a = 1 /* in (?, ?, ?) */"));
+        assertNull(InListBucketer.bucket("select * from t where a = 'unterminated in (?, ?, ?)"));
+
+        InListBucketer.Bucketed bucketed = InListBucketer.bucket(
+                "select * from t where a = 'it''s ?' /* ? */ and b in (?, ?, ?)");
+        assertEquals("select * from t where a = 'it''s ?' /* ? */ and b in (?, ?, ?, ?)", bucketed.getSql());
+        assertIndexes(bucketed, 1, 2, 3);
+        assertPaddings(bucketed, 0, 0, 1);
+    }
+
+    @Test
+    public void testSkipsBackslashesAndPostgresOperators() {
+        assertNull(InListBucketer.bucket("select * from t where a = 'x\\' and b in (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where j ?? 'k' and b in (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where j ?| array['k'] and b in (?, ?, ?)"));
+        assertNull(InListBucketer.bucket("select * from t where j ?& array['k'] and b in (?, ?, ?)"));
+    }
+
+    @Test
+    public void testInListSizeLimit() {
+        InListBucketer.Bucketed bucketed = InListBucketer.bucket(inList(300));
+        assertEquals(inList(512), bucketed.getSql().replace(", ?", ",?"));
+        assertNull(InListBucketer.bucket(inList(513))); // would exceed 1000 elements
+        assertNull(InListBucketer.bucket(inList(999)));
+        assertNull(InListBucketer.bucket(inList(1500)));
+    }
+
+    @Test
+    public void testParametersLimit() {
+        assertNotNull(InListBucketer.bucket(inList(500) + otherParameters(1588))); // 2100 parameters when padded
+        assertNull(InListBucketer.bucket(inList(500) + otherParameters(1589)));
+    }
+
+    private static String inList(int size) {
+        StringBuilder sql = new StringBuilder("select * from t where a in (?");
+        for (int i = 1; i < size; i++)
+            sql.append(",?");
+        return sql.append(")").toString();
+    }
+
+    private static String otherParameters(int count) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sql.append(" and b = ?");
+        return sql.toString();
+    }
+
+    private static void assertIndexes(InListBucketer.Bucketed bucketed, int... expected) {
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("parameter " + (i + 1), expected[i], bucketed.parameterIndex(i + 1));
+    }
+
+    private static void assertPaddings(InListBucketer.Bucketed bucketed, int... expected) {
+        for (int i = 0; i < expected.length; i++)
+            assertEquals("parameter " + (i + 1), expected[i], bucketed.padding(i + 1));
+    }
+}
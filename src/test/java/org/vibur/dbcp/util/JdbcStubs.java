@@ -0,0 +1,93 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Minimal JDBC objects for the unit tests which do not need a database. The stubs only track whether they
+ * were closed, and return default values from all other methods.
+ *
+ * @author Simeon Malchev
+ */
+public final class JdbcStubs {
+
+    private JdbcStubs() { }
+
+    public static final Method PREPARE_STATEMENT;
+
+    static {
+        try {
+            PREPARE_STATEMENT = Connection.class.getMethod("prepareStatement", String.class);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static Connection newConnection() {
+        return newStub(Connection.class);
+    }
+
+    public static PreparedStatement newPreparedStatement() {
+        return newStub(PreparedStatement.class);
+    }
+
+    public static boolean isClosed(Object stub) {
+        return ((StubHandler) Proxy.getInvocationHandler(stub)).closed;
+    }
+
+    private static <T> T newStub(Class<T> iface) {
+        return iface.cast(Proxy.newProxyInstance(JdbcStubs.class.getClassLoader(), new Class<?>[] {iface},
+                new StubHandler()));
+    }
+
+    private static final class StubHandler implements InvocationHandler {
+        private volatile boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "stub " + method.getDeclaringClass().getSimpleName() + "@"
+                            + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) return false;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+            return null;
+        }
+    }
+}
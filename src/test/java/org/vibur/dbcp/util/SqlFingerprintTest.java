@@ -0,0 +1,79 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.util.SqlFingerprint.fingerprint;
+
+/**
+ * @author Simeon Malchev
+ */
+public class SqlFingerprintTest {
+
+    @Test
+    public void testLiteralsAreReplaced() {
+        assertEquals("select * from t where a = ? and b = ?", fingerprint("select * from t where a = 1 and b = 'x'"));
+        assertEquals("select * from t where a = ? and b = ? and c = ?",
+                fingerprint("select * from t where a = 1.5e10 and b = .5 and c = 0x1F"));
+        assertEquals("select * from t where a = ? and b = ?", fingerprint("select * from t where a = N'x' and b = X'0F'"));
+        assertEquals("select * from t1 where a = ?", fingerprint("select * from t1 where a = 'it''s'"));
+        assertEquals("select ?, a from t limit ?", fingerprint("select 1, a from t limit 10"));
+    }
+
+    @Test
+    public void testIdentifiersAreKept() {
+        assertEquals("select \"Col 1\", `b 2` from t where \"x=1\" = ?",
+                fingerprint("select \"Col 1\", `b 2` from t where \"x=1\" = 5"));
+        assertEquals("select a$1, #tmp from t", fingerprint("select a$1, #tmp from t"));
+    }
+
+    @Test
+    public void testWhitespaceAndComments() {
+        assertEquals("select * from t where a=?",
+                fingerprint("  select  *\n\tfrom t -- a comment\n where a=1 /* another comment */ "));
+        assertEquals("select * from t where a = ?", fingerprint("select/* x */* from t where a = 1 -- unterminated"));
+        assertEquals("select * from t", fingerprint("select * from t /* unterminated"));
+    }
+
+    @Test
+    public void testParameterListsAreCollapsed() {
+        assertEquals("select * from t where a in (?)", fingerprint("select * from t where a in (1, 2, 3)"));
+        assertEquals("select * from t where a in (?)", fingerprint("select * from t where a in (?, ?)"));
+        assertEquals("insert into t values (?)", fingerprint("insert into t values (1, 'a', ?)"));
+        assertEquals("select max(a, ?) from t", fingerprint("select max(a, 1) from t"));
+        assertEquals("select * from t where a in (?) and b in (?)",
+                fingerprint("select * from t where a in (1,2) and b in ('x', 'y', 'z')"));
+    }
+
+    @Test
+    public void testSameFingerprintForDifferentLiterals() {
+        assertEquals(fingerprint("SELECT * FROM t WHERE a IN (1, 2) AND b = 'x'"),
+                fingerprint("SELECT  *  FROM t WHERE a IN (3,4,5,6) AND b = 'yy'"));
+        assertNotEquals(fingerprint("select * from t where a = 1"), fingerprint("select * from t where b = 1"));
+    }
+
+    @Test
+    public void testLenientOnMalformedQueries() {
+        assertNull(fingerprint(null));
+        assertEquals("", fingerprint(""));
+        assertEquals("select * from t where a = ?", fingerprint("select * from t where a = 'it\\'s'"));
+        assertEquals("select * from t where a = ?", fingerprint("select * from t where a = 'unterminated"));
+        assertEquals("select * from \"unterminated", fingerprint("select * from \"unterminated"));
+    }
+}
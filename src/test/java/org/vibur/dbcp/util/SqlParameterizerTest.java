@@ -0,0 +1,105 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class SqlParameterizerTest {
+
+    @Test
+    public void testComparisonLiterals() {
+        assertParameterized("select * from actor where actor_id = ? and film_id >= ?",
+                "select * from actor where actor_id = 10 and film_id >= 2", 10L, 2L);
+        assertParameterized("delete from actor where actor_id<>?", "delete from actor where actor_id<>7", 7L);
+        assertParameterized("update actor set score = ? where actor_id = ?",
+                "update actor set score = 1 where actor_id = 3", 1L, 3L); // the set clause is also after '='
+    }
+
+    @Test
+    public void testStringLiteralsAreLeftInline() {
+        assertParameterized("select * from actor where first_name = 'O''NEIL' and actor_id = ?",
+                "select * from actor where first_name = 'O''NEIL' and actor_id = 5", 5L);
+        assertParameterized("select * from actor where code = N'5' and actor_id in (?, ?)",
+                "select * from actor where code = N'5' and actor_id in (1, 2)", 1L, 2L);
+        assertNull(SqlParameterizer.parameterize("select * from actor where first_name = 'CHRISTIAN'"));
+        assertNull(SqlParameterizer.parameterize("select * from actor where first_name like 'A%'"));
+    }
+
+    @Test
+    public void testInAndValuesLists() {
+        assertParameterized("select * from actor where actor_id in (?, ?, ?)",
+                "select * from actor where actor_id in (1, 2, 3)", 1L, 2L, 3L);
+        assertParameterized("insert into actor values (?, 'NICK', ?)",
+                "insert into actor values (2, 'NICK', 2.5)", 2L, new BigDecimal("2.5"));
+        assertNull(SqlParameterizer.parameterize("select max(1, 2) from actor")); // not an IN or VALUES list
+    }
+
+    @Test
+    public void testLiteralsOutsideOfParameterPositions() {
+        assertParameterized("select 1, actor_id from actor where actor_id > ? limit 10",
+                "select 1, actor_id from actor where actor_id > 5 limit 10", 5L);
+        assertParameterized("select * from \"actor 1\" where \"col=2\" = ?",
+                "select * from \"actor 1\" where \"col=2\" = 3", 3L);
+    }
+
+    @Test
+    public void testNumberFormats() {
+        assertParameterized("select * from t where a = ? and b = ? and c = ? and d = ?",
+                "select * from t where a = 1.5 and b = .5 and c = 1e3 and d = 1234567890123456789",
+                new BigDecimal("1.5"), new BigDecimal(".5"), new BigDecimal("1e3"), new BigDecimal("1234567890123456789"));
+        assertParameterized("select * from t where a = ?", "select * from t where a = 123456789012345678",
+                123456789012345678L);
+        assertNull(SqlParameterizer.parameterize("select * from t where a = 1abc"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = 0x1F"));
+    }
+
+    @Test
+    public void testUnsafeQueries() {
+        assertNull(SqlParameterizer.parameterize(null));
+        assertNull(SqlParameterizer.parameterize("create table t (id int default 1)"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = ? and b = 1"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = :a and b = 1"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = 1; drop table t"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = 1 -- comment"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = 1 /* comment */"));
+        assertNull(SqlParameterizer.parameterize("select * from t where a = {fn abs(-1)}"));
+        assertNull(SqlParameterizer.parameterize("select * from t where b = 'it\\'s' and a = 1"));
+        assertNull(SqlParameterizer.parameterize("select * from t where b = $$x$$ and a = 1"));
+        assertNull(SqlParameterizer.parameterize("select * from t where b = 'unterminated and a = 1"));
+        assertNull(SqlParameterizer.parameterize("select * from \"unterminated where a = 1"));
+    }
+
+    @Test
+    public void testLeadingWhitespaceAndCase() {
+        assertParameterized("  \n SeLeCt * from t where a = ?", "  \n SeLeCt * from t where a = 1", 1L);
+        assertNull(SqlParameterizer.parameterize("selector = 1")); // not a DML keyword
+    }
+
+    private static void assertParameterized(String expectedSql, String sql, Object... expectedParameters) {
+        SqlParameterizer.Parameterized result = SqlParameterizer.parameterize(sql);
+        assertNotNull(sql, result);
+        assertEquals(expectedSql, result.getSql());
+        assertArrayEquals(expectedParameters, result.getParameters());
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.vibur.dbcp.util.StripedHistogram.SUB_BUCKETS;
+import static org.vibur.dbcp.util.StripedHistogram.bucket;
+import static org.vibur.dbcp.util.StripedHistogram.highestValue;
+
+/**
+ * @author Simeon Malchev
+ */
+public class StripedHistogramTest {
+
+    @Test
+    public void testBucketsAreContiguous() {
+        int last = bucket(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, highestValue(last));
+        for (int b = 0; b < last; b++) {
+            assertEquals(b, bucket(highestValue(b)));
+            assertEquals(b + 1, bucket(highestValue(b) + 1));
+        }
+    }
+
+    @Test
+    public void testRelativeErrorIsBounded() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63); // non-negative, of any magnitude
+            long highest = highestValue(bucket(value));
+            assertTrue(value + " -> " + highest, highest >= value && highest - value <= value / SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void testSnapshotPercentiles() {
+        StripedHistogram histogram = new StripedHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i);
+        histogram.record(-5); // recorded as 0
+
+        StripedHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(500_500, snapshot.getSum());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(0));
+        assertBetween(500, 500 + 500 / SUB_BUCKETS, snapshot.getValueAtPercentile(50));
+        assertBetween(990, 1000, snapshot.getValueAtPercentile(99));
+        assertEquals(1000, snapshot.getValueAtPercentile(100));
+
+        histogram.reset();
+        snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testConcurrentRecordingsAreMerged() throws InterruptedException {
+        final StripedHistogram histogram = new StripedHistogram();
+        final int threads = 4, recordings = 10_000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < recordings; i++)
+                        histogram.record(i);
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        StripedHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads * recordings, snapshot.getCount());
+        assertEquals(threads * ((long) recordings * (recordings - 1) / 2), snapshot.getSum());
+        assertEquals(recordings - 1, snapshot.getMax());
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " is not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.util;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class TopKCounterTest {
+
+    @Test
+    public void testExactCountsUnderCapacity() {
+        TopKCounter<String> counter = new TopKCounter<>(3, 1);
+        counter.add("a");
+        counter.add("b", 5);
+        counter.add("a");
+        counter.add("c", 3);
+
+        List<TopKCounter.Entry<String>> top = counter.top(10);
+        assertEquals(3, top.size());
+        assertEntry(top.get(0), "b", 5, 0);
+        assertEntry(top.get(1), "c", 3, 0);
+        assertEntry(top.get(2), "a", 2, 0);
+    }
+
+    @Test
+    public void testNewKeyReplacesTheMinimumAndInheritsItsCount() {
+        TopKCounter<String> counter = new TopKCounter<>(3, 1);
+        counter.add("a", 10);
+        counter.add("b", 2);
+        counter.add("c", 7);
+        counter.add("d");
+
+        List<TopKCounter.Entry<String>> top = counter.top(10);
+        assertEquals(3, top.size());
+        assertEntry(top.get(0), "a", 10, 0);
+        assertEntry(top.get(1), "c", 7, 0);
+        assertEntry(top.get(2), "d", 3, 2); // replaced "b"
+
+        counter.add("e"); // replaces "d", the new minimum
+        top = counter.top(10);
+        assertEntry(top.get(2), "e", 4, 3);
+        for (TopKCounter.Entry<String> entry : top)
+            assertNotEquals("d", entry.getKey());
+    }
+
+    @Test
+    public void testIncrementedKeyIsNotReplaced() {
+        TopKCounter<String> counter = new TopKCounter<>(2, 1);
+        counter.add("a");
+        counter.add("b");
+        counter.add("a", 5); // "a" moves down the heap, "b" becomes the minimum
+        counter.add("c");
+
+        List<TopKCounter.Entry<String>> top = counter.top(10);
+        assertEntry(top.get(0), "a", 6, 0);
+        assertEntry(top.get(1), "c", 2, 1);
+    }
+
+    @Test
+    public void testHeavyHitterSurvivesManyDistinctKeys() {
+        TopKCounter<Integer> counter = new TopKCounter<>(10, 1);
+        for (int i = 0; i < 10_000; i++) {
+            counter.add(i);
+            if (i % 10 == 0)
+                counter.add(-1, 5);
+        }
+
+        List<TopKCounter.Entry<Integer>> top = counter.top(1);
+        assertEquals(1, top.size());
+        assertEquals(Integer.valueOf(-1), top.get(0).getKey());
+        assertTrue(top.get(0).getCount() >= 5_000);
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 5_000);
+    }
+
+    @Test
+    public void testCapacityOne() {
+        TopKCounter<String> counter = new TopKCounter<>(1, 1);
+        counter.add("a", 3);
+        counter.add("b");
+
+        List<TopKCounter.Entry<String>> top = counter.top(10);
+        assertEquals(1, top.size());
+        assertEntry(top.get(0), "b", 4, 3);
+    }
+
+    @Test
+    public void testTopLimitsTheNumberOfEntries() {
+        TopKCounter<Integer> counter = new TopKCounter<>(100, 1);
+        for (int i = 1; i <= 20; i++)
+            counter.add(i, i);
+
+        List<TopKCounter.Entry<Integer>> top = counter.top(5);
+        assertEquals(5, top.size());
+        for (int i = 0; i < 5; i++)
+            assertEntry(top.get(i), 20 - i, 20 - i, 0);
+        assertTrue(counter.top(0).isEmpty());
+    }
+
+    @Test
+    public void testReset() {
+        TopKCounter<String> counter = new TopKCounter<>(2, 1);
+        counter.add("a");
+        counter.add("b");
+        counter.add("c");
+        counter.reset();
+
+        assertTrue(counter.top(10).isEmpty());
+        assertEquals(0, counter.getDropped());
+        counter.add("d");
+        assertEntry(counter.top(10).get(0), "d", 1, 0);
+    }
+
+    @Test
+    public void testStripesAreMergedAcrossThreads() throws InterruptedException {
+        final TopKCounter<String> counter = new TopKCounter<>(10, 8);
+        final int threads = 8;
+        final int additions = 1_000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < additions; i++)
+                        counter.add("hot");
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        List<TopKCounter.Entry<String>> top = counter.top(10);
+        assertEquals(1, top.size());
+        assertEquals("hot", top.get(0).getKey());
+        assertEquals(threads * additions, top.get(0).getCount() + counter.getDropped());
+        assertEquals(0, top.get(0).getError());
+    }
+
+    private static <K> void assertEntry(TopKCounter.Entry<K> entry, K key, long count, long error) {
+        assertEquals(key, entry.getKey());
+        assertEquals(count, entry.getCount());
+        assertEquals(error, entry.getError());
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks;
+
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.dbcp.benchmarks.stub.StubDriver;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Common setup for the benchmarks. Each of them runs against both the zero-latency {@link StubDriver}, which
+ * isolates the pool, proxies, and statement cache overhead, and an in-memory HSQLDB database. The default
+ * logging hooks are switched off so that they are not part of the measurements.
+ *
+ * @author Simeon Malchev
+ */
+final class BenchmarkSupport {
+
+    static final int ROWS = 100;
+
+    static final String STUB = "stub";
+    static final String HSQLDB = "hsqldb";
+
+    static final String STUB_JDBC_URL = StubDriver.URL_PREFIX + StubDriver.ROWS_PROPERTY + "=" + ROWS;
+    static final String HSQLDB_JDBC_URL = "jdbc:hsqldb:mem:vibur_benchmarks";
+    static final String USERNAME = "sa";
+    static final String PASSWORD = "";
+
+    static final String SELECT_SQL = "SELECT id, name, amount FROM bench WHERE id <= ?";
+
+    private BenchmarkSupport() { }
+
+    static ViburDBCPDataSource newDataSource(String name, String driver) {
+        ViburDBCPDataSource ds = new ViburDBCPDataSource();
+        ds.setName(name + "-" + driver);
+        ds.setDriverClassName(driverClassName(driver));
+        ds.setJdbcUrl(jdbcUrl(driver));
+        ds.setUsername(USERNAME);
+        ds.setPassword(PASSWORD);
+
+        ds.setLogConnectionLongerThanMs(-1);
+        ds.setLogQueryExecutionLongerThanMs(-1);
+        ds.setLogLargeResultSet(-1);
+        return ds;
+    }
+
+    static Connection newRawConnection(String driver) throws SQLException {
+        try {
+            Class.forName(driverClassName(driver));
+        } catch (ClassNotFoundException e) {
+            throw new SQLException(e);
+        }
+        return DriverManager.getConnection(jdbcUrl(driver), USERNAME, PASSWORD);
+    }
+
+    private static String driverClassName(String driver) {
+        return STUB.equals(driver) ? StubDriver.class.getName() : "org.hsqldb.jdbc.JDBCDriver";
+    }
+
+    private static String jdbcUrl(String driver) {
+        return STUB.equals(driver) ? STUB_JDBC_URL : HSQLDB_JDBC_URL;
+    }
+
+    static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE bench IF EXISTS");
+            statement.execute("CREATE TABLE bench (id INTEGER PRIMARY KEY, name VARCHAR(64), amount DECIMAL(10, 2))");
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= ROWS; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "name-" + i);
+                insert.setBigDecimal(3, BigDecimal.valueOf(i * 100 + 25, 2));
+                insert.executeUpdate();
+            }
+        }
+    }
+}
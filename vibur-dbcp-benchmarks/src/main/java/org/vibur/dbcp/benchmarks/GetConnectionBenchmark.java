@@ -0,0 +1,94 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.vibur.dbcp.ViburDBCPDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.vibur.dbcp.benchmarks.BenchmarkSupport.newDataSource;
+
+/**
+ * Measures the cost of a {@code getConnection()} / {@code close()} round trip through fair and unfair pools,
+ * at thread counts below, equal to, and above the pool max size.
+ *
+ * @author Simeon Malchev
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetConnectionBenchmark {
+
+    static final int POOL_MAX_SIZE = 16;
+
+    @Param({BenchmarkSupport.STUB, BenchmarkSupport.HSQLDB})
+    public String driver;
+
+    @Param({"false", "true"})
+    public boolean fair;
+
+    private ViburDBCPDataSource ds;
+
+    @Setup
+    public void setUp() {
+        ds = newDataSource("getConnection", driver);
+        ds.setPoolInitialSize(POOL_MAX_SIZE);
+        ds.setPoolMaxSize(POOL_MAX_SIZE);
+        ds.setPoolFair(fair);
+        ds.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ds.terminate();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() throws SQLException {
+        getAndClose();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() throws SQLException {
+        getAndClose();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() throws SQLException {
+        getAndClose();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64() throws SQLException {
+        getAndClose();
+    }
+
+    private void getAndClose() throws SQLException {
+        Connection connection = ds.getConnection();
+        connection.close();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.dbcp.pool.Hook;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.vibur.dbcp.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Measures the overhead added by the registered programming hooks. For each value of {@code hooks}, that many
+ * no-op {@link Hook.GetConnection}, {@link Hook.CloseConnection}, {@link Hook.MethodInvocation},
+ * {@link Hook.ResultSetRetrieval}, and pass-through {@link Hook.StatementExecution} hooks are registered;
+ * the difference against {@code hooks = 0} is the per-hook cost.
+ *
+ * @author Simeon Malchev
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HookOverheadBenchmark {
+
+    @Param({BenchmarkSupport.STUB, BenchmarkSupport.HSQLDB})
+    public String driver;
+
+    @Param({"0", "1", "4"})
+    public int hooks;
+
+    private ViburDBCPDataSource ds;
+    private Connection connection;
+    private PreparedStatement statement;
+
+    @Setup
+    public void setUp() throws SQLException {
+        ds = newDataSource("hookOverhead", driver);
+        ds.setPoolInitialSize(2);
+        for (int i = 0; i < hooks; i++) {
+            NoOpHook hook = new NoOpHook();
+            ds.getConnHooks().addOnGet(hook);
+            ds.getConnHooks().addOnClose(hook);
+            ds.getInvocationHooks().addOnMethodInvocation(hook);
+            ds.getInvocationHooks().addOnStatementExecution(hook);
+            ds.getInvocationHooks().addOnResultSetRetrieval(hook);
+        }
+        ds.start();
+
+        connection = ds.getConnection();
+        createSchema(connection);
+        statement = connection.prepareStatement(SELECT_SQL);
+        statement.setInt(1, 1);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        statement.close();
+        connection.close();
+        ds.terminate();
+    }
+
+    @Benchmark
+    public void getConnection() throws SQLException {
+        Connection conn = ds.getConnection();
+        conn.close();
+    }
+
+    @Benchmark
+    public void executeQuery(Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+                blackhole.consume(resultSet.getInt(1));
+        }
+    }
+
+    private static final class NoOpHook implements Hook.GetConnection, Hook.CloseConnection,
+            Hook.MethodInvocation, Hook.StatementExecution, Hook.ResultSetRetrieval {
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) { }
+
+        @Override
+        public void on(Object proxy, Method method, Object[] args) { }
+
+        @Override
+        public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                         StatementProceedingPoint proceed) throws SQLException {
+            return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+        }
+
+        @Override
+        public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) { }
+    }
+}
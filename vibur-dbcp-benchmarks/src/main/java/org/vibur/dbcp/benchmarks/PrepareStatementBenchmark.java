@@ -0,0 +1,87 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vibur.dbcp.ViburDBCPDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.vibur.dbcp.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Measures {@code prepareStatement()} on a proxied Connection with the statement cache disabled
+ * ({@code statementCacheMaxSize = 0}) and enabled.
+ *
+ * @author Simeon Malchev
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrepareStatementBenchmark {
+
+    @Param({BenchmarkSupport.STUB, BenchmarkSupport.HSQLDB})
+    public String driver;
+
+    @Param({"0", "100"})
+    public int statementCacheMaxSize;
+
+    private ViburDBCPDataSource ds;
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        ds = newDataSource("prepareStatement", driver);
+        ds.setPoolInitialSize(1);
+        ds.setStatementCacheMaxSize(statementCacheMaxSize);
+        ds.start();
+
+        connection = ds.getConnection();
+        createSchema(connection);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+        ds.terminate();
+    }
+
+    @Benchmark
+    public void prepare() throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(SELECT_SQL);
+        statement.close();
+    }
+
+    @Benchmark
+    public void prepareAndExecute(Blackhole blackhole) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_SQL)) {
+            statement.setInt(1, 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next())
+                    blackhole.consume(resultSet.getInt(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vibur.dbcp.ViburDBCPDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.vibur.dbcp.benchmarks.BenchmarkSupport.*;
+
+/**
+ * Measures the iteration of a {@link ResultSet} via {@code next()} and the {@code getXXX} methods through
+ * the Vibur proxies versus directly on the raw driver ResultSet. Each invocation reads {@link BenchmarkSupport#ROWS}
+ * rows.
+ *
+ * @author Simeon Malchev
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultSetBenchmark {
+
+    @Param({BenchmarkSupport.STUB, BenchmarkSupport.HSQLDB})
+    public String driver;
+
+    private ViburDBCPDataSource ds;
+    private Connection proxyConnection;
+    private PreparedStatement proxyStatement;
+
+    private Connection rawConnection;
+    private PreparedStatement rawStatement;
+
+    @Setup
+    public void setUp() throws SQLException {
+        ds = newDataSource("resultSet", driver);
+        ds.setPoolInitialSize(1);
+        ds.start();
+
+        proxyConnection = ds.getConnection();
+        createSchema(proxyConnection);
+        proxyStatement = proxyConnection.prepareStatement(SELECT_SQL);
+        proxyStatement.setInt(1, ROWS);
+
+        rawConnection = newRawConnection(driver);
+        rawStatement = rawConnection.prepareStatement(SELECT_SQL);
+        rawStatement.setInt(1, ROWS);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        rawStatement.close();
+        rawConnection.close();
+        proxyStatement.close();
+        proxyConnection.close();
+        ds.terminate();
+    }
+
+    @Benchmark
+    public void proxy(Blackhole blackhole) throws SQLException {
+        iterate(proxyStatement, blackhole);
+    }
+
+    @Benchmark
+    public void raw(Blackhole blackhole) throws SQLException {
+        iterate(rawStatement, blackhole);
+    }
+
+    private static void iterate(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getInt(1));
+                blackhole.consume(resultSet.getString(2));
+                blackhole.consume(resultSet.getBigDecimal(3));
+            }
+        }
+    }
+}
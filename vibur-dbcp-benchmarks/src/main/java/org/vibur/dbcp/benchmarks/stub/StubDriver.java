@@ -0,0 +1,125 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.benchmarks.stub;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * A zero-latency, in-memory stub JDBC Driver for isolating the pool, proxies, and statement cache overhead from
+ * the overhead of a real database. Its Connections, Statements, and ResultSets do no I/O, parsing, or locking;
+ * every query returns the same preallocated rows, see {@link StubResultSet}.
+ *
+ * <p>The accepted URL format is {@code jdbc:stub:[rows=<n>]}, where {@code rows} is the number of rows
+ * returned by each query and defaults to {@value #DEFAULT_ROWS}. It can also be given as a connection property.
+ * A Statement can return fewer rows via {@link java.sql.Statement#setMaxRows}.
+ *
+ * @author Simeon Malchev
+ */
+public class StubDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:stub:";
+    public static final String ROWS_PROPERTY = "rows";
+    public static final int DEFAULT_ROWS = 100;
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final ConcurrentMap<Integer, StubResultSet.Rows> rowsBySize = new ConcurrentHashMap<>();
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url))
+            return null;
+        return new StubConnection(getRows(parseRows(url, info)));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        DriverPropertyInfo rows = new DriverPropertyInfo(ROWS_PROPERTY, Integer.toString(DEFAULT_ROWS));
+        rows.description = "The number of rows returned by each query";
+        return new DriverPropertyInfo[] {rows};
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private StubResultSet.Rows getRows(int size) {
+        StubResultSet.Rows rows = rowsBySize.get(size);
+        if (rows == null) {
+            StubResultSet.Rows newRows = new StubResultSet.Rows(size);
+            rows = rowsBySize.putIfAbsent(size, newRows);
+            if (rows == null)
+                rows = newRows;
+        }
+        return rows;
+    }
+
+    private static int parseRows(String url, Properties info) throws SQLException {
+        String value = info != null ? info.getProperty(ROWS_PROPERTY) : null;
+        for (String param : url.substring(URL_PREFIX.length()).split(";")) {
+            if (param.startsWith(ROWS_PROPERTY + "="))
+                value = param.substring(ROWS_PROPERTY.length() + 1);
+        }
+        if (value == null)
+            return DEFAULT_ROWS;
+
+        try {
+            int rows = Integer.parseInt(value.trim());
+            if (rows < 0)
+                throw new SQLException("Negative rows value in " + url);
+            return rows;
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid rows value in " + url, e);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.benchmarks.stub;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+
+/**
+ * A stub JDBC PreparedStatement which ignores its SQL and parameters. Every execution reopens the same
+ * preallocated {@link StubResultSet}, limited by {@link #setMaxRows} if set, and every update reports zero
+ * affected rows.
+ *
+ * @author Simeon Malchev
+ */
+class StubPreparedStatement implements PreparedStatement {
+
+    private static final int[] NO_UPDATE_COUNTS = {};
+
+    private final StubConnection connection;
+    private final String sql;
+    private final StubResultSet resultSet;
+
+    private boolean closed = false;
+    private boolean poolable = true;
+    private int maxRows = 0;
+    private int queryTimeout = 0;
+    private int fetchSize = 0;
+
+    StubPreparedStatement(StubConnection connection, String sql) {
+        this.connection = connection;
+        this.sql = sql;
+        this.resultSet = new StubResultSet(this, connection.rows());
+    }
+
+    @Override
+    public String toString() {
+        return "StubPreparedStatement: " + sql;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        return resultSet.open(maxRows);
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        resultSet.close();
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) { }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return maxRows;
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        this.maxRows = max;
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) { }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return queryTimeout;
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        this.queryTimeout = seconds;
+    }
+
+    @Override
+    public void cancel() { }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void clearWarnings() { }
+
+    @Override
+    public void setCursorName(String name) { }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        resultSet.open(maxRows);
+        return true;
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return resultSet.isClosed() ? null : resultSet;
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return -1;
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        resultSet.close();
+        return false;
+    }
+
+    @Override
+    public void setFetchDirection(int direction) { }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return ResultSet.FETCH_FORWARD;
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        this.fetchSize = rows;
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return fetchSize;
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return ResultSet.CONCUR_READ_ONLY;
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return ResultSet.TYPE_FORWARD_ONLY;
+    }
+
+    @Override
+    public void addBatch(String sql) { }
+
+    @Override
+    public void clearBatch() { }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        return NO_UPDATE_COUNTS;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        resultSet.close();
+        return false;
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        resultSet.open(maxRows);
+        return true;
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        resultSet.open(maxRows);
+        return true;
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        resultSet.open(maxRows);
+        return true;
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return ResultSet.HOLD_CURSORS_OVER_COMMIT;
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed;
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        this.poolable = poolable;
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return poolable;
+    }
+
+    @Override
+    public void closeOnCompletion() { }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return false;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        return resultSet.open(maxRows);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) { }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) { }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) { }
+
+    @Override
+    public void setShort(int parameterIndex, short x) { }
+
+    @Override
+    public void setInt(int parameterIndex, int x) { }
+
+    @Override
+    public void setLong(int parameterIndex, long x) { }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) { }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) { }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) { }
+
+    @Override
+    public void setString(int parameterIndex, String x) { }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) { }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) { }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) { }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) { }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) { }
+
+    @Deprecated
+    @Override
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) { }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) { }
+
+    @Override
+    public void clearParameters() { }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) { }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) { }
+
+    @Override
+    public boolean execute() throws SQLException {
+        resultSet.open(maxRows);
+        return true;
+    }
+
+    @Override
+    public void addBatch() { }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) { }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) { }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) { }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) { }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) { }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) { }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) { }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) { }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) { }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) { }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) { }
+
+    @Override
+    public void setNString(int parameterIndex, String value) { }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) { }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) { }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) { }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) { }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) { }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) { }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) { }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) { }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) { }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) { }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) { }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) { }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) { }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) { }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) { }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) { }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) { }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (isWrapperFor(iface))
+            return iface.cast(this);
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
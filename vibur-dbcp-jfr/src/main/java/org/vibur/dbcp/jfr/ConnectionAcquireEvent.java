@@ -0,0 +1,52 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when a call to {@code getConnection()} took a pooled connection, or failed to take one, which includes
+ * the timeouts. The successful calls which waited less than the {@link ViburJfr#register acquire threshold}
+ * are not emitted.
+ *
+ * @author Simeon Malchev
+ */
+@Name("org.vibur.dbcp.ConnectionAcquire")
+@Label("Connection Acquire")
+@Description("A getConnection() call which waited for a pooled connection")
+@Category({"Vibur DBCP", "Connection"})
+@StackTrace(true)
+class ConnectionAcquireEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Wait Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitTime;
+
+    @Label("Acquired")
+    @Description("False if the call timed out, was interrupted, or failed to create a new connection")
+    boolean acquired;
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when the pool closed and removed a raw JDBC connection.
+ *
+ * @author Simeon Malchev
+ */
+@Name("org.vibur.dbcp.ConnectionDestroy")
+@Label("Connection Destroy")
+@Description("The closing of a raw JDBC connection")
+@Category({"Vibur DBCP", "Connection"})
+@StackTrace(false)
+class ConnectionDestroyEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Close Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long closeTime;
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Emitted when all connections in the pool were destroyed because of a critical SQL state.
+ *
+ * @author Simeon Malchev
+ */
+@Name("org.vibur.dbcp.CriticalDrain")
+@Label("Critical Drain")
+@Description("All pooled connections were destroyed because of a critical SQL state")
+@Category({"Vibur DBCP", "Connection"})
+@StackTrace(true)
+class CriticalDrainEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("SQL State")
+    String sqlState;
+
+    @Label("Message")
+    String message;
+
+    @Label("Destroyed Connections")
+    int destroyedConnections;
+}
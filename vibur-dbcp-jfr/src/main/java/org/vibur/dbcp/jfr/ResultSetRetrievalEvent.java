@@ -0,0 +1,53 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emitted when a ResultSet with at least the {@link ViburJfr#register large ResultSet threshold} rows is closed.
+ *
+ * @author Simeon Malchev
+ */
+@Name("org.vibur.dbcp.ResultSetRetrieval")
+@Label("ResultSet Retrieval")
+@Description("The retrieval of the rows of a ResultSet")
+@Category({"Vibur DBCP", "Statement"})
+@StackTrace(true)
+class ResultSetRetrievalEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("SQL Fingerprint")
+    String fingerprint;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Retrieval Time")
+    @Description("The time between the first and the last next() call")
+    @Timespan(Timespan.NANOSECONDS)
+    long retrievalTime;
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Emitted around the execution of an SQL statement. The event duration is the execution time, and its default
+ * threshold can be changed via the JFR settings, for example,
+ * {@code jcmd <pid> JFR.start settings=custom.jfc} where {@code custom.jfc} sets the
+ * {@code org.vibur.dbcp.StatementExecution#threshold}.
+ *
+ * @author Simeon Malchev
+ */
+@Name("org.vibur.dbcp.StatementExecution")
+@Label("Statement Execution")
+@Description("The execution of an SQL statement")
+@Category({"Vibur DBCP", "Statement"})
+@StackTrace(true)
+@Threshold("20 ms")
+class StatementExecutionEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("SQL Fingerprint")
+    @Description("The SQL query with its literals replaced with ?")
+    String fingerprint;
+
+    @Label("Method")
+    String method;
+
+    @Label("Updated Rows")
+    long rows;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.jfr;
+
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.pool.Hook;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.vibur.dbcp.util.SqlFingerprint.fingerprint;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * Registers the pool hooks which emit the Vibur DBCP Java Flight Recorder events. Must be called before
+ * the pool is started, for example:
+ * <pre>{@code
+ *      ViburDBCPDataSource ds = new ViburDBCPDataSource();
+ *      // configure ds ...
+ *      ViburJfr.register(ds);
+ *      ds.start();
+ * }</pre>
+ *
+ * <p>When the events are not enabled in the current JFR recording, or when there is no recording, the hooks
+ * only check {@code Event.isEnabled()}, which the JIT compiler reduces to a constant.
+ *
+ * @author Simeon Malchev
+ */
+public final class ViburJfr {
+
+    public static final long DEFAULT_ACQUIRE_THRESHOLD_MS = 10;
+    public static final long DEFAULT_LARGE_RESULT_SET = 500;
+
+    private ViburJfr() { }
+
+    /**
+     * Registers the JFR hooks with the default thresholds.
+     *
+     * @param config the pool configuration
+     */
+    public static void register(ViburConfig config) {
+        register(config, DEFAULT_ACQUIRE_THRESHOLD_MS, DEFAULT_LARGE_RESULT_SET);
+    }
+
+    /**
+     * Registers the JFR hooks. The connection create and destroy events, the failed {@code getConnection()} calls,
+     * and the critical drains, are always emitted. The statement execution events are emitted according to their
+     * JFR {@code threshold} setting, which defaults to 20 ms.
+     *
+     * @param config the pool configuration
+     * @param acquireThresholdMs the successful {@code getConnection()} calls which waited less than this time
+     *                           are not emitted
+     * @param largeResultSet the ResultSets with less than this number of rows are not emitted
+     */
+    public static void register(ViburConfig config, long acquireThresholdMs, long largeResultSet) {
+        forbidIllegalArgument(acquireThresholdMs < 0);
+        forbidIllegalArgument(largeResultSet < 0);
+        config.getConnHooks().addOnGet(new AcquireHook(config, MILLISECONDS.toNanos(acquireThresholdMs)));
+        config.getConnHooks().addOnInit(new CreateHook(config));
+        config.getConnHooks().addOnDestroy(new DestroyHook(config));
+        config.getConnHooks().addOnCriticalDrain(new CriticalDrainHook(config));
+        config.getInvocationHooks().addOnStatementExecution(new ExecutionHook(config));
+        config.getInvocationHooks().addOnResultSetRetrieval(new ResultSetHook(config, largeResultSet));
+    }
+
+    private static final class AcquireHook implements Hook.GetConnection {
+        private final ViburConfig config;
+        private final long thresholdNanos;
+
+        private AcquireHook(ViburConfig config, long thresholdNanos) {
+            this.config = config;
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            boolean acquired = rawConnection != null;
+            if (acquired && takenNanos < thresholdNanos)
+                return;
+
+            ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+            if (!event.isEnabled())
+                return;
+            event.pool = config.getName();
+            event.waitTime = takenNanos;
+            event.acquired = acquired;
+            event.commit();
+        }
+    }
+
+    private static final class CreateHook implements Hook.InitConnection {
+        private final ViburConfig config;
+
+        private CreateHook(ViburConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            ConnectionCreateEvent event = new ConnectionCreateEvent();
+            if (!event.isEnabled())
+                return;
+            event.pool = config.getName();
+            event.connectTime = takenNanos;
+            event.created = rawConnection != null;
+            event.commit();
+        }
+    }
+
+    private static final class DestroyHook implements Hook.DestroyConnection {
+        private final ViburConfig config;
+
+        private DestroyHook(ViburConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            ConnectionDestroyEvent event = new ConnectionDestroyEvent();
+            if (!event.isEnabled())
+                return;
+            event.pool = config.getName();
+            event.closeTime = takenNanos;
+            event.commit();
+        }
+    }
+
+    private static final class CriticalDrainHook implements Hook.CriticalDrain {
+        private final ViburConfig config;
+
+        private CriticalDrainHook(ViburConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public void on(SQLException criticalException, int destroyedConnections) {
+            CriticalDrainEvent event = new CriticalDrainEvent();
+            if (!event.isEnabled())
+                return;
+            event.pool = config.getName();
+            event.sqlState = criticalException.getSQLState();
+            event.message = criticalException.getMessage();
+            event.destroyedConnections = destroyedConnections;
+            event.commit();
+        }
+    }
+
+    private static final class ExecutionHook implements Hook.StatementExecution {
+        private final ViburConfig config;
+
+        private ExecutionHook(ViburConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                         StatementProceedingPoint proceed) throws SQLException {
+
+            StatementExecutionEvent event = new StatementExecutionEvent();
+            if (!event.isEnabled())
+                return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+
+            event.begin();
+            Object result = null;
+            boolean failed = true;
+            try {
+                result = proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                failed = false;
+                return result;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) { // the fingerprinting is done only for the events above the threshold
+                    event.pool = config.getName();
+                    event.fingerprint = fingerprint(sqlQuery);
+                    event.method = method.getName();
+                    event.rows = result instanceof Number ? ((Number) result).longValue() : 0;
+                    event.failed = failed;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private static final class ResultSetHook implements Hook.ResultSetRetrieval {
+        private final ViburConfig config;
+        private final long largeResultSet;
+
+        private ResultSetHook(ViburConfig config, long largeResultSet) {
+            this.config = config;
+            this.largeResultSet = largeResultSet;
+        }
+
+        @Override
+        public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) {
+            if (resultSetSize < largeResultSet)
+                return;
+
+            ResultSetRetrievalEvent event = new ResultSetRetrievalEvent();
+            if (!event.isEnabled())
+                return;
+            event.pool = config.getName();
+            event.fingerprint = fingerprint(sqlQuery);
+            event.rows = resultSetSize;
+            event.retrievalTime = resultSetNanoTime;
+            event.commit();
+        }
+    }
+}
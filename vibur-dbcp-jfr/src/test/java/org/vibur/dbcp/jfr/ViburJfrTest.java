@@ -0,0 +1,217 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.HookHolder.ConnHooks;
+import org.vibur.dbcp.pool.HookHolder.InvocationHooks;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ViburJfrTest {
+
+    private final CapturingHooks hooks = new CapturingHooks();
+
+    @Test
+    public void testEmitsEvents() throws Exception {
+        ViburDBCPDataSource ds = new ViburDBCPDataSource() {
+            @Override
+            public ConnHooks getConnHooks() {
+                return hooks;
+            }
+
+            @Override
+            public InvocationHooks getInvocationHooks() {
+                return hooks;
+            }
+        };
+        ds.setName("jfr");
+        ViburJfr.register(ds, 10, 500);
+
+        List<RecordedEvent> events = record(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Connection connection = newConnection();
+                    hooks.onInit.on(connection, MILLISECONDS.toNanos(3));
+                    hooks.onInit.on(null, MILLISECONDS.toNanos(4));
+                    hooks.onGet.on(connection, MILLISECONDS.toNanos(1)); // below the acquire threshold
+                    hooks.onGet.on(connection, MILLISECONDS.toNanos(15));
+                    hooks.onGet.on(null, MILLISECONDS.toNanos(20)); // a timeout
+                    hooks.onDestroy.on(connection, MILLISECONDS.toNanos(2));
+                    hooks.onCriticalDrain.on(new SQLException("connection lost", "08S01"), 3);
+                    hooks.onResultSetRetrieval.on("select * from t where a = 1", null, 100, 1_000); // below 500 rows
+                    hooks.onResultSetRetrieval.on("select * from t where a = 2", null, 1000, 2_000);
+                    hooks.onStatementExecution.on(null, Statement.class.getMethod("executeUpdate", String.class),
+                            null, "update t set a = 5", null, new Hook.StatementProceedingPoint() {
+                                @Override
+                                public Object on(Statement proxy, Method method, Object[] args, String sqlQuery,
+                                                 List<Object[]> sqlQueryParams, Hook.StatementProceedingPoint proceed) {
+                                    return 7;
+                                }
+                            });
+                } catch (NoSuchMethodException | SQLException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        assertEquals(8, events.size());
+        for (RecordedEvent event : events)
+            assertEquals("jfr", event.getString("pool"));
+
+        List<RecordedEvent> creates = ofType(events, "org.vibur.dbcp.ConnectionCreate");
+        assertEquals(2, creates.size());
+        assertTrue(creates.get(0).getBoolean("created"));
+        assertEquals(Duration.ofMillis(3), creates.get(0).getDuration("connectTime"));
+        assertFalse(creates.get(1).getBoolean("created"));
+
+        List<RecordedEvent> acquires = ofType(events, "org.vibur.dbcp.ConnectionAcquire");
+        assertEquals(2, acquires.size());
+        assertTrue(acquires.get(0).getBoolean("acquired"));
+        assertEquals(Duration.ofMillis(15), acquires.get(0).getDuration("waitTime"));
+        assertFalse(acquires.get(1).getBoolean("acquired"));
+
+        assertEquals(Duration.ofMillis(2), ofType(events, "org.vibur.dbcp.ConnectionDestroy").get(0).getDuration("closeTime"));
+
+        RecordedEvent drain = ofType(events, "org.vibur.dbcp.CriticalDrain").get(0);
+        assertEquals("08S01", drain.getString("sqlState"));
+        assertEquals(3, drain.getInt("destroyedConnections"));
+
+        RecordedEvent resultSet = ofType(events, "org.vibur.dbcp.ResultSetRetrieval").get(0);
+        assertEquals(1000, resultSet.getLong("rows"));
+        assertEquals("select * from t where a = ?", resultSet.getString("fingerprint"));
+
+        RecordedEvent execution = ofType(events, "org.vibur.dbcp.StatementExecution").get(0);
+        assertEquals("update t set a = ?", execution.getString("fingerprint"));
+        assertEquals("executeUpdate", execution.getString("method"));
+        assertEquals(7, execution.getLong("rows"));
+        assertFalse(execution.getBoolean("failed"));
+    }
+
+    private static List<RecordedEvent> record(Runnable action) throws IOException {
+        Path file = Files.createTempFile("vibur-jfr", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConnectionAcquire", "ConnectionCreate", "ConnectionDestroy",
+                    "CriticalDrain", "ResultSetRetrieval", "StatementExecution"})
+                recording.enable("org.vibur.dbcp." + name).withThreshold(Duration.ZERO);
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> result = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name))
+                result.add(event);
+        }
+        return result;
+    }
+
+    private static Connection newConnection() {
+        return (Connection) Proxy.newProxyInstance(ViburJfrTest.class.getClassLoader(), new Class<?>[] {Connection.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("toString") ? "stub Connection" : null;
+                    }
+                });
+    }
+
+    /** Captures the single hook of each type which is registered by ViburJfr. */
+    private static final class CapturingHooks implements ConnHooks, InvocationHooks {
+        private Hook.InitConnection onInit;
+        private Hook.GetConnection onGet;
+        private Hook.DestroyConnection onDestroy;
+        private Hook.CriticalDrain onCriticalDrain;
+        private Hook.StatementExecution onStatementExecution;
+        private Hook.ResultSetRetrieval onResultSetRetrieval;
+
+        @Override
+        public void addOnInit(Hook.InitConnection hook) {
+            onInit = hook;
+        }
+
+        @Override
+        public void addOnGet(Hook.GetConnection hook) {
+            onGet = hook;
+        }
+
+        @Override
+        public void addOnClose(Hook.CloseConnection hook) {
+            fail("not registered by ViburJfr");
+        }
+
+        @Override
+        public void addOnDestroy(Hook.DestroyConnection hook) {
+            onDestroy = hook;
+        }
+
+        @Override
+        public void addOnTimeout(Hook.GetConnectionTimeout hook) {
+            fail("not registered by ViburJfr");
+        }
+
+        @Override
+        public void addOnCriticalDrain(Hook.CriticalDrain hook) {
+            onCriticalDrain = hook;
+        }
+
+        @Override
+        public void addOnMethodInvocation(Hook.MethodInvocation hook) {
+            fail("not registered by ViburJfr");
+        }
+
+        @Override
+        public void addOnStatementExecution(Hook.StatementExecution hook) {
+            onStatementExecution = hook;
+        }
+
+        @Override
+        public void addOnResultSetRetrieval(Hook.ResultSetRetrieval hook) {
+            onResultSetRetrieval = hook;
+        }
+    }
+}
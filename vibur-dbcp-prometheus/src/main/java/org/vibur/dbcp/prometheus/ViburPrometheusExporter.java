@@ -0,0 +1,421 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.vibur.dbcp.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.dbcp.pool.ConnHolder;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.PoolMetrics;
+import org.vibur.dbcp.stcache.AbstractStatementCache;
+import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.dbcp.stcache.StatementCacheStats;
+import org.vibur.dbcp.util.StripedCounter;
+import org.vibur.dbcp.util.StripedHistogram;
+import org.vibur.objectpool.PoolService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * Exports the gauges, counters, and timing summaries of one or more Vibur DBCP pools in the OpenMetrics
+ * text format, served on the {@code /metrics} path of an embedded HTTP server. Each sample is labeled with
+ * the name of its pool, for example:
+ * <pre>{@code
+ *      ViburPrometheusExporter exporter = new ViburPrometheusExporter();
+ *      exporter.register(ds1); // before ds1.start()
+ *      exporter.register(ds2); // before ds2.start()
+ *      exporter.start(new InetSocketAddress(9404));
+ * }</pre>
+ *
+ * <p>The waiters gauge and the timing summaries are available only when the {@code enableMetrics} pool
+ * configuration option is set.
+ * The registered pools must have unique names. The rendering reuses its text and byte buffers between the scrapes,
+ * and the scrapes are served one at a time.
+ *
+ * @author Simeon Malchev
+ */
+public final class ViburPrometheusExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    public static final String PATH = "/metrics";
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+    private final List<PoolCounters> pools = new CopyOnWriteArrayList<>();
+
+    private final StringBuilder text = new StringBuilder(4096);
+    private final CharsetEncoder encoder = UTF_8.newEncoder();
+    private ByteBuffer bytes = ByteBuffer.allocate(8192);
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    /**
+     * Registers the counting hooks of the given data source and adds it to the exported pools. Must be called
+     * before the data source is started.
+     *
+     * @param dataSource the data source
+     */
+    public void register(ViburDBCPDataSource dataSource) {
+        for (PoolCounters pool : pools)
+            forbidIllegalArgument(pool.dataSource == dataSource || pool.dataSource.getName().equals(dataSource.getName()),
+                    "dataSource " + dataSource.getName() + " is already registered");
+
+        PoolCounters pool = new PoolCounters(dataSource);
+        dataSource.getConnHooks().addOnInit(new CreateCounter(pool.created));
+        dataSource.getConnHooks().addOnDestroy(new DestroyCounter(pool.destroyed));
+        dataSource.getConnHooks().addOnCriticalDrain(new DrainCounter(pool.drains));
+        pools.add(pool);
+    }
+
+    /**
+     * Removes the given data source from the exported pools. Its counting hooks remain registered.
+     *
+     * @param dataSource the data source
+     */
+    public void unregister(ViburDBCPDataSource dataSource) {
+        for (PoolCounters pool : pools) {
+            if (pool.dataSource == dataSource)
+                pools.remove(pool);
+        }
+    }
+
+    /**
+     * Starts the embedded HTTP server on the given address. The server uses a single daemon thread.
+     *
+     * @param address the address to listen on
+     * @throws IOException if the server cannot be bound to the address
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (server != null)
+            throw new IllegalStateException("already started");
+
+        HttpServer httpServer = HttpServer.create(address, 0);
+        httpServer.createContext(PATH, new MetricsHandler());
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "vibur-prometheus-exporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        httpServer.setExecutor(executor);
+        httpServer.start();
+        server = httpServer;
+    }
+
+    /**
+     * Stops the embedded HTTP server, if started.
+     */
+    public synchronized void stop() {
+        if (server == null)
+            return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Returns the bound address of the embedded HTTP server, or {@code null} if the server is not started.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server != null ? server.getAddress() : null;
+    }
+
+    /**
+     * Renders the current values of all exported pools in the OpenMetrics text format.
+     */
+    public synchronized String scrape() {
+        render();
+        return text.toString();
+    }
+
+    private synchronized void writeTo(HttpExchange exchange) throws IOException {
+        render();
+        encode();
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, bytes.remaining());
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes.array(), 0, bytes.remaining());
+        }
+    }
+
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod()))
+                    exchange.sendResponseHeaders(405, -1);
+                else
+                    writeTo(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    ////////////// rendering //////////////
+
+    private void render() {
+        text.setLength(0);
+
+        header("vibur_dbcp_connections_taken", "gauge", "The number of connections currently taken from the pool.");
+        for (PoolCounters pool : pools) {
+            PoolService<ConnHolder> poolService = pool.dataSource.getPool();
+            if (poolService != null)
+                sample("vibur_dbcp_connections_taken", pool).append(poolService.taken()).append('\n');
+        }
+        header("vibur_dbcp_connections_remaining_created", "gauge", "The number of created connections which are available in the pool.");
+        for (PoolCounters pool : pools) {
+            PoolService<ConnHolder> poolService = pool.dataSource.getPool();
+            if (poolService != null)
+                sample("vibur_dbcp_connections_remaining_created", pool).append(poolService.remainingCreated()).append('\n');
+        }
+        header("vibur_dbcp_connections_max", "gauge", "The maximum number of connections which the pool can create.");
+        for (PoolCounters pool : pools) {
+            PoolService<ConnHolder> poolService = pool.dataSource.getPool();
+            if (poolService != null)
+                sample("vibur_dbcp_connections_max", pool).append(poolService.maxSize()).append('\n');
+        }
+        header("vibur_dbcp_waiters", "gauge", "The number of threads currently taking a connection from the pool.");
+        for (PoolCounters pool : pools) {
+            int waiters = pool.dataSource.getPoolWaiters();
+            if (waiters >= 0)
+                sample("vibur_dbcp_waiters", pool).append(waiters).append('\n');
+        }
+
+        header("vibur_dbcp_connections_created", "counter", "The number of created raw connections.");
+        for (PoolCounters pool : pools)
+            sample("vibur_dbcp_connections_created_total", pool).append(pool.created.sum()).append('\n');
+        header("vibur_dbcp_connections_destroyed", "counter", "The number of destroyed raw connections.");
+        for (PoolCounters pool : pools)
+            sample("vibur_dbcp_connections_destroyed_total", pool).append(pool.destroyed.sum()).append('\n');
+        header("vibur_dbcp_get_connection_timeouts", "counter", "The number of getConnection() calls which timed out.");
+        for (PoolCounters pool : pools)
+            sample("vibur_dbcp_get_connection_timeouts_total", pool).append(pool.dataSource.getPoolTimeouts()).append('\n');
+        header("vibur_dbcp_critical_drains", "counter", "The number of pool drains caused by critical SQL exceptions.");
+        for (PoolCounters pool : pools)
+            sample("vibur_dbcp_critical_drains_total", pool).append(pool.drains.sum()).append('\n');
+
+        header("vibur_dbcp_statement_cache_hits", "counter", "The number of statement cache hits.");
+        for (PoolCounters pool : pools) {
+            StatementCacheStats stats = statementCacheStats(pool);
+            if (stats != null)
+                sample("vibur_dbcp_statement_cache_hits_total", pool).append(stats.getHits()).append('\n');
+        }
+        header("vibur_dbcp_statement_cache_misses", "counter", "The number of statement cache misses.");
+        for (PoolCounters pool : pools) {
+            StatementCacheStats stats = statementCacheStats(pool);
+            if (stats != null)
+                sample("vibur_dbcp_statement_cache_misses_total", pool).append(stats.getMisses()).append('\n');
+        }
+        header("vibur_dbcp_statement_cache_evictions", "counter", "The number of statement cache evictions.");
+        for (PoolCounters pool : pools) {
+            StatementCacheStats stats = statementCacheStats(pool);
+            if (stats != null)
+                sample("vibur_dbcp_statement_cache_evictions_total", pool).append(stats.getEvictions()).append('\n');
+        }
+
+        summary("vibur_dbcp_connection_create_seconds", "The time taken to create a raw connection.", CONNECTION_CREATE);
+        summary("vibur_dbcp_connection_wait_seconds", "The time taken by the getConnection() calls.", CONNECTION_WAIT);
+        summary("vibur_dbcp_connection_hold_seconds", "The time for which a connection was held by the application.", CONNECTION_HOLD);
+        summary("vibur_dbcp_statement_execution_seconds", "The execution time of the SQL statements.", STATEMENT_EXECUTION);
+        summary("vibur_dbcp_result_set_rows", "The number of rows retrieved from the ResultSets.", RESULT_SET_SIZE);
+
+        text.append("# EOF\n");
+    }
+
+    private static final int CONNECTION_CREATE = 0;
+    private static final int CONNECTION_WAIT = 1;
+    private static final int CONNECTION_HOLD = 2;
+    private static final int STATEMENT_EXECUTION = 3;
+    private static final int RESULT_SET_SIZE = 4;
+
+    private static StripedHistogram histogram(PoolMetrics metrics, int which) {
+        switch (which) {
+            case CONNECTION_CREATE: return metrics.getConnectionCreate();
+            case CONNECTION_WAIT: return metrics.getConnectionWait();
+            case CONNECTION_HOLD: return metrics.getConnectionHold();
+            case STATEMENT_EXECUTION: return metrics.getStatementExecution();
+            default: return metrics.getResultSetSize();
+        }
+    }
+
+    private void summary(String name, String help, int which) {
+        boolean seconds = which != RESULT_SET_SIZE;
+        header(name, "summary", help);
+        if (seconds)
+            text.append("# UNIT ").append(name).append(" seconds\n");
+
+        for (PoolCounters pool : pools) {
+            PoolMetrics metrics = pool.dataSource.getPoolMetrics();
+            if (metrics == null)
+                continue;
+
+            StripedHistogram.Snapshot snapshot = histogram(metrics, which).snapshot();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                text.append(name).append("{pool=\"");
+                escape(pool.name);
+                text.append("\",quantile=\"").append(QUANTILES[i]).append("\"} ");
+                value(snapshot.getValueAtPercentile(PERCENTILES[i]), seconds).append('\n');
+            }
+            sample(name, "_sum", pool);
+            value(snapshot.getSum(), seconds).append('\n');
+            sample(name, "_count", pool).append(snapshot.getCount()).append('\n');
+        }
+    }
+
+    private void header(String name, String type, String help) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private StringBuilder sample(String name, PoolCounters pool) {
+        return sample(name, "", pool);
+    }
+
+    private StringBuilder sample(String name, String suffix, PoolCounters pool) {
+        text.append(name).append(suffix).append("{pool=\"");
+        escape(pool.name);
+        return text.append("\"} ");
+    }
+
+    /** Appends the given nanoseconds as seconds with a fixed point, without going through a double. */
+    private StringBuilder value(long value, boolean nanosToSeconds) {
+        if (!nanosToSeconds)
+            return text.append(value);
+
+        text.append(value / 1_000_000_000).append('.');
+        long fraction = value % 1_000_000_000;
+        for (long digit = 100_000_000; digit > 1 && fraction < digit; digit /= 10)
+            text.append('0');
+        return text.append(fraction);
+    }
+
+    private void escape(String labelValue) {
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            if (c == '\\' || c == '"')
+                text.append('\\').append(c);
+            else if (c == '\n')
+                text.append("\\n");
+            else
+                text.append(c);
+        }
+    }
+
+    private static StatementCacheStats statementCacheStats(PoolCounters pool) {
+        StatementCache statementCache = pool.dataSource.getStatementCache();
+        return statementCache instanceof AbstractStatementCache ? ((AbstractStatementCache) statementCache).getStats() : null;
+    }
+
+    /** Encodes the rendered text into the reusable bytes buffer, growing it if needed. */
+    private void encode() {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            bytes.clear();
+            encoder.reset();
+            CoderResult result = encoder.encode(chars, bytes, true);
+            if (!result.isOverflow())
+                result = encoder.flush(bytes);
+            if (!result.isOverflow())
+                break;
+            bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+            chars.rewind();
+        }
+        bytes.flip();
+    }
+
+    ////////////// the pool counters and hooks //////////////
+
+    private static final class PoolCounters {
+
+        private final ViburDBCPDataSource dataSource;
+        private final String name;
+
+        private final StripedCounter created = new StripedCounter();
+        private final StripedCounter destroyed = new StripedCounter();
+        private final StripedCounter drains = new StripedCounter();
+
+        private PoolCounters(ViburDBCPDataSource dataSource) {
+            this.dataSource = dataSource;
+            this.name = dataSource.getName();
+        }
+    }
+
+    private static final class CreateCounter implements Hook.InitConnection {
+        private final StripedCounter counter;
+
+        private CreateCounter(StripedCounter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) throws SQLException {
+            if (rawConnection != null) // i.e. if the raw connection was successfully created
+                counter.increment();
+        }
+    }
+
+    private static final class DestroyCounter implements Hook.DestroyConnection {
+        private final StripedCounter counter;
+
+        private DestroyCounter(StripedCounter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void on(Connection rawConnection, long takenNanos) {
+            counter.increment();
+        }
+    }
+
+    private static final class DrainCounter implements Hook.CriticalDrain {
+        private final StripedCounter counter;
+
+        private DrainCounter(StripedCounter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void on(SQLException criticalException, int destroyedConnections) {
+            counter.increment();
+        }
+    }
+}
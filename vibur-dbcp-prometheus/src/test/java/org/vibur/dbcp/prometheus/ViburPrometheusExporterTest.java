@@ -0,0 +1,112 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.prometheus;
+
+import org.junit.Test;
+import org.vibur.dbcp.ViburDBCPDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ViburPrometheusExporterTest {
+
+    private static final Pattern SAMPLE = Pattern.compile("[a-z_]+\\{pool=\"([^\"\\\\]|\\\\.)*\"(,quantile=\"[0-9.]+\")?} -?[0-9.]+");
+
+    @Test
+    public void testScrapeIsValidOpenMetrics() {
+        ViburPrometheusExporter exporter = new ViburPrometheusExporter();
+        exporter.register(newDataSource("first \"pool\""));
+        exporter.register(newDataSource("second"));
+
+        String text = exporter.scrape();
+        assertTrue(text.endsWith("\n# EOF\n"));
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# "))
+                assertTrue(line, line.matches("# (TYPE [a-z_]+ (gauge|counter|summary)|HELP [a-z_]+ .+|UNIT [a-z_]+ seconds|EOF)"));
+            else
+                assertTrue(line, SAMPLE.matcher(line).matches());
+        }
+
+        assertTrue(text.contains("# TYPE vibur_dbcp_get_connection_timeouts counter\n"));
+        assertTrue(text.contains("vibur_dbcp_get_connection_timeouts_total{pool=\"first \\\"pool\\\"\"} 0\n"));
+        assertTrue(text.contains("vibur_dbcp_get_connection_timeouts_total{pool=\"second\"} 0\n"));
+        assertTrue(text.contains("vibur_dbcp_connections_created_total{pool=\"second\"} 0\n"));
+        assertFalse(text.contains("vibur_dbcp_waiters{")); // not counted as enableMetrics is not set
+        assertFalse(text.contains("quantile=")); // no PoolMetrics as enableMetrics is not set
+    }
+
+    @Test
+    public void testRegisterRejectsDuplicateNames() {
+        ViburPrometheusExporter exporter = new ViburPrometheusExporter();
+        exporter.register(newDataSource("pool"));
+        try {
+            exporter.register(newDataSource("pool"));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testServesScrapeOverHttp() throws IOException {
+        ViburPrometheusExporter exporter = new ViburPrometheusExporter();
+        exporter.register(newDataSource("pool"));
+        exporter.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            URL url = new URL("http", "127.0.0.1", exporter.getAddress().getPort(), ViburPrometheusExporter.PATH);
+
+            HttpURLConnection get = (HttpURLConnection) url.openConnection();
+            assertEquals(200, get.getResponseCode());
+            assertEquals(ViburPrometheusExporter.CONTENT_TYPE, get.getContentType());
+            assertEquals(exporter.scrape(), read(get.getInputStream()));
+
+            HttpURLConnection post = (HttpURLConnection) url.openConnection();
+            post.setRequestMethod("POST");
+            assertEquals(405, post.getResponseCode());
+        } finally {
+            exporter.stop();
+        }
+        assertNull(exporter.getAddress());
+    }
+
+    private static ViburDBCPDataSource newDataSource(String name) {
+        ViburDBCPDataSource ds = new ViburDBCPDataSource();
+        ds.setName(name);
+        return ds;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = input.read(buffer)) > 0; )
+                out.write(buffer, 0, n);
+            return new String(out.toByteArray(), UTF_8);
+        }
+    }
+}